@@ -18,6 +18,9 @@
  */
 package com.giorgosgaganis.odoxsync;
 
+import com.giorgosgaganis.odoxsync.digest.DirectoryHashTree;
+import com.giorgosgaganis.odoxsync.messages.NegotiatedSettings;
+import com.giorgosgaganis.odoxsync.server.candidates.DigestIndex;
 import com.giorgosgaganis.odoxsync.server.candidates.TransferCandidate;
 import com.giorgosgaganis.odoxsync.utils.ochillatingqueue.OscillatingQueueWrapper;
 
@@ -39,6 +42,19 @@ public class Client {
 
     public ConcurrentHashMap<Integer, File> files = new ConcurrentHashMap<>();
 
+    /**
+     * Hashes of the digests the client reported, to compare with the tree of
+     * the server files.
+     */
+    public final DirectoryHashTree tree = new DirectoryHashTree();
+
+    /**
+     * Where the client holds the bytes of each slow digest it reported.
+     */
+    public final DigestIndex digestIndex = new DigestIndex(files);
+
+    private volatile NegotiatedSettings settings;
+
     public Client(int id) {
         this.id = id;
         removeExpiredOffers();
@@ -73,4 +89,15 @@ public class Client {
     public int getId() {
         return id;
     }
+
+    /**
+     * What was agreed with the client when it introduced itself.
+     */
+    public NegotiatedSettings getSettings() {
+        return settings;
+    }
+
+    public void setSettings(NegotiatedSettings settings) {
+        this.settings = settings;
+    }
 }
\ No newline at end of file
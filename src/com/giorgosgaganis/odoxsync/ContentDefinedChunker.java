@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync;
+
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.SplittableRandom;
+
+/**
+ * Splits data into chunks whose boundaries depend on the content, using a
+ * gear rolling hash in the style of FastCDC. An insertion or removal only
+ * moves the boundaries next to it, so the chunks after it keep their
+ * content and can be recognised at their new offsets.
+ *
+ * Chunks are at least {@code minSize} and at most {@code maxSize} bytes. Below
+ * {@code avgSize} a stricter mask is used and above it a looser one, which
+ * keeps most chunk sizes close to the average.
+ */
+public class ContentDefinedChunker {
+
+    public interface ChunkConsumer {
+        void accept(long offset, int size);
+    }
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed, both sides of a sync must cut at the same places
+        SplittableRandom random = new SplittableRandom(0x6f646f7853796e63L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private static final int READ_SIZE = 0x100000;
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long strictMask;
+    private final long looseMask;
+
+    public ContentDefinedChunker(int minSize, int avgSize, int maxSize) {
+        if (minSize <= 0 || minSize > avgSize || avgSize > maxSize) {
+            throw new IllegalArgumentException("Chunk sizes must satisfy 0 < min [" + minSize
+                    + "] <= avg [" + avgSize + "] <= max [" + maxSize + "]");
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+
+        int bits = 31 - Integer.numberOfLeadingZeros(avgSize);
+        strictMask = topBits(bits + 1);
+        looseMask = topBits(Math.max(1, bits - 1));
+    }
+
+    private static long topBits(int count) {
+        return count >= 64 ? -1L : ((1L << count) - 1) << (64 - count);
+    }
+
+    /**
+     * Reads the channel to its end and reports every chunk in order. Empty
+     * input is reported as a single empty chunk.
+     */
+    public void chunk(ReadableByteChannel channel, ChunkConsumer chunkConsumer) throws IOException {
+        ByteBuffer buffer;
+        try {
+            buffer = BufferPool.INSTANCE.borrow(READ_SIZE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a chunking buffer");
+        }
+
+        try {
+            long chunkStart = 0;
+            int chunkLength = 0;
+            long hash = 0;
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    int b = buffer.get() & 0xff;
+                    chunkLength++;
+                    if (chunkLength < minSize) {
+                        continue;
+                    }
+                    hash = (hash << 1) + GEAR[b];
+                    long mask = chunkLength < avgSize ? strictMask : looseMask;
+                    if ((hash & mask) == 0 || chunkLength >= maxSize) {
+                        chunkConsumer.accept(chunkStart, chunkLength);
+                        chunkStart += chunkLength;
+                        chunkLength = 0;
+                        hash = 0;
+                    }
+                }
+                buffer.clear();
+                buffer.limit(READ_SIZE);
+            }
+            if (chunkLength > 0 || chunkStart == 0) {
+                chunkConsumer.accept(chunkStart, chunkLength);
+            }
+        } finally {
+            BufferPool.INSTANCE.release(buffer);
+        }
+    }
+}
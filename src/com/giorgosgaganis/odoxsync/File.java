@@ -25,6 +25,8 @@ import javax.xml.bind.annotation.XmlRootElement;
 import java.nio.file.Path;
 import java.nio.file.attribute.FileTime;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Created by gaganis on 13/01/17.
@@ -35,11 +37,14 @@ public class File {
     private int id;
 
     private long size;
+    private long regionSize;
     private FileTime lastModified;
 
     private Path absolutePath;
 
     private ConcurrentHashMap<Long, Region> regions = new ConcurrentHashMap<>();
+    private final AtomicLong digestVersion = new AtomicLong();
+    private volatile Consumer<File> digestListener;
     private int syncedPercentage;
     private int fastUpToDatePercent;
     private int slowUpToDatePercent;
@@ -77,10 +82,47 @@ public class File {
         this.size = size;
     }
 
+    /**
+     * Size of the regions the file is cut into, or with content defined
+     * regions their average size. Zero until the regions are calculated.
+     */
+    public long getRegionSize() {
+        return regionSize;
+    }
+
+    public void setRegionSize(long regionSize) {
+        this.regionSize = regionSize;
+    }
+
     public ConcurrentHashMap<Long, Region> getRegions() {
         return regions;
     }
 
+    /**
+     * Changes whenever the regions or their digests change, so that values
+     * derived from all of them can tell when they are stale.
+     */
+    @JsonIgnore
+    public long getDigestVersion() {
+        return digestVersion.get();
+    }
+
+    public void digestsChanged() {
+        digestVersion.incrementAndGet();
+        Consumer<File> listener = digestListener;
+        if (listener != null) {
+            listener.accept(this);
+        }
+    }
+
+    /**
+     * Called after every change of the regions or their digests.
+     */
+    @JsonIgnore
+    public void setDigestListener(Consumer<File> digestListener) {
+        this.digestListener = digestListener;
+    }
+
     @JsonIgnore
     public FileTime getLastModified() {
         return lastModified;
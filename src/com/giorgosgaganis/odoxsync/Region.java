@@ -36,6 +36,9 @@ public class Region {
     private FileTime slowModifiedTime;
     private FileTime fastModifiedTime;
 
+    private Integer weakDigest;
+    private FileTime weakModifiedTime;
+
     public Region() {
     }
 
@@ -87,6 +90,24 @@ public class Region {
         return slowModifiedTime;
     }
 
+    @JsonIgnore
+    public Integer getWeakDigest() {
+        return weakDigest;
+    }
+
+    public void setWeakDigest(Integer weakDigest) {
+        this.weakDigest = weakDigest;
+    }
+
+    @JsonIgnore
+    public FileTime getWeakModifiedTime() {
+        return weakModifiedTime;
+    }
+
+    public void setWeakModifiedTime(FileTime weakModifiedTime) {
+        this.weakModifiedTime = weakModifiedTime;
+    }
+
     @Override
     public String toString() {
         return new ToStringBuilder(this)
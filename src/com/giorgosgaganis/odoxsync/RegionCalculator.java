@@ -19,12 +19,21 @@
 package com.giorgosgaganis.odoxsync;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static com.giorgosgaganis.odoxsync.utils.Contants.REGION_SIZE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.CDC_AVG_SIZE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.CDC_MAX_SIZE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.CDC_MIN_SIZE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.CDC_REGIONS;
 
 /**
  * Created by gaganis on 14/01/17.
@@ -43,24 +52,94 @@ public class RegionCalculator {
         Path path = Paths.get(workingDirectory, file.getName());
         long fileSize = Files.size(path);
 
-        calculateForSize(file, fileSize);
+        calculate(file, path, fileSize);
+    }
+
+    /**
+     * Calculates the regions of a file whose size is already known, reading
+     * its content only when regions are content defined.
+     */
+    public static void calculate(File file, Path path, long fileSize) throws IOException {
+        if (CDC_REGIONS) {
+            calculateContentDefined(file, path);
+        } else {
+            calculateForSize(file, fileSize);
+        }
     }
 
     public static void calculateForSize(File file, long fileSize) {
-        file.setSize(fileSize);
+        long regionSize = RegionSizePolicy.INSTANCE.regionSizeFor(file.getName(), fileSize);
+        file.setRegionSize(regionSize);
 
-        ConcurrentHashMap<Long, Region> regions = file.getRegions();
+        List<Region> layout = new ArrayList<>();
 
         long position = 0;
         do {
 
-            long regionSize =
-                    position + REGION_SIZE > fileSize
+            long size =
+                    position + regionSize > fileSize
                             ? fileSize - position
-                            : REGION_SIZE;
-            regions.putIfAbsent(position, new Region(position, regionSize));
+                            : regionSize;
+            layout.add(new Region(position, size));
 
-            position += REGION_SIZE;
+            position += regionSize;
         } while (position < fileSize);
+
+        applyLayout(file, layout, fileSize);
+    }
+
+    public static void calculateContentDefined(File file, Path path) throws IOException {
+        long averageSize = RegionSizePolicy.INSTANCE.regionSizeFor(file.getName(), Files.size(path));
+        file.setRegionSize(averageSize);
+
+        List<Region> layout = new ArrayList<>();
+        long[] fileSize = new long[1];
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            newChunker(averageSize).chunk(channel, (offset, size) -> {
+                layout.add(new Region(offset, size));
+                fileSize[0] = offset + size;
+            });
+        }
+        applyLayout(file, layout, fileSize[0]);
+    }
+
+    public static ContentDefinedChunker newChunker() {
+        return newChunker(CDC_AVG_SIZE);
+    }
+
+    /**
+     * Creates a chunker for the given average size, keeping the minimum and
+     * maximum sizes in the configured proportion to the average.
+     */
+    public static ContentDefinedChunker newChunker(long averageSize) {
+        return new ContentDefinedChunker(
+                Math.toIntExact(CDC_MIN_SIZE * averageSize / CDC_AVG_SIZE),
+                Math.toIntExact(averageSize),
+                Math.toIntExact(Math.min(CDC_MAX_SIZE * averageSize / CDC_AVG_SIZE, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Makes the regions of the file match the layout. Regions that keep their
+     * offset and size also keep their digests, the others are replaced.
+     */
+    private static void applyLayout(File file, List<Region> layout, long fileSize) {
+        file.setSize(fileSize);
+
+        ConcurrentHashMap<Long, Region> regions = file.getRegions();
+        Set<Long> offsets = new HashSet<>();
+        boolean isChanged = false;
+        for (Region region : layout) {
+            offsets.add(region.getOffset());
+            Region existing = regions.putIfAbsent(region.getOffset(), region);
+            if (existing == null) {
+                isChanged = true;
+            } else if (existing.getSize() != region.getSize()) {
+                regions.put(region.getOffset(), region);
+                isChanged = true;
+            }
+        }
+        if (regions.keySet().retainAll(offsets) || isChanged) {
+            file.digestsChanged();
+        }
     }
 }
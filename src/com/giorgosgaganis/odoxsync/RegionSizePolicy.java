@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync;
+
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.giorgosgaganis.odoxsync.utils.Contants.CDC_AVG_SIZE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.CDC_REGIONS;
+import static com.giorgosgaganis.odoxsync.utils.Contants.REGION_SIZE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.REGION_SIZE_OVERRIDES;
+import static com.giorgosgaganis.odoxsync.utils.Contants.REGION_SIZE_TIERS;
+
+/**
+ * Chooses the region size of a file, so that huge files are cut into a
+ * bounded number of regions.
+ *
+ * The size is looked up by file size in tiers of {@code minFileSize=regionSize}
+ * pairs and can be overridden for files whose relative path matches a glob,
+ * with {@code glob=regionSize} pairs. Pairs are separated by {@code ;} and
+ * sizes take an optional K, M, G or T suffix, e.g. {@code 0=1M;64G=16M}
+ * and {@code **.iso=16M;logs/**=256K}. With content defined regions the
+ * chosen size is the average region size.
+ */
+public class RegionSizePolicy {
+    public static final RegionSizePolicy INSTANCE = new RegionSizePolicy(
+            REGION_SIZE_TIERS != null ? REGION_SIZE_TIERS : defaultTiers(),
+            REGION_SIZE_OVERRIDES);
+
+    static final long MAX_REGION_SIZE = 0x10000000;
+
+    private final TreeMap<Long, Long> tiers = new TreeMap<>();
+    private final List<PathOverride> overrides = new ArrayList<>();
+
+    public RegionSizePolicy(String tiers, String overrides) {
+        for (Map.Entry<String, Long> tier : parsePairs(tiers).entrySet()) {
+            this.tiers.put(parseSize(tier.getKey()), tier.getValue());
+        }
+        if (!this.tiers.containsKey(0L)) {
+            this.tiers.put(0L, REGION_SIZE);
+        }
+        for (Map.Entry<String, Long> override : parsePairs(overrides).entrySet()) {
+            this.overrides.add(new PathOverride(
+                    FileSystems.getDefault().getPathMatcher("glob:" + override.getKey()),
+                    override.getValue()));
+        }
+    }
+
+    public long regionSizeFor(String name, long fileSize) {
+        if (name != null) {
+            for (PathOverride override : overrides) {
+                if (override.matcher.matches(Paths.get(name))) {
+                    return override.regionSize;
+                }
+            }
+        }
+        return tiers.floorEntry(Math.max(0, fileSize)).getValue();
+    }
+
+    private static String defaultTiers() {
+        long baseSize = CDC_REGIONS ? CDC_AVG_SIZE : REGION_SIZE;
+        return "0=" + baseSize + ";64G=" + Math.max(baseSize, 16 * REGION_SIZE) + ";1T=" + Math.max(baseSize, 64 * REGION_SIZE);
+    }
+
+    /**
+     * Parses {@code key=size} pairs keeping their order. The size follows
+     * the last {@code =} so that globs may contain one.
+     */
+    private static Map<String, Long> parsePairs(String pairs) {
+        Map<String, Long> parsed = new LinkedHashMap<>();
+        if (pairs == null) {
+            return parsed;
+        }
+        for (String pair : pairs.split(";")) {
+            if (pair.trim().isEmpty()) {
+                continue;
+            }
+            int separator = pair.lastIndexOf('=');
+            if (separator <= 0) {
+                throw new IllegalArgumentException("Expected key=size but got [" + pair + "]");
+            }
+            long regionSize = parseSize(pair.substring(separator + 1));
+            if (regionSize <= 0 || regionSize > MAX_REGION_SIZE) {
+                throw new IllegalArgumentException("Region size out of range in [" + pair + "]");
+            }
+            parsed.put(pair.substring(0, separator).trim(), regionSize);
+        }
+        return parsed;
+    }
+
+    static long parseSize(String size) {
+        String value = size.trim().toUpperCase(Locale.ROOT);
+        int shift = 0;
+        switch (value.isEmpty() ? ' ' : value.charAt(value.length() - 1)) {
+            case 'K':
+                shift = 10;
+                break;
+            case 'M':
+                shift = 20;
+                break;
+            case 'G':
+                shift = 30;
+                break;
+            case 'T':
+                shift = 40;
+                break;
+        }
+        if (shift > 0) {
+            value = value.substring(0, value.length() - 1).trim();
+        }
+        try {
+            return Long.parseLong(value) << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid size [" + size + "]", e);
+        }
+    }
+
+    private static class PathOverride {
+        final PathMatcher matcher;
+        final long regionSize;
+
+        PathOverride(PathMatcher matcher, long regionSize) {
+            this.matcher = matcher;
+            this.regionSize = regionSize;
+        }
+    }
+}
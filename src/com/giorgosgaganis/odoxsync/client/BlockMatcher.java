@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.client;
+
+import com.giorgosgaganis.odoxsync.ContentDefinedChunker;
+import com.giorgosgaganis.odoxsync.RegionCalculator;
+import com.giorgosgaganis.odoxsync.digest.RollingChecksum;
+import com.giorgosgaganis.odoxsync.digest.StrongDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.messages.BlockDigest;
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static com.giorgosgaganis.odoxsync.utils.Contants.CDC_REGIONS;
+
+/**
+ * Finds the blocks of a server file in the local copy of the file, at any
+ * offset.
+ *
+ * With fixed regions a rolling checksum is moved over the local file for
+ * every block size, and a strong digest confirms each weak match, as rsync
+ * does. Content defined regions move along with the data, so there the
+ * local file is chunked the same way and the chunks are looked up by their
+ * strong digest.
+ */
+class BlockMatcher {
+    private static final int READ_SIZE = 0x10000;
+    private static final int HASH_READ_SIZE = 0x100000;
+
+    private final Map<Long, List<BlockDigest>> blocksBySize = new TreeMap<>();
+    private final long regionSize;
+
+    /**
+     * @param regionSize the region size the server chose for the file, used
+     *                   as the average size when chunking by content
+     */
+    BlockMatcher(List<BlockDigest> blockDigests, long regionSize) {
+        this.regionSize = regionSize;
+        for (BlockDigest blockDigest : blockDigests) {
+            if (blockDigest.getSize() > 0 && blockDigest.getStrongDigest() != null) {
+                blocksBySize.computeIfAbsent(blockDigest.getSize(), size -> new ArrayList<>()).add(blockDigest);
+            }
+        }
+    }
+
+    /**
+     * Returns the local offset found for each matched block, keyed by the
+     * offset of the block on the server.
+     */
+    Map<Long, Long> match(FileChannel channel) throws IOException {
+        Map<Long, Long> matches = new HashMap<>();
+        if (CDC_REGIONS) {
+            matchChunks(channel, matches);
+        } else {
+            for (Map.Entry<Long, List<BlockDigest>> entry : blocksBySize.entrySet()) {
+                matchRolling(channel, entry.getKey(), entry.getValue(), matches);
+            }
+        }
+        return matches;
+    }
+
+    private void matchRolling(FileChannel channel, long blockSize, List<BlockDigest> blocks,
+                              Map<Long, Long> matches) throws IOException {
+        long length = channel.size();
+
+        Map<Integer, List<BlockDigest>> blocksByWeakDigest = new HashMap<>();
+        BitSet tags = new BitSet(0x10000);
+        for (BlockDigest block : blocks) {
+            blocksByWeakDigest.computeIfAbsent(block.getWeakDigest(), digest -> new ArrayList<>()).add(block);
+            tags.set(tag(block.getWeakDigest()));
+        }
+
+        RollingChecksum checksum = new RollingChecksum(blockSize);
+        int unmatched = blocks.size();
+        long position = 0;
+        while (unmatched > 0 && position + blockSize <= length) {
+            SequentialReader head = new SequentialReader(channel, position);
+            SequentialReader tail = new SequentialReader(channel, position);
+            checksum.reset();
+            for (long i = 0; i < blockSize; i++) {
+                checksum.update(head.read());
+            }
+
+            boolean matched = false;
+            while (true) {
+                int weakDigest = checksum.getValue();
+                if (tags.get(tag(weakDigest))) {
+                    List<BlockDigest> candidates = blocksByWeakDigest.get(weakDigest);
+                    if (candidates != null) {
+                        int newMatches = verify(channel, position, blockSize, candidates, matches);
+                        if (newMatches >= 0) {
+                            unmatched -= newMatches;
+                            matched = true;
+                            break;
+                        }
+                    }
+                }
+                if (position + blockSize >= length) {
+                    break;
+                }
+                checksum.roll(tail.read(), head.read());
+                position++;
+            }
+
+            if (!matched) {
+                break;
+            }
+            position += blockSize;
+        }
+    }
+
+    /**
+     * Compares the strong digest of the local block at {@code position} with
+     * the candidates. Returns how many blocks were matched for the first
+     * time, or -1 when no candidate has the same content.
+     */
+    private static int verify(FileChannel channel, long position, long blockSize,
+                              List<BlockDigest> candidates, Map<Long, Long> matches) throws IOException {
+        byte[] strongDigest = strongDigest(channel, position, blockSize);
+
+        int newMatches = -1;
+        for (BlockDigest candidate : candidates) {
+            if (Arrays.equals(candidate.getStrongDigest(), strongDigest)) {
+                newMatches = Math.max(newMatches, 0);
+                Long previous = matches.get(candidate.getOffset());
+                if (previous == null) {
+                    matches.put(candidate.getOffset(), position);
+                    newMatches++;
+                } else if (position == candidate.getOffset()) {
+                    // Data that is already in place needs no copying
+                    matches.put(candidate.getOffset(), position);
+                }
+            }
+        }
+        return newMatches;
+    }
+
+    private void matchChunks(FileChannel channel, Map<Long, Long> matches) throws IOException {
+        Map<ByteBuffer, List<BlockDigest>> blocksByStrongDigest = new HashMap<>();
+        for (List<BlockDigest> blocks : blocksBySize.values()) {
+            for (BlockDigest block : blocks) {
+                blocksByStrongDigest
+                        .computeIfAbsent(ByteBuffer.wrap(block.getStrongDigest()), digest -> new ArrayList<>())
+                        .add(block);
+            }
+        }
+
+        List<long[]> chunks = new ArrayList<>();
+        ContentDefinedChunker chunker = regionSize > 0
+                ? RegionCalculator.newChunker(regionSize)
+                : RegionCalculator.newChunker();
+        chunker.chunk(channel.position(0), (offset, size) -> {
+            if (blocksBySize.containsKey((long) size)) {
+                chunks.add(new long[]{offset, size});
+            }
+        });
+
+        for (long[] chunk : chunks) {
+            byte[] strongDigest = strongDigest(channel, chunk[0], chunk[1]);
+            List<BlockDigest> candidates = blocksByStrongDigest.get(ByteBuffer.wrap(strongDigest));
+            if (candidates == null) {
+                continue;
+            }
+            for (BlockDigest candidate : candidates) {
+                if (candidate.getSize() == chunk[1]
+                        && (!matches.containsKey(candidate.getOffset()) || chunk[0] == candidate.getOffset())) {
+                    matches.put(candidate.getOffset(), chunk[0]);
+                }
+            }
+        }
+    }
+
+    private static byte[] strongDigest(FileChannel channel, long position, long size) throws IOException {
+        int readSize = (int) Math.min(size, HASH_READ_SIZE);
+        ByteBuffer buffer;
+        try {
+            buffer = BufferPool.INSTANCE.borrow(readSize);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a matching buffer");
+        }
+        try {
+            StrongDigestAlgorithm.StrongDigest digest = StrongDigestAlgorithm.get().newDigest();
+            long end = position + size;
+            for (long readPosition = position; readPosition < end; readPosition += buffer.limit()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(readSize, end - readPosition));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, readPosition + buffer.position()) < 0) {
+                        throw new EOFException("Block at [" + position + "] is beyond end of file");
+                    }
+                }
+                digest.update(buffer.array(), 0, buffer.limit());
+            }
+            return digest.digest();
+        } finally {
+            BufferPool.INSTANCE.release(buffer);
+        }
+    }
+
+    private static int tag(int weakDigest) {
+        return (weakDigest ^ (weakDigest >>> 16)) & 0xffff;
+    }
+
+    /**
+     * Reads a channel forward from a position without moving the position of
+     * the channel, so that two of them can follow the two ends of a window.
+     */
+    private static class SequentialReader {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(READ_SIZE);
+        private long position;
+
+        SequentialReader(FileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+            buffer.limit(0);
+        }
+
+        byte read() throws IOException {
+            if (!buffer.hasRemaining()) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new EOFException("Read beyond end of file at [" + position + "]");
+                }
+                position += read;
+                buffer.flip();
+            }
+            return buffer.get();
+        }
+    }
+}
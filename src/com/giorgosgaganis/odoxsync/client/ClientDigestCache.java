@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.client;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.digest.FastDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.digest.StrongDigestAlgorithm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the digests the client calculated for its local files so that
+ * files which have not changed since are reported without reading them
+ * again after a restart.
+ *
+ * Every record holds the digests of all regions of one file along with the
+ * file key, size and modification time the file had when it was scanned.
+ * Records are appended to a file in the working directory. On startup the
+ * file is compacted to the latest record of every file, and records are
+ * only read from it when they are looked up.
+ *
+ * Files changed by transfers are recorded again from the digests of the
+ * regions written to them, once no writes to them are in progress.
+ */
+public class ClientDigestCache {
+    private static final Logger logger = Logger.getLogger(ClientDigestCache.class.getName());
+
+    public static final String CACHE_FILE_NAME = ".odoxsync-digests";
+
+    private final Path path;
+
+    private FileChannel readChannel;
+    private final Map<String, Long> recordPositions = new HashMap<>();
+
+    /**
+     * Digests of the regions of each file as last recorded or written.
+     */
+    private final Map<Integer, KnownDigests> knownDigests = new HashMap<>();
+
+    private final ConcurrentHashMap<Integer, Recording> recordings = new ConcurrentHashMap<>();
+    private FileChannel appendChannel;
+
+    private ClientDigestCache(Path path) {
+        this.path = path;
+    }
+
+    public static ClientDigestCache open(Path workingDirectory) throws IOException {
+        ClientDigestCache clientDigestCache = new ClientDigestCache(workingDirectory.resolve(CACHE_FILE_NAME));
+        clientDigestCache.compact();
+        clientDigestCache.appendChannel = FileChannel.open(clientDigestCache.path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        return clientDigestCache;
+    }
+
+    /**
+     * Returns the digests recorded for the file if it still has the same
+     * identity, size and modification time, or null otherwise.
+     */
+    public synchronized CachedFile lookup(File file) throws IOException {
+        Long position = recordPositions.remove(file.getName());
+        if (position == null) {
+            return null;
+        }
+        CachedFile cachedFile = CachedFile.read(readRecord(readChannel, position), 0);
+        BasicFileAttributes attributes = Files.readAttributes(file.getAbsolutePath(), BasicFileAttributes.class);
+        if (!cachedFile.matches(attributes)) {
+            return null;
+        }
+        knownDigestsOf(file).putAll(cachedFile);
+        return cachedFile;
+    }
+
+    /**
+     * Returns the recording that collects the digests of a file while it is
+     * scanned. The file is stat-ed when the recording starts, so changes
+     * made during the scan invalidate what is recorded.
+     */
+    public Recording recordingFor(File file) {
+        return recordings.computeIfAbsent(file.getId(), fileId -> {
+            try {
+                return new Recording(file.getName(),
+                        Files.readAttributes(file.getAbsolutePath(), BasicFileAttributes.class));
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Unable to stat [" + file.getName() + "], not caching its digests", e);
+                return new Recording(file.getName(), null);
+            }
+        });
+    }
+
+    /**
+     * Stores the recording of a file once both of its scans are done, if it
+     * covers every region and the file did not change while it was scanned.
+     */
+    public void complete(File file) {
+        Recording recording = recordings.remove(file.getId());
+        if (recording == null || recording.attributes == null) {
+            return;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.getAbsolutePath(), BasicFileAttributes.class);
+            CachedFile cachedFile = recording.toCachedFile();
+            if (cachedFile.matches(attributes) && cachedFile.covers(file)) {
+                append(cachedFile);
+                synchronized (this) {
+                    knownDigestsOf(file).putAll(cachedFile);
+                }
+            }
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Unable to cache digests of [" + file.getName() + "]", e);
+        }
+    }
+
+    /**
+     * Notes that a transfer is about to write a region of the file. The file
+     * is not recorded while any of its regions is being written.
+     */
+    public synchronized void writeStarted(File file) {
+        knownDigestsOf(file).writesInProgress++;
+    }
+
+    /**
+     * Notes the digests of a region a transfer wrote, calculated from the
+     * bytes written, or that the write failed when they are null.
+     */
+    public synchronized void writeFinished(File file, long offset, Integer fastDigest, byte[] slowDigest) {
+        KnownDigests known = knownDigestsOf(file);
+        known.writesInProgress--;
+        if (fastDigest == null || slowDigest == null) {
+            known.fastDigests.remove(offset);
+            known.slowDigests.remove(offset);
+        } else {
+            known.fastDigests.put(offset, fastDigest);
+            known.slowDigests.put(offset, slowDigest);
+        }
+        known.isWritten = true;
+    }
+
+    /**
+     * Records the files written by transfers since this was last called, if
+     * no writes to them are in progress and the digests of all their regions
+     * are known.
+     */
+    public synchronized void recordWrittenFiles() {
+        for (KnownDigests known : knownDigests.values()) {
+            if (!known.isWritten || known.writesInProgress > 0) {
+                continue;
+            }
+            File file = known.file;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file.getAbsolutePath(), BasicFileAttributes.class);
+                CachedFile cachedFile = new CachedFile(file.getName(), fileKeyOf(attributes), digestAlgorithms(),
+                        attributes.size(), attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                        new TreeMap<>(known.fastDigests), new TreeMap<>(known.slowDigests));
+                if (cachedFile.covers(file)) {
+                    append(cachedFile);
+                    known.isWritten = false;
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to cache digests of [" + file.getName() + "]", e);
+            }
+        }
+    }
+
+    /**
+     * Drops what is known of a file whose regions changed.
+     */
+    public synchronized void forget(File file) {
+        knownDigests.remove(file.getId());
+    }
+
+    private KnownDigests knownDigestsOf(File file) {
+        KnownDigests known = knownDigests.computeIfAbsent(file.getId(), fileId -> new KnownDigests());
+        known.file = file;
+        return known;
+    }
+
+    private synchronized void append(CachedFile cachedFile) throws IOException {
+        ByteBuffer record = cachedFile.write();
+        while (record.hasRemaining()) {
+            appendChannel.write(record);
+        }
+    }
+
+    /**
+     * Copies the latest record of every file into a new cache file and
+     * indexes it. Records are read one at a time, so the size of the cache
+     * file is not limited by what can be mapped or held in memory.
+     */
+    private void compact() throws IOException {
+        Map<String, Long> latestPositions = new HashMap<>();
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                latestPositions = indexRecords(channel);
+            }
+        }
+
+        Path compacted = Files.createTempFile(path.toAbsolutePath().getParent(), CACHE_FILE_NAME, ".tmp");
+        if (!latestPositions.isEmpty()) {
+            try (
+                    FileChannel source = FileChannel.open(path, StandardOpenOption.READ);
+                    FileChannel target = FileChannel.open(compacted, StandardOpenOption.WRITE)
+            ) {
+                List<Long> positions = new ArrayList<>(latestPositions.values());
+                Collections.sort(positions);
+                for (long position : positions) {
+                    long length = readLength(source, position);
+                    long copied = 0;
+                    while (copied < length) {
+                        copied += source.transferTo(position + copied, length - copied, target);
+                    }
+                }
+            }
+        }
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        readChannel = FileChannel.open(path, StandardOpenOption.READ);
+        recordPositions.putAll(indexRecords(readChannel));
+        logger.info("Loaded cached digests for [" + recordPositions.size() + "] files from [" + path + "]");
+    }
+
+    /**
+     * Positions of the latest record of every file, up to the first record
+     * cut short by a crash.
+     */
+    private static Map<String, Long> indexRecords(FileChannel channel) throws IOException {
+        Map<String, Long> positions = new HashMap<>();
+        long size = channel.size();
+        long position = 0;
+        while (size - position >= Integer.BYTES) {
+            int length = readLength(channel, position);
+            if (length <= Integer.BYTES || length > size - position) {
+                break;
+            }
+            positions.put(readName(channel, position), position);
+            position += length;
+        }
+        return positions;
+    }
+
+    private static int readLength(FileChannel channel, long position) throws IOException {
+        return readFully(channel, position, Integer.BYTES).getInt(0);
+    }
+
+    private static String readName(FileChannel channel, long position) throws IOException {
+        int nameLength = readFully(channel, position + Integer.BYTES, Short.BYTES).getShort(0) & 0xffff;
+        ByteBuffer name = readFully(channel, position + Integer.BYTES + Short.BYTES, nameLength);
+        return new String(name.array(), StandardCharsets.UTF_8);
+    }
+
+    private static ByteBuffer readRecord(FileChannel channel, long position) throws IOException {
+        return readFully(channel, position, readLength(channel, position));
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Digest cache record cut short at [" + position + "]");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Names of the fast and strong digest algorithms in use, which cached
+     * digests have to have been calculated with.
+     */
+    private static String digestAlgorithms() {
+        return FastDigestAlgorithm.get().getName() + "/" + StrongDigestAlgorithm.get().getName();
+    }
+
+    private static String fileKeyOf(BasicFileAttributes attributes) {
+        return attributes.fileKey() == null ? "" : attributes.fileKey().toString();
+    }
+
+    private static class KnownDigests {
+        File file;
+        int writesInProgress;
+        boolean isWritten;
+        final Map<Long, Integer> fastDigests = new HashMap<>();
+        final Map<Long, byte[]> slowDigests = new HashMap<>();
+
+        void putAll(CachedFile cachedFile) {
+            fastDigests.putAll(cachedFile.fastDigests);
+            slowDigests.putAll(cachedFile.slowDigests);
+        }
+    }
+
+    public static class Recording {
+        private final String name;
+        private final BasicFileAttributes attributes;
+        private final Map<Long, Integer> fastDigests = new ConcurrentHashMap<>();
+        private final Map<Long, byte[]> slowDigests = new ConcurrentHashMap<>();
+
+        Recording(String name, BasicFileAttributes attributes) {
+            this.name = name;
+            this.attributes = attributes;
+        }
+
+        public void recordFast(long offset, Integer fastDigest) {
+            if (fastDigest != null) {
+                fastDigests.put(offset, fastDigest);
+            }
+        }
+
+        public void recordSlow(long offset, byte[] slowDigest) {
+            if (slowDigest != null) {
+                slowDigests.put(offset, slowDigest);
+            }
+        }
+
+        CachedFile toCachedFile() {
+            return new CachedFile(name, fileKeyOf(attributes), digestAlgorithms(), attributes.size(),
+                    attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                    new TreeMap<>(fastDigests), new TreeMap<>(slowDigests));
+        }
+    }
+
+    public static class CachedFile {
+        final String name;
+        final String fileKey;
+        final String digestAlgorithms;
+        final long size;
+        final long modifiedNanos;
+        public final Map<Long, Integer> fastDigests;
+        public final Map<Long, byte[]> slowDigests;
+
+        CachedFile(String name, String fileKey, String digestAlgorithms, long size, long modifiedNanos,
+                   Map<Long, Integer> fastDigests, Map<Long, byte[]> slowDigests) {
+            this.name = name;
+            this.fileKey = fileKey;
+            this.digestAlgorithms = digestAlgorithms;
+            this.size = size;
+            this.modifiedNanos = modifiedNanos;
+            this.fastDigests = fastDigests;
+            this.slowDigests = slowDigests;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return fileKey.equals(fileKeyOf(attributes))
+                    && digestAlgorithms.equals(digestAlgorithms())
+                    && size == attributes.size()
+                    && modifiedNanos == attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Whether both digests are known for exactly the regions of the file.
+         * Regions are contiguous, so the same offsets mean the same layout.
+         */
+        public boolean covers(File file) {
+            Set<Long> offsets = file.getRegions().keySet();
+            return offsets.equals(fastDigests.keySet()) && offsets.equals(slowDigests.keySet());
+        }
+
+        /*
+         * Record layout: int record length, name, file key, digest
+         * algorithms, long size, long modification time in nanoseconds, int
+         * region count and for every region long offset, int fast digest,
+         * slow digest.
+         * Strings and the slow digest are prefixed by their length as a short.
+         */
+        ByteBuffer write() {
+            byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+            byte[] fileKeyBytes = fileKey.getBytes(StandardCharsets.UTF_8);
+            byte[] algorithmBytes = digestAlgorithms.getBytes(StandardCharsets.UTF_8);
+            int length = Integer.BYTES + Short.BYTES + nameBytes.length + Short.BYTES + fileKeyBytes.length
+                    + Short.BYTES + algorithmBytes.length
+                    + Long.BYTES * 2 + Integer.BYTES;
+            for (Map.Entry<Long, Integer> fastDigest : fastDigests.entrySet()) {
+                length += Long.BYTES + Integer.BYTES + Short.BYTES + slowDigests.get(fastDigest.getKey()).length;
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(length);
+            record.putInt(length);
+            record.putShort((short) nameBytes.length).put(nameBytes);
+            record.putShort((short) fileKeyBytes.length).put(fileKeyBytes);
+            record.putShort((short) algorithmBytes.length).put(algorithmBytes);
+            record.putLong(size);
+            record.putLong(modifiedNanos);
+            record.putInt(fastDigests.size());
+            for (Map.Entry<Long, Integer> fastDigest : fastDigests.entrySet()) {
+                byte[] slowDigest = slowDigests.get(fastDigest.getKey());
+                record.putLong(fastDigest.getKey());
+                record.putInt(fastDigest.getValue());
+                record.putShort((short) slowDigest.length).put(slowDigest);
+            }
+            record.flip();
+            return record;
+        }
+
+        static CachedFile read(ByteBuffer records, int position) {
+            ByteBuffer record = records.duplicate();
+            record.position(position + Integer.BYTES);
+
+            String name = readString(record);
+            String fileKey = readString(record);
+            String digestAlgorithms = readString(record);
+            long size = record.getLong();
+            long modifiedNanos = record.getLong();
+            int regionCount = record.getInt();
+
+            Map<Long, Integer> fastDigests = new TreeMap<>();
+            Map<Long, byte[]> slowDigests = new TreeMap<>();
+            for (int i = 0; i < regionCount; i++) {
+                long offset = record.getLong();
+                fastDigests.put(offset, record.getInt());
+                byte[] slowDigest = new byte[record.getShort() & 0xffff];
+                record.get(slowDigest);
+                slowDigests.put(offset, slowDigest);
+            }
+            return new CachedFile(name, fileKey, digestAlgorithms, size, modifiedNanos, fastDigests, slowDigests);
+        }
+
+        private static String readString(ByteBuffer record) {
+            byte[] bytes = new byte[record.getShort() & 0xffff];
+            record.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -39,6 +39,8 @@ public class ClientMessageHandler {
 
     private final RestClient restClient;
 
+    private volatile int batchSize = BATCH_SIZE;
+
     LinkedBlockingQueue<ClientFastDigestMessage> fastMessagesQueue = new LinkedBlockingQueue<>(BATCH_SIZE);
     LinkedBlockingQueue<ClientSlowDigestMessage> slowMessagesQueue = new LinkedBlockingQueue<>(BATCH_SIZE);
 
@@ -46,12 +48,20 @@ public class ClientMessageHandler {
         this.restClient = restClient;
     }
 
+    /**
+     * Sends smaller batches than {@link #BATCH_SIZE} when the server only
+     * accepts smaller ones.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, Math.min(BATCH_SIZE, batchSize));
+    }
+
     public void start() {
         new Thread(null, () -> {
             do {
                 try {
-                    ArrayList<ClientFastDigestMessage> batch = new ArrayList<>(BATCH_SIZE);
-                    int drainedNo = fastMessagesQueue.drainTo(batch, BATCH_SIZE);
+                    ArrayList<ClientFastDigestMessage> batch = new ArrayList<>(batchSize);
+                    int drainedNo = fastMessagesQueue.drainTo(batch, batchSize);
                     if(drainedNo == 0) {
                         Thread.sleep(1000);
                     } else {
@@ -67,8 +77,8 @@ public class ClientMessageHandler {
         new Thread(null, () -> {
             do {
                 try {
-                    ArrayList<ClientSlowDigestMessage> batch = new ArrayList<>(BATCH_SIZE);
-                    int drainedNo = slowMessagesQueue.drainTo(batch, BATCH_SIZE);
+                    ArrayList<ClientSlowDigestMessage> batch = new ArrayList<>(batchSize);
+                    int drainedNo = slowMessagesQueue.drainTo(batch, batchSize);
                     if(drainedNo == 0) {
                         Thread.sleep(1000);
                     } else {
@@ -22,6 +22,7 @@ import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
 import com.giorgosgaganis.odoxsync.files.processing.handlers.FastDigestHandler;
 
+import java.nio.ByteBuffer;
 import java.nio.file.attribute.FileTime;
 
 /**
@@ -38,7 +39,7 @@ public class ClientRegionMessageFastDigestHandler implements FastDigestHandler {
     }
 
     @Override
-    public void handleFastDigest(byte[] buffer, File file, Region currentRegion, Integer fastDigest, FileTime fileLastModifiedTime) {
+    public void handleFastDigest(ByteBuffer buffer, File file, Region currentRegion, Integer fastDigest, FileTime fileLastModifiedTime) {
         try {
             clientMessageHandler.submitFastDigest(clientId, file.getId(), currentRegion.getOffset(), fastDigest);
         } catch (InterruptedException e) {
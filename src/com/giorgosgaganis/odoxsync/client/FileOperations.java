@@ -20,26 +20,35 @@ package com.giorgosgaganis.odoxsync.client;
 
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
-import com.giorgosgaganis.odoxsync.RegionCalculator;
 import com.giorgosgaganis.odoxsync.client.net.RestClient;
+import com.giorgosgaganis.odoxsync.digest.DirectoryHashTree;
+import com.giorgosgaganis.odoxsync.digest.FastDigestAlgorithm;
 import com.giorgosgaganis.odoxsync.files.FileScanner;
+import com.giorgosgaganis.odoxsync.files.processing.CombinedFileProcessorFactory;
 import com.giorgosgaganis.odoxsync.files.processing.FastFileProcessorFactory;
 import com.giorgosgaganis.odoxsync.files.processing.SlowFileProcessorFactory;
 import com.giorgosgaganis.odoxsync.files.processing.handlers.FastDigestHandler;
 import com.giorgosgaganis.odoxsync.files.processing.handlers.SlowDigestHandler;
 import com.giorgosgaganis.odoxsync.messages.BlankFileMessage;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
+import com.giorgosgaganis.odoxsync.messages.BlockDigest;
+import com.giorgosgaganis.odoxsync.messages.DirectoryListing;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.FutureTask;
@@ -47,18 +56,35 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import static com.giorgosgaganis.odoxsync.utils.Contants.BLOCK_MATCHING;
+import static com.giorgosgaganis.odoxsync.utils.Contants.CLIENT_DIGEST_CACHE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.COMBINED_SCAN;
+import static com.giorgosgaganis.odoxsync.utils.Contants.DIRECTORY_TREE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.MERKLE_SYNC;
+
 /**
  * Created by gaganis on 02/02/17.
  */
 public class FileOperations {
     private final static Logger logger = Logger.getLogger(FileOperations.class.getName());
 
+    private static final int MATCH_CHECK_CHUNK_SIZE = 0x10000;
+
     private final ConcurrentHashMap<Integer, File> fastProcessedFiles = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<Integer, File> slowProcessedFiles = new ConcurrentHashMap<>();
     private final ClientMessageHandler clientMessageHandler;
     private final ConcurrentHashMap<Integer, File> allFiles;
     private final RestClient restClient;
     private final String workingDirectory;
+    private final ClientDigestCache digestCache;
+    private final MerkleSynchronizer merkleSynchronizer;
+
+    /**
+     * Server hashes of the directories, and of the files directly in them,
+     * whose files were all processed.
+     */
+    private final Map<String, Long> directoryHashes = new HashMap<>();
+    private final Map<String, Long> directoryFilesHashes = new HashMap<>();
 
     private int clientId;
 
@@ -68,18 +94,121 @@ public class FileOperations {
         this.allFiles = allFiles;
         this.restClient = restClient;
         this.workingDirectory = workingDirectory;
+        this.digestCache = CLIENT_DIGEST_CACHE ? openDigestCache(workingDirectory) : null;
+        this.merkleSynchronizer = new MerkleSynchronizer(restClient);
+    }
+
+    private static ClientDigestCache openDigestCache(String workingDirectory) {
+        try {
+            return ClientDigestCache.open(Paths.get(workingDirectory));
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unable to open digest cache, files will be scanned", e);
+            return null;
+        }
+    }
+
+    public ClientDigestCache getDigestCache() {
+        return digestCache;
     }
 
     public void setClientId(int clientId) {
         this.clientId = clientId;
     }
 
+    public void setMaxMerkleNodes(int maxMerkleNodes) {
+        merkleSynchronizer.setMaxNodesPerMessage(maxMerkleNodes);
+    }
+
     void processFiles() {
-        Collection<File> files = restClient.getFiles();
+        if (digestCache != null) {
+            digestCache.recordWrittenFiles();
+        }
+        if (!DIRECTORY_TREE) {
+            processFiles(restClient.getFiles());
+            return;
+        }
+
+        DirectoryListing root = restClient.getDirectoryListing(DirectoryHashTree.ROOT);
+        if (Long.valueOf(root.getHash()).equals(directoryHashes.get(DirectoryHashTree.ROOT))) {
+            logger.fine("No directory changed on the server");
+            return;
+        }
+
+        List<ListedDirectory> changedDirectories = new ArrayList<>();
+        listChangedDirectories(root, changedDirectories);
+
+        List<File> files = changedDirectories
+                .stream()
+                .flatMap((directory) -> directory.files.stream())
+                .collect(Collectors.toList());
+        processFiles(files);
 
+        changedDirectories.forEach(this::recordProcessed);
+    }
+
+    /**
+     * Lists the files of a directory if they changed and descends into the
+     * subdirectories that changed. Directories are added after their
+     * subdirectories.
+     */
+    private void listChangedDirectories(DirectoryListing listing, List<ListedDirectory> changedDirectories) {
+        String path = listing.getPath();
+        Collection<File> files = Long.valueOf(listing.getFilesHash()).equals(directoryFilesHashes.get(path))
+                ? Collections.<File>emptyList()
+                : restClient.getFiles(path);
+
+        for (Map.Entry<String, Long> subdirectory : listing.getSubdirectories().entrySet()) {
+            if (!subdirectory.getValue().equals(directoryHashes.get(subdirectory.getKey()))) {
+                listChangedDirectories(restClient.getDirectoryListing(subdirectory.getKey()), changedDirectories);
+            }
+        }
+        changedDirectories.add(new ListedDirectory(listing, files));
+    }
+
+    /**
+     * Remembers the hashes of a directory once its files are processed, and
+     * of its whole subtree once its subdirectories are too, so that they are
+     * not listed again until they change on the server.
+     */
+    private void recordProcessed(ListedDirectory directory) {
+        DirectoryListing listing = directory.listing;
+        if (!directory.files.stream().allMatch(this::isProcessed)) {
+            return;
+        }
+        directoryFilesHashes.put(listing.getPath(), listing.getFilesHash());
+
+        boolean isSubtreeProcessed = listing.getSubdirectories()
+                .entrySet()
+                .stream()
+                .allMatch((subdirectory) -> subdirectory.getValue().equals(directoryHashes.get(subdirectory.getKey())));
+        if (isSubtreeProcessed) {
+            directoryHashes.put(listing.getPath(), listing.getHash());
+        }
+    }
+
+    /**
+     * Whether the digests of a file were reported, or for a file that does
+     * not exist yet that the server was told it is blank.
+     */
+    private boolean isProcessed(File file) {
+        return fastProcessedFiles.containsKey(file.getId())
+                && (slowProcessedFiles.containsKey(file.getId()) || Files.notExists(file.getAbsolutePath()));
+    }
+
+    private static class ListedDirectory {
+        final DirectoryListing listing;
+        final Collection<File> files;
+
+        ListedDirectory(DirectoryListing listing, Collection<File> files) {
+            this.listing = listing;
+            this.files = files;
+        }
+    }
+
+    private void processFiles(Collection<File> files) {
         initAbsolutePaths(files);
 
-        files.stream().forEach((file) -> allFiles.putIfAbsent(file.getId(), file));
+        files.stream().forEach(this::trackFile);
 
         List<File> blankFiles = files
                 .stream()
@@ -93,15 +222,31 @@ public class FileOperations {
                 .filter((file) -> Files.exists(file.getAbsolutePath()))
                 .collect(Collectors.toList());
 
-        existingFiles.stream().forEach(this::resizeFile);
+        List<File> filesToScan = existingFiles
+                .stream()
+                .filter((file) -> !reportCachedDigests(file))
+                .collect(Collectors.toList());
+
+        if (BLOCK_MATCHING) {
+            filesToScan.stream()
+                    .filter(this::differsFromServer)
+                    .forEach(this::matchBlocks);
+        }
+
+        filesToScan.stream().forEach(this::resizeFile);
+
+        if (COMBINED_SCAN || MERKLE_SYNC) {
+            filesToScan.stream().forEach(this::combinedScanFile);
+            return;
+        }
 
         FutureTask<?> fastTask = new FutureTask(
-                () -> existingFiles.stream().forEach(this::fastScanFile),
+                () -> filesToScan.stream().forEach(this::fastScanFile),
                 null);
         fastTask.run();
 
         FutureTask<?> slowTask = new FutureTask(
-                () -> existingFiles.stream().forEach(this::slowScanFile),
+                () -> filesToScan.stream().forEach(this::slowScanFile),
 
                 null);
         slowTask.run();
@@ -116,12 +261,243 @@ public class FileOperations {
         }
     }
 
+    /**
+     * Starts tracking a file of the server, or picks up its new region layout
+     * after it was resized or, with content defined regions, rewritten. The
+     * file is scanned again when its layout changes.
+     */
+    private void trackFile(File file) {
+        File knownFile = allFiles.putIfAbsent(file.getId(), file);
+        if (knownFile != null && !hasSameLayout(knownFile, file)) {
+            logger.fine("Region layout changed for file [" + file.getName() + "]");
+            allFiles.put(file.getId(), file);
+            fastProcessedFiles.remove(file.getId());
+            slowProcessedFiles.remove(file.getId());
+            if (digestCache != null) {
+                digestCache.forget(file);
+            }
+        }
+    }
+
+    private static boolean hasSameLayout(File file, File otherFile) {
+        Map<Long, Region> regions = file.getRegions();
+        Map<Long, Region> otherRegions = otherFile.getRegions();
+        if (regions.size() != otherRegions.size()) {
+            return false;
+        }
+        for (Region region : regions.values()) {
+            Region otherRegion = otherRegions.get(region.getOffset());
+            if (otherRegion == null || otherRegion.getSize() != region.getSize()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Moves the blocks of the server file that are found elsewhere in the
+     * local file to their offsets on the server, so that only the blocks that
+     * were not found are transferred. Only done before a file is first
+     * scanned, when no transfers for it are in progress.
+     */
+    private void matchBlocks(File file) {
+        if (fastProcessedFiles.containsKey(file.getId()) || slowProcessedFiles.containsKey(file.getId())) {
+            return;
+        }
+        Path absolutePath = file.getAbsolutePath();
+        try {
+            List<BlockDigest> blockDigests = restClient.getBlockDigests(file.getId());
+
+            Map<Long, Long> matches;
+            try (FileChannel channel = FileChannel.open(absolutePath, StandardOpenOption.READ)) {
+                matches = new BlockMatcher(blockDigests, file.getRegionSize()).match(channel);
+            }
+
+            boolean isMoved = matches.entrySet()
+                    .stream()
+                    .anyMatch(match -> !match.getKey().equals(match.getValue()));
+            if (isMoved) {
+                long reusedBytes = copyMatchedBlocks(file, blockDigests, matches);
+                logger.info("Reused [" + matches.size() + "] of [" + blockDigests.size()
+                        + "] blocks, [" + reusedBytes + "] bytes, for file [" + file.getName() + "]");
+            }
+        } catch (Exception e) {
+            logger.log(Level.WARNING,
+                    "Failure while matching blocks for file [" + file.getName() + "]", e);
+        }
+    }
+
+    /**
+     * Whether the local file differs from the fast digests the server sent
+     * with the file, so that block matching is worth reading both copies in
+     * full. Only the bytes the fast digest covers are read.
+     */
+    private boolean differsFromServer(File file) {
+        if (fastProcessedFiles.containsKey(file.getId()) || slowProcessedFiles.containsKey(file.getId())) {
+            return false;
+        }
+        FastDigestAlgorithm algorithm = FastDigestAlgorithm.get();
+        ByteBuffer buffer = ByteBuffer.allocate(MATCH_CHECK_CHUNK_SIZE);
+        try (FileChannel channel = FileChannel.open(file.getAbsolutePath(), StandardOpenOption.READ)) {
+            if (channel.size() != file.getSize()) {
+                return true;
+            }
+            for (Region region : file.getRegions().values()) {
+                if (region.getQuickDigest() == null) {
+                    return true;
+                }
+                FastDigestAlgorithm.FastDigest digest = algorithm.newDigest();
+                long end = region.getOffset() + region.getSize();
+                for (long position = end - algorithm.sampleSize(region.getSize()); position < end; ) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, position + buffer.position()) < 0) {
+                            return true;
+                        }
+                    }
+                    buffer.flip();
+                    position += buffer.remaining();
+                    digest.update(buffer);
+                }
+                if (digest.getValue() != region.getQuickDigest()) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Unable to compare file [" + file.getName() + "] with the server", e);
+            return true;
+        }
+    }
+
+    /**
+     * Writes the matched blocks into a new copy of the file at their server
+     * offsets and replaces the file with it. Blocks that were not matched are
+     * left as holes to be transferred.
+     */
+    private long copyMatchedBlocks(File file, List<BlockDigest> blockDigests, Map<Long, Long> matches) throws IOException {
+        Path absolutePath = file.getAbsolutePath();
+        Path partPath = absolutePath.resolveSibling(absolutePath.getFileName() + ".odoxsync-part");
+
+        long reusedBytes = 0;
+        try (
+                FileChannel source = FileChannel.open(absolutePath, StandardOpenOption.READ);
+                FileChannel target = FileChannel.open(partPath,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)
+        ) {
+            for (BlockDigest blockDigest : blockDigests) {
+                Long localOffset = matches.get(blockDigest.getOffset());
+                if (localOffset == null) {
+                    continue;
+                }
+                target.position(blockDigest.getOffset());
+                long position = localOffset;
+                long end = localOffset + blockDigest.getSize();
+                while (position < end) {
+                    long transferred = source.transferTo(position, end - position, target);
+                    if (transferred == 0) {
+                        throw new EOFException("Block at [" + localOffset + "] is beyond end of file");
+                    }
+                    position += transferred;
+                }
+                reusedBytes += blockDigest.getSize();
+            }
+            if (target.size() < file.getSize()) {
+                target.write(ByteBuffer.allocate(1), file.getSize() - 1);
+            }
+        }
+        Files.move(partPath, absolutePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return reusedBytes;
+    }
+
     private void resizeFile(File file) {
         Path absolutePath = file.getAbsolutePath();
         try (RandomAccessFile randomAccessFile = new RandomAccessFile(absolutePath.toFile(), "rw")) {
-            randomAccessFile.setLength(file.getSize());
+            // Truncating to the same size would still touch the modification time
+            if (randomAccessFile.length() != file.getSize()) {
+                randomAccessFile.setLength(file.getSize());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sends the digests cached for a file that has not changed since they
+     * were calculated, instead of scanning it. Returns false when the file
+     * still needs to be scanned.
+     */
+    private boolean reportCachedDigests(File file) {
+        if (digestCache == null
+                || (fastProcessedFiles.containsKey(file.getId()) && slowProcessedFiles.containsKey(file.getId()))) {
+            return false;
+        }
+        try {
+            ClientDigestCache.CachedFile cachedFile = digestCache.lookup(file);
+            if (cachedFile == null || !cachedFile.covers(file)) {
+                return false;
+            }
+            reportDigests(file, cachedFile.fastDigests, cachedFile.slowDigests);
+            fastProcessedFiles.put(file.getId(), file);
+            slowProcessedFiles.put(file.getId(), file);
+            logger.fine("Reported cached digests for file [" + file.getName() + "]");
+            return true;
         } catch (IOException e) {
+            logger.log(Level.WARNING,
+                    "Unable to use cached digests for file [" + file.getName() + "]", e);
+            return false;
+        } catch (InterruptedException e) {
             e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Sends the digests of a whole file, comparing hash trees with the
+     * server when that is enabled and region by region otherwise.
+     */
+    private void reportDigests(File file, Map<Long, Integer> fastDigests, Map<Long, byte[]> slowDigests) throws InterruptedException {
+        if (MERKLE_SYNC && merkleSynchronizer.synchronize(clientId, file, fastDigests, slowDigests)) {
+            return;
+        }
+        for (Long offset : file.getRegions().keySet()) {
+            Integer fastDigest = fastDigests.get(offset);
+            if (fastDigest != null) {
+                clientMessageHandler.submitFastDigest(clientId, file.getId(), offset, fastDigest);
+            }
+            byte[] slowDigest = slowDigests.get(offset);
+            if (slowDigest != null) {
+                clientMessageHandler.submitSlowDigest(clientId, file.getId(), offset, slowDigest);
+            }
+        }
+    }
+
+    private FastDigestHandler recordingFast(FastDigestHandler fastDigestHandler, File file) {
+        if (digestCache == null) {
+            return fastDigestHandler;
+        }
+        ClientDigestCache.Recording recording = digestCache.recordingFor(file);
+        return (buffer, scannedFile, region, fastDigest, lastModifiedTime) -> {
+            fastDigestHandler.handleFastDigest(buffer, scannedFile, region, fastDigest, lastModifiedTime);
+            recording.recordFast(region.getOffset(), fastDigest);
+        };
+    }
+
+    private SlowDigestHandler recordingSlow(SlowDigestHandler slowDigestHandler, File file) {
+        if (digestCache == null) {
+            return slowDigestHandler;
+        }
+        ClientDigestCache.Recording recording = digestCache.recordingFor(file);
+        return (scannedFile, region, lastModifiedTime, slowDigest) -> {
+            slowDigestHandler.handleSlowDigest(scannedFile, region, lastModifiedTime, slowDigest);
+            recording.recordSlow(region.getOffset(), slowDigest);
+        };
+    }
+
+    private void completeRecording(File file) {
+        if (digestCache != null) {
+            digestCache.complete(file);
         }
     }
 
@@ -130,17 +506,24 @@ public class FileOperations {
         fileCollection.stream().forEach((file -> file.setAbsolutePath(root.resolve(file.getName()))));
     }
 
+    /**
+     * Creates a file that does not exist locally as a sparse file of its
+     * full size. The server fills in the digests of its all zero regions, so
+     * the file needs neither writing nor scanning before its regions arrive.
+     */
     private void blankFile(File file) {
 
         try {
             if ((!fastProcessedFiles.containsKey(file.getId()))) {
-                Path parent = file.getAbsolutePath().getParent();
-                Files.createDirectories(parent);
+                Path absolutePath = file.getAbsolutePath();
+                Files.createDirectories(absolutePath.getParent());
+                createSparseFile(absolutePath, file.getSize());
 
                 restClient.postBlankFileMessage(
                         new BlankFileMessage(clientId, file.getId()));
             }
             fastProcessedFiles.put(file.getId(), file);
+            slowProcessedFiles.put(file.getId(), file);
         } catch (Exception e) {
             logger.log(Level.SEVERE,
                     "Failure while initializing blank file [" + file.getName() + "]", e);
@@ -148,20 +531,30 @@ public class FileOperations {
 
     }
 
+    private static void createSparseFile(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.SPARSE)) {
+            if (size > 0) {
+                channel.write(ByteBuffer.allocate(1), size - 1);
+            }
+        }
+    }
+
     private void slowScanFile(File file) {
 
         try {
             if (!slowProcessedFiles.containsKey(file.getId())) {
                 logger.fine("Beginning slow scan for file [" + file.getName() + "}");
 
-                SlowDigestHandler slowDigestHandler =
-                        new ClientRegionMessageSlowDigestHandler(clientId, clientMessageHandler);
+                SlowDigestHandler slowDigestHandler = recordingSlow(
+                        new ClientRegionMessageSlowDigestHandler(clientId, clientMessageHandler), file);
 
                 FileScanner fileScanner = new FileScanner(workingDirectory,
                         new SlowFileProcessorFactory(slowDigestHandler), () -> {
                 }, true);
                 fileScanner.scanFile(file);
                 slowProcessedFiles.put(file.getId(), file);
+                completeRecording(file);
                 logger.fine("Done slow scan for file [" + file.getName() + "}");
             }
         } catch (Exception e) {
@@ -170,90 +563,67 @@ public class FileOperations {
         }
     }
 
-    private void fastScanFile(File file) {
+    private void combinedScanFile(File file) {
         try {
-            if (!fastProcessedFiles.containsKey(file.getId())) {
-                logger.fine("Beginning fast scan for file [" + file.getName() + "}");
-
-                FastDigestHandler fastDigestHandler =
-                        new ClientRegionMessageFastDigestHandler(clientId, clientMessageHandler);
+            if (!fastProcessedFiles.containsKey(file.getId())
+                    || !slowProcessedFiles.containsKey(file.getId())) {
+                logger.fine("Beginning combined scan for file [" + file.getName() + "}");
+
+                // With hash trees the digests are collected and reported once the whole file is scanned
+                Map<Long, Integer> fastDigests = new ConcurrentHashMap<>();
+                Map<Long, byte[]> slowDigests = new ConcurrentHashMap<>();
+
+                FastDigestHandler fastDigestHandler = recordingFast(MERKLE_SYNC
+                        ? (buffer, scannedFile, region, fastDigest, lastModifiedTime) -> {
+                            if (fastDigest != null) {
+                                fastDigests.put(region.getOffset(), fastDigest);
+                            }
+                        }
+                        : new ClientRegionMessageFastDigestHandler(clientId, clientMessageHandler), file);
+                SlowDigestHandler slowDigestHandler = recordingSlow(MERKLE_SYNC
+                        ? (scannedFile, region, lastModifiedTime, slowDigest) -> {
+                            if (slowDigest != null) {
+                                slowDigests.put(region.getOffset(), slowDigest);
+                            }
+                        }
+                        : new ClientRegionMessageSlowDigestHandler(clientId, clientMessageHandler), file);
 
                 FileScanner fileScanner = new FileScanner(workingDirectory,
-                        new FastFileProcessorFactory(fastDigestHandler), () -> {
+                        new CombinedFileProcessorFactory(fastDigestHandler, slowDigestHandler), () -> {
                 }, true);
                 fileScanner.scanFile(file);
+                if (MERKLE_SYNC) {
+                    reportDigests(file, fastDigests, slowDigests);
+                }
                 fastProcessedFiles.put(file.getId(), file);
-                logger.fine("Done fast scan for file [" + file.getName() + "}");
+                slowProcessedFiles.put(file.getId(), file);
+                completeRecording(file);
+                logger.fine("Done combined scan for file [" + file.getName() + "}");
             }
         } catch (Exception e) {
             logger.log(Level.SEVERE,
-                    "Failure while fast scanning file [" + file.getName() + "]", e);
+                    "Failure while combined scanning file [" + file.getName() + "]", e);
         }
     }
 
-
-    private void processFile(File file) {
-
-        logger.fine("Processing file [" + file.getName() + "]");
-        Path root = Paths.get(workingDirectory).toAbsolutePath().normalize();
-        Path filePath = root.resolve(file.getName());
-
-        file.setAbsolutePath(filePath.toAbsolutePath());
-
-        boolean wasInTheMap = allFiles.putIfAbsent(file.getId(), file) != null;
-
+    private void fastScanFile(File file) {
         try {
-            if (Files.notExists(filePath)) {
-                Path parent = filePath.getParent();
-                Files.createDirectories(parent);
+            if (!fastProcessedFiles.containsKey(file.getId())) {
+                logger.fine("Beginning fast scan for file [" + file.getName() + "}");
 
-                RegionProcessor regionProcessor = (region, hasher, mappedByteBuffer) -> processByteBufferWrite(region, hasher, mappedByteBuffer);
-                processRegions(file, regionProcessor, "rw", FileChannel.MapMode.READ_WRITE);
-            } else if (!wasInTheMap) {
-                FastDigestHandler fastDigestHandler = new ClientRegionMessageFastDigestHandler(clientId, clientMessageHandler);
+                FastDigestHandler fastDigestHandler = recordingFast(
+                        new ClientRegionMessageFastDigestHandler(clientId, clientMessageHandler), file);
 
                 FileScanner fileScanner = new FileScanner(workingDirectory,
                         new FastFileProcessorFactory(fastDigestHandler), () -> {
                 }, true);
                 fileScanner.scanFile(file);
+                fastProcessedFiles.put(file.getId(), file);
+                logger.fine("Done fast scan for file [" + file.getName() + "}");
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
-    private void processRegions(File file, RegionProcessor regionProcessor, String randomAccessFileMode, FileChannel.MapMode mapMode) throws IOException {
-        try (
-                RandomAccessFile randomAccessFile = new RandomAccessFile(file.getAbsolutePath().toFile(), randomAccessFileMode);
-                FileChannel channel = randomAccessFile.getChannel()
-
-        ) {
-            RegionCalculator.calculateForSize(file, file.getSize());
-
-
-            for (Region region : file.getRegions().values()) {
-                Hasher hasher = Hashing.sha256().newHasher();
-                MappedByteBuffer mappedByteBuffer = channel.map(mapMode, region.getOffset(), region.getSize());
-
-                int sum = regionProcessor.processRegion(region, hasher, mappedByteBuffer);
-
-                region.setQuickDigest(sum);
-
-                byte[] slowDigest = hasher.hash().asBytes();
-                region.setSlowDigest(slowDigest);
-
-                clientMessageHandler.submitClientRegionMessage(clientId, file, region.getOffset(), region.getSize(), sum, slowDigest);
-            }
-        }
-    }
-
-    private int processByteBufferWrite(Region region, Hasher hasher, MappedByteBuffer mappedByteBuffer) {
-        for (int i = 0; i < region.getSize(); i++) {
-            byte b = 0;
-
-            mappedByteBuffer.put(i, b);
-            hasher.putByte(b);
+        } catch (Exception e) {
+            logger.log(Level.SEVERE,
+                    "Failure while fast scanning file [" + file.getName() + "]", e);
         }
-        return 0;
     }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.client;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.client.net.RestClient;
+import com.giorgosgaganis.odoxsync.digest.MerkleTree;
+import com.giorgosgaganis.odoxsync.messages.MerkleMessage;
+import com.giorgosgaganis.odoxsync.messages.MerkleNode;
+import com.giorgosgaganis.odoxsync.messages.MerkleReply;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Reports the digests of a file by walking a {@link MerkleTree} with the
+ * server, starting from the root and going down only where the server
+ * finds a difference. A file that is in sync takes a single message.
+ */
+class MerkleSynchronizer {
+    private static final Logger logger = Logger.getLogger(MerkleSynchronizer.class.getName());
+
+    static final int MAX_NODES_PER_MESSAGE = 1000;
+
+    private final RestClient restClient;
+
+    private volatile int maxNodesPerMessage = MAX_NODES_PER_MESSAGE;
+
+    MerkleSynchronizer(RestClient restClient) {
+        this.restClient = restClient;
+    }
+
+    /**
+     * Sends fewer nodes per message than {@link #MAX_NODES_PER_MESSAGE} when
+     * the server only accepts fewer.
+     */
+    void setMaxNodesPerMessage(int maxNodesPerMessage) {
+        this.maxNodesPerMessage = Math.max(1, Math.min(MAX_NODES_PER_MESSAGE, maxNodesPerMessage));
+    }
+
+    /**
+     * Returns false when the server could not compare trees for the file,
+     * in which case the digests have to be reported region by region.
+     */
+    boolean synchronize(int clientId, File file, Map<Long, Integer> fastDigests, Map<Long, byte[]> slowDigests) {
+        List<Long> offsets = file.getRegions().keySet()
+                .stream()
+                .sorted()
+                .collect(Collectors.toList());
+        if (offsets.isEmpty()
+                || !offsets.stream().allMatch(offset -> fastDigests.containsKey(offset) && slowDigests.containsKey(offset))) {
+            return false;
+        }
+
+        MerkleTree tree = new MerkleTree(offsets
+                .stream()
+                .map(slowDigests::get)
+                .collect(Collectors.toList()));
+        byte[] layoutHash = MerkleTree.layoutHash(file.getRegions().values());
+
+        List<MerkleNode> nodes = Collections.singletonList(new MerkleNode(tree.getHeight() - 1, 0));
+        int messageCount = 0;
+        while (!nodes.isEmpty()) {
+            List<MerkleNode> requestedNodes = new ArrayList<>();
+            int nodesPerMessage = maxNodesPerMessage;
+            for (int from = 0; from < nodes.size(); from += nodesPerMessage) {
+                List<MerkleNode> filledNodes = nodes
+                        .subList(from, Math.min(nodes.size(), from + nodesPerMessage))
+                        .stream()
+                        .filter(node -> tree.contains(node.getLevel(), node.getIndex()))
+                        .map(node -> fill(tree, node, offsets, fastDigests))
+                        .collect(Collectors.toList());
+
+                MerkleReply reply = restClient.postMerkleMessage(
+                        new MerkleMessage(clientId, file.getId(), layoutHash, filledNodes));
+                messageCount++;
+                if (!reply.isReady()) {
+                    logger.fine("Server can not compare trees for file [" + file.getName() + "]");
+                    return false;
+                }
+                requestedNodes.addAll(reply.getRequestedNodes());
+            }
+            nodes = requestedNodes;
+        }
+        logger.fine("Compared [" + offsets.size() + "] regions of file [" + file.getName()
+                + "] in [" + messageCount + "] messages");
+        return true;
+    }
+
+    private static MerkleNode fill(MerkleTree tree, MerkleNode node, List<Long> offsets, Map<Long, Integer> fastDigests) {
+        int level = node.getLevel();
+        int index = node.getIndex();
+        Integer fastDigest = level == 0 ? fastDigests.get(offsets.get(index)) : null;
+        return new MerkleNode(level, index, tree.getHash(level, index), fastDigest);
+    }
+}
@@ -19,30 +19,45 @@
 package com.giorgosgaganis.odoxsync.client;
 
 import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.client.net.RegionFrameReader;
 import com.giorgosgaganis.odoxsync.client.net.RestClient;
+import com.giorgosgaganis.odoxsync.digest.FastDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.digest.StrongDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
 import com.giorgosgaganis.odoxsync.utils.Statistics;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
-import java.io.RandomAccessFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
-import static com.giorgosgaganis.odoxsync.files.processing.FastFileProcessor.SAMPLE_SIZE;
 
 /**
  * Created by gaganis on 15/01/17.
  */
 public class RegionDataHandler extends Thread {
     private static final Logger logger = Logger.getLogger(RegionDataHandler.class.getName());
+
+    private static final int CHUNK_SIZE = 0x100000;
+
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(CHUNK_SIZE).asReadOnlyBuffer();
     private final Statistics statistics = Statistics.INSTANCE;
 
     private RestClient restClient;
     private ClientMessageHandler clientMessageHandler;
     private ConcurrentHashMap<Integer, File> files;
     private int clientId;
+    private volatile boolean batched;
+    private volatile boolean streamed;
+    private volatile ClientDigestCache digestCache;
 
     public RegionDataHandler(RestClient restClient, ClientMessageHandler clientMessageHandler, ConcurrentHashMap<Integer, File> files) {
         this.restClient = restClient;
@@ -56,52 +71,182 @@ public class RegionDataHandler extends Thread {
 
         startStatisticsThread();
 
-        for (int threadCounter = 0; threadCounter < 2; threadCounter++) {
+        // A stream is read by one thread, the server keeps it full
+        int threads = streamed ? 1 : 2;
+        for (int threadCounter = 0; threadCounter < threads; threadCounter++) {
 
             new Thread(() -> {
                 do {
                     try {
-                        logger.fine("Requesting region data");
-                        RegionDataParams regionData = restClient.getRegionData();
-                        if (regionData == null) {
-                            logger.fine("Nothing to transfer");
-                            continue;
-                        }
-
-                        logger.fine("Starting to copy region [" + regionData + "]");
-                        File file = files.get(regionData.fileId);
-                        Path absolutePath = file.getAbsolutePath();
-
-                        try (
-                                RandomAccessFile randomAccessFile = new RandomAccessFile(absolutePath.toFile(), "rw");
-                        ) {
-                            Hasher hasher = Hashing.sha256().newHasher();
-                            randomAccessFile.seek(regionData.offset);
-                            randomAccessFile.write(regionData.bytes);
-                            statistics.bytesTransferred.addAndGet(regionData.bytes.length);
-                            hasher.putBytes(regionData.bytes);
-
-                            long sampleSize = regionData.size <= SAMPLE_SIZE ? regionData.size : SAMPLE_SIZE;
-                            int offset = (int) (regionData.size - sampleSize);
-
-                            int sum = 0;
-                            for (int i = offset; i < regionData.bytes.length; i++) {
-                                byte b = regionData.bytes[i];
-                                sum += b;
-                            }
-
-                            clientMessageHandler.submitClientRegionMessage(clientId, file, regionData.offset, regionData.size, sum, hasher.hash().asBytes());
-                        } catch (Exception e) {
-                            e.printStackTrace();
+                        if (streamed) {
+                            transferFrames(restClient.openRegionStream());
+                        } else if (batched) {
+                            transferFrames(restClient.getRegionDataBatch());
+                        } else {
+                            transferRegion();
                         }
                     } catch (Exception e) {
                         e.printStackTrace();
+                        if (streamed || batched) {
+                            pauseBeforeReconnect();
+                        }
                     }
                 } while (true);
             }).start();
         }
     }
 
+    private void transferRegion() throws IOException {
+        logger.fine("Requesting region data");
+        RegionDataParams regionData = restClient.getRegionData();
+        if (regionData == null) {
+            logger.fine("Nothing to transfer");
+            return;
+        }
+        handleRegion(regionData);
+    }
+
+    /**
+     * Writes each region of a batch or stream as it arrives.
+     */
+    private void transferFrames(RegionFrameReader regionFrameReader) throws IOException {
+        logger.fine("Receiving region frames");
+        try (RegionFrameReader frames = regionFrameReader) {
+            int count = 0;
+            RegionDataParams regionData;
+            while ((regionData = frames.next()) != null) {
+                handleRegion(regionData);
+                count++;
+            }
+            if (count == 0) {
+                logger.fine("Nothing to transfer");
+            }
+        }
+    }
+
+    private static void pauseBeforeReconnect() {
+        try {
+            Thread.sleep(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void handleRegion(RegionDataParams regionData) {
+        logger.fine("Starting to copy region [" + regionData + "]");
+        File file = files.get(regionData.fileId);
+        Path absolutePath = file.getAbsolutePath();
+
+        ClientDigestCache cache = digestCache;
+        if (cache != null) {
+            cache.writeStarted(file);
+        }
+        Integer writtenFastDigest = null;
+        byte[] writtenSlowDigest = null;
+
+        ByteBuffer buffer = null;
+        try (
+                InputStream inputStream = regionData.isCopyLocal() ? openSource(regionData) : regionData.data;
+                FileChannel channel = FileChannel.open(absolutePath,
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+        ) {
+            if (regionData.zero) {
+                writeZeros(channel, regionData.offset, regionData.size);
+                writtenFastDigest = FastDigestAlgorithm.get().zeroDigest(regionData.size);
+                writtenSlowDigest = StrongDigestAlgorithm.get().zeroDigest(regionData.size);
+                clientMessageHandler.submitClientRegionMessage(clientId, file, regionData.offset, regionData.size,
+                        writtenFastDigest, writtenSlowDigest);
+                return;
+            }
+
+            int chunkSize = (int) Math.min(regionData.size, CHUNK_SIZE);
+            buffer = BufferPool.INSTANCE.borrow(chunkSize);
+            byte[] bytes = buffer.array();
+
+            StrongDigestAlgorithm.StrongDigest strongDigest = StrongDigestAlgorithm.get().newDigest();
+            FastDigestAlgorithm fastDigestAlgorithm = FastDigestAlgorithm.get();
+            FastDigestAlgorithm.FastDigest fastDigest = fastDigestAlgorithm.newDigest();
+            long sampleStart = regionData.size - fastDigestAlgorithm.sampleSize(regionData.size);
+
+            long written = 0;
+            int read = 0;
+            while (written < regionData.size && read >= 0) {
+                int length = 0;
+                int limit = (int) Math.min(chunkSize, regionData.size - written);
+                while (length < limit
+                        && (read = inputStream.read(bytes, length, limit - length)) >= 0) {
+                    length += read;
+                }
+
+                buffer.clear();
+                buffer.limit(length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, regionData.offset + written + buffer.position());
+                }
+                (regionData.isCopyLocal() ? statistics.bytesCopiedLocally : statistics.bytesTransferred)
+                        .addAndGet(length);
+                strongDigest.update(bytes, 0, length);
+
+                int sampleOffset = (int) Math.min(length, Math.max(0, sampleStart - written));
+                fastDigest.update(bytes, sampleOffset, length - sampleOffset);
+                written += length;
+            }
+
+            byte[] slowDigest = strongDigest.digest();
+            clientMessageHandler.submitClientRegionMessage(clientId, file, regionData.offset, regionData.size, fastDigest.getValue(), slowDigest);
+            if (written == regionData.size) {
+                writtenFastDigest = fastDigest.getValue();
+                writtenSlowDigest = slowDigest;
+            }
+            if (regionData.isCopyLocal() && !Arrays.equals(slowDigest, regionData.slowDigest)) {
+                // The source changed since it was reported, report what it holds now
+                logger.fine("Source of local copy changed [" + regionData + "]");
+                clientMessageHandler.submitClientRegionMessage(clientId, files.get(regionData.sourceFileId),
+                        regionData.sourceOffset, regionData.size, fastDigest.getValue(), slowDigest);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            BufferPool.INSTANCE.release(buffer);
+            if (cache != null) {
+                cache.writeFinished(file, regionData.offset, writtenFastDigest, writtenSlowDigest);
+            }
+        }
+    }
+
+    /**
+     * Reads the region from where the client already holds its bytes.
+     */
+    private InputStream openSource(RegionDataParams regionData) throws IOException {
+        File sourceFile = files.get(regionData.sourceFileId);
+        if (sourceFile == null) {
+            throw new IOException("Unknown source file for local copy [" + regionData + "]");
+        }
+        FileChannel source = FileChannel.open(sourceFile.getAbsolutePath(), StandardOpenOption.READ);
+        source.position(regionData.sourceOffset);
+        return ByteStreams.limit(Channels.newInputStream(source), regionData.size);
+    }
+
+    /**
+     * Writes a region of zeros without receiving it. The part of the region
+     * beyond the end of the file is left as a hole by writing only its last
+     * byte.
+     */
+    static void writeZeros(FileChannel channel, long offset, long size) throws IOException {
+        long end = offset + size;
+        long dataEnd = Math.min(end, Math.max(offset, channel.size()));
+
+        long position = offset;
+        while (position < dataEnd) {
+            ByteBuffer zeros = ZEROS.duplicate();
+            zeros.limit((int) Math.min(zeros.capacity(), dataEnd - position));
+            position += channel.write(zeros, position);
+        }
+        if (dataEnd < end) {
+            channel.write(ByteBuffer.allocate(1), end - 1);
+        }
+    }
+
     private void startStatisticsThread() {
         new Thread(() -> {
 
@@ -115,4 +260,27 @@ public class RegionDataHandler extends Thread {
     public void setClientId(int clientId) {
         this.clientId = clientId;
     }
+
+    /**
+     * Request regions in batches, once the server is known to send them.
+     */
+    public void setBatched(boolean batched) {
+        this.batched = batched;
+    }
+
+    /**
+     * Cache to record the digests of the regions written in, so that files
+     * changed by transfers are not scanned again after a restart.
+     */
+    public void setDigestCache(ClientDigestCache digestCache) {
+        this.digestCache = digestCache;
+    }
+
+    /**
+     * Keep a stream open that the server pushes regions to, instead of
+     * requesting them, once the server is known to offer it.
+     */
+    public void setStreamed(boolean streamed) {
+        this.streamed = streamed;
+    }
 }
@@ -21,6 +21,7 @@ package com.giorgosgaganis.odoxsync.client;
 import org.apache.commons.lang3.builder.ToStringBuilder;
 
 import javax.ws.rs.core.Response;
+import java.io.InputStream;
 
 /**
  * Created by gaganis on 16/01/17.
@@ -31,15 +32,58 @@ public class RegionDataParams {
     final long offset;
     final long size;
     final Response response;
-    final byte[] bytes;
+    /**
+     * Region bytes as they arrive from the server. Regions can be larger
+     * than any buffer the client would want to hold, so they are written
+     * to the file while they are read.
+     */
+    final InputStream data;
+    /**
+     * The server found the region to hold only zeros and sent no data.
+     */
+    final boolean zero;
+    /**
+     * Where the client already holds the bytes of the region, to copy them
+     * from instead of receiving them. Null when the data comes from the
+     * server.
+     */
+    final Integer sourceFileId;
+    final long sourceOffset;
+    final byte[] slowDigest;
 
-    public RegionDataParams(int fileId, long offset, long size, byte[] bytes, Response response) {
+    public RegionDataParams(int fileId, long offset, long size, InputStream data, Response response) {
+        this(fileId, offset, size, data, response, false);
+    }
+
+    public RegionDataParams(int fileId, long offset, long size, InputStream data, Response response, boolean zero) {
 
         this.fileId = fileId;
         this.offset = offset;
         this.size = size;
-        this.bytes = bytes;
+        this.data = data;
         this.response = response;
+        this.zero = zero;
+        this.sourceFileId = null;
+        this.sourceOffset = 0;
+        this.slowDigest = null;
+    }
+
+    public RegionDataParams(int fileId, long offset, long size, Response response,
+                            int sourceFileId, long sourceOffset, byte[] slowDigest) {
+
+        this.fileId = fileId;
+        this.offset = offset;
+        this.size = size;
+        this.data = null;
+        this.response = response;
+        this.zero = false;
+        this.sourceFileId = sourceFileId;
+        this.sourceOffset = sourceOffset;
+        this.slowDigest = slowDigest;
+    }
+
+    boolean isCopyLocal() {
+        return sourceFileId != null;
     }
 
     @Override
@@ -48,6 +92,9 @@ public class RegionDataParams {
                 .append("fileId", fileId)
                 .append("offset", offset)
                 .append("size", size)
+                .append("zero", zero)
+                .append("sourceFileId", sourceFileId)
+                .append("sourceOffset", sourceOffset)
                 .toString();
     }
 }
@@ -20,13 +20,24 @@ package com.giorgosgaganis.odoxsync.client;
 
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.client.net.RestClient;
+import com.giorgosgaganis.odoxsync.codec.RegionCodec;
+import com.giorgosgaganis.odoxsync.digest.FastDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.digest.StrongDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.messages.Capabilities;
+import com.giorgosgaganis.odoxsync.messages.NegotiatedSettings;
 import com.giorgosgaganis.odoxsync.utils.LoggingUtils;
 
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import static com.giorgosgaganis.odoxsync.utils.Contants.COMPRESSION;
 
 /**
  * Created by gaganis on 14/01/17.
@@ -52,6 +63,7 @@ public class SyncClient {
         clientMessageHandler = new ClientMessageHandler(restClient);
         regionDataHandler = new RegionDataHandler(restClient, clientMessageHandler, allFiles);
         fileOperations = new FileOperations(clientMessageHandler, allFiles, restClient, workingDirectory);
+        regionDataHandler.setDigestCache(fileOperations.getDigestCache());
     }
 
 
@@ -65,13 +77,48 @@ public class SyncClient {
         syncClient.start();
     }
 
+    /**
+     * Everything this client supports, for the server to choose from.
+     */
+    private static Capabilities capabilities() {
+        return new Capabilities(Capabilities.PROTOCOL_VERSION,
+                Arrays.stream(FastDigestAlgorithm.values())
+                        .map(FastDigestAlgorithm::getName)
+                        .collect(Collectors.toList()),
+                Arrays.stream(StrongDigestAlgorithm.values())
+                        .map(StrongDigestAlgorithm::getName)
+                        .collect(Collectors.toList()),
+                codecs(),
+                ClientMessageHandler.BATCH_SIZE,
+                MerkleSynchronizer.MAX_NODES_PER_MESSAGE);
+    }
+
+    /**
+     * The codec asked for, falling back to uncompressed data.
+     */
+    private static List<String> codecs() {
+        RegionCodec codec = RegionCodec.forName(COMPRESSION);
+        if (codec == RegionCodec.IDENTITY) {
+            return Collections.singletonList(Capabilities.IDENTITY_CODEC);
+        }
+        return Arrays.asList(codec.getName(), Capabilities.IDENTITY_CODEC);
+    }
+
     private void start() {
         Path root = Paths.get(workingDirectory).toAbsolutePath().normalize();
         logger.info("Starting sync client at [" + root + "]");
-        clientId = restClient.getClientId();
+        NegotiatedSettings settings = restClient.introduce(capabilities());
+        clientId = settings.getClientId();
+        FastDigestAlgorithm.select(FastDigestAlgorithm.forName(settings.getFastDigest()));
+        StrongDigestAlgorithm.select(StrongDigestAlgorithm.forName(settings.getStrongDigest()));
+        clientMessageHandler.setBatchSize(settings.getMaxDigestBatchSize());
+        restClient.setBinaryDigests(settings.getProtocolVersion() >= Capabilities.BINARY_DIGESTS_VERSION);
+        fileOperations.setMaxMerkleNodes(settings.getMaxMerkleNodes());
 
         restClient.setClientId(clientId);
         regionDataHandler.setClientId(clientId);
+        regionDataHandler.setBatched(settings.getProtocolVersion() >= Capabilities.BATCHED_REGIONS_VERSION);
+        regionDataHandler.setStreamed(settings.getProtocolVersion() >= Capabilities.STREAMED_REGIONS_VERSION);
         regionDataHandler.start();
 
         fileOperations.setClientId(clientId);
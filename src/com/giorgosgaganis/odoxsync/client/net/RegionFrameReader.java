@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.client.net;
+
+import com.giorgosgaganis.odoxsync.client.RegionDataParams;
+import com.giorgosgaganis.odoxsync.codec.RegionCodec;
+import com.giorgosgaganis.odoxsync.messages.RegionFrameFormat;
+
+import javax.ws.rs.core.Response;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the regions of a batch response one at a time, as they arrive.
+ * The data of a region must be consumed or closed before the next region
+ * is requested, otherwise it is skipped.
+ */
+public class RegionFrameReader implements Closeable {
+    private final Response response;
+    private final DataInputStream input;
+    private InputStream currentData;
+
+    RegionFrameReader(Response response) throws IOException {
+        if (!Response.Status.Family.SUCCESSFUL.equals(response.getStatusInfo().getFamily())) {
+            response.close();
+            throw new IOException("Region frames refused [" + response.getStatusInfo() + "]");
+        }
+        this.response = response;
+        this.input = new DataInputStream(new BufferedInputStream(response.readEntity(InputStream.class)));
+    }
+
+    /**
+     * Returns the next region of the batch, null when the batch ends.
+     */
+    public RegionDataParams next() throws IOException {
+        if (currentData != null) {
+            currentData.close();
+            currentData = null;
+        }
+
+        RegionFrameFormat.Frame frame = RegionFrameFormat.readFrame(input);
+        if (frame == null) {
+            return null;
+        }
+        switch (frame.type) {
+            case RegionFrameFormat.ZERO:
+                return new RegionDataParams(frame.fileId, frame.offset, frame.size, null, response, true);
+            case RegionFrameFormat.COPY_LOCAL:
+                return new RegionDataParams(frame.fileId, frame.offset, frame.size, response,
+                        frame.sourceFileId, frame.sourceOffset, frame.slowDigest);
+            default:
+                currentData = RegionFrameFormat.dataInput(input);
+                InputStream data = RegionCodec.forName(frame.codec).decompress(currentData);
+                return new RegionDataParams(frame.fileId, frame.offset, frame.size, data, response);
+        }
+    }
+
+    @Override
+    public void close() {
+        response.close();
+    }
+}
@@ -21,18 +21,30 @@ package com.giorgosgaganis.odoxsync.client.net;
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.client.ClientRegionMessage;
 import com.giorgosgaganis.odoxsync.client.RegionDataParams;
+import com.giorgosgaganis.odoxsync.codec.RegionCodec;
 import com.giorgosgaganis.odoxsync.messages.BlankFileMessage;
+import com.giorgosgaganis.odoxsync.messages.BlockDigest;
+import com.giorgosgaganis.odoxsync.messages.Capabilities;
 import com.giorgosgaganis.odoxsync.messages.ClientFastDigestMessage;
 import com.giorgosgaganis.odoxsync.messages.ClientSlowDigestMessage;
-import org.apache.commons.io.IOUtils;
+import com.giorgosgaganis.odoxsync.messages.DigestBatchFormat;
+import com.giorgosgaganis.odoxsync.messages.DigestBatchProvider;
+import com.giorgosgaganis.odoxsync.messages.DirectoryListing;
+import com.giorgosgaganis.odoxsync.messages.MerkleMessage;
+import com.giorgosgaganis.odoxsync.messages.MerkleReply;
+import com.giorgosgaganis.odoxsync.messages.NegotiatedSettings;
+
+import org.glassfish.jersey.client.ClientProperties;
 
 import javax.ws.rs.client.*;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Base64;
 import java.util.Collection;
 import java.util.List;
 import java.util.logging.Level;
@@ -43,10 +55,16 @@ import java.util.logging.Logger;
  */
 public class RestClient {
     private static final Logger logger = Logger.getLogger(RestClient.class.getName());
+
+    /**
+     * Long enough to miss a couple of the heartbeats of a region stream.
+     */
+    private static final int REGION_STREAM_TIMEOUT_MILLIS = 30000;
     private final String SERVER_PATH;
 
-    private Client restClient = ClientBuilder.newClient();
+    private Client restClient = ClientBuilder.newClient().register(DigestBatchProvider.class);
     private int clientId;
+    private volatile MediaType digestBatchType = MediaType.APPLICATION_JSON_TYPE;
 
     public RestClient(String hostPort) {
         this.SERVER_PATH = "http://" + hostPort + "/odoxsync/";
@@ -68,15 +86,60 @@ public class RestClient {
         return files;
     }
 
-    public int getClientId() {
+    /**
+     * The files directly in one directory of the server.
+     */
+    public Collection<File> getFiles(String directory) {
+        WebTarget webTarget = restClient.target(SERVER_PATH + "files")
+                .queryParam("directory", directory);
+
+        Invocation.Builder invocationBuilder =
+                webTarget.request();
+
+        Collection<File> files = invocationBuilder.get(new GenericType<Collection<File>>() {
+        });
+
+        logger.fine("Retrieved files of directory [" + directory + "] from server");
+        return files;
+    }
+
+    public DirectoryListing getDirectoryListing(String path) {
+        WebTarget webTarget = restClient.target(SERVER_PATH + "directories")
+                .queryParam("path", path);
+
+        Invocation.Builder invocationBuilder =
+                webTarget.request();
+
+        return invocationBuilder.get(DirectoryListing.class);
+    }
+
+    public List<BlockDigest> getBlockDigests(int fileId) {
+        WebTarget webTarget = restClient.target(SERVER_PATH + "blockdigests/" + fileId);
+
+        Invocation.Builder invocationBuilder =
+                webTarget.request();
+
+        List<BlockDigest> blockDigests = invocationBuilder.get(new GenericType<List<BlockDigest>>() {
+        });
+
+        logger.fine("Retrieved [" + blockDigests.size() + "] block digests for file [" + fileId + "]");
+        return blockDigests;
+    }
+
+    /**
+     * Introduces the client to the server, which replies with the settings
+     * it picked from the capabilities of the client.
+     */
+    public NegotiatedSettings introduce(Capabilities capabilities) {
         WebTarget webTarget = restClient.target(SERVER_PATH + "introduction");
 
         Invocation.Builder invocationBuilder =
                 webTarget.request();
 
-        Integer id = invocationBuilder.get(Integer.class);
-        logger.info("Retrieved clientId [" + id + "]");
-        return id;
+        NegotiatedSettings settings = invocationBuilder.post(
+                Entity.entity(capabilities, MediaType.APPLICATION_JSON_TYPE), NegotiatedSettings.class);
+        logger.info("Retrieved clientId [" + settings.getClientId() + "] with " + settings);
+        return settings;
     }
 
     public void postClientRegionMessage(ClientRegionMessage clientRegionMessage) {
@@ -110,24 +173,75 @@ public class RestClient {
         long offset = Long.valueOf(response.getHeaderString("offset"));
         long size = Long.valueOf(response.getHeaderString("size"));
 
-        InputStream inputStream = response.readEntity(InputStream.class);
-        byte[] bytes = IOUtils.toByteArray(inputStream);
+        if ("zeroRegion".equals(response.getHeaderString("zeroRegion"))) {
+            response.close();
+            return new RegionDataParams(fileId, offset, size, null, response, true);
+        }
+        if ("copyLocal".equals(response.getHeaderString("copyLocal"))) {
+            response.close();
+            return new RegionDataParams(fileId, offset, size, response,
+                    Integer.valueOf(response.getHeaderString("sourceFileId")),
+                    Long.valueOf(response.getHeaderString("sourceOffset")),
+                    Base64.getDecoder().decode(response.getHeaderString("slowDigest")));
+        }
+
+        String codec = response.getHeaderString("codec");
+        InputStream data = (codec == null ? RegionCodec.IDENTITY : RegionCodec.forName(codec))
+                .decompress(response.readEntity(InputStream.class));
+        return new RegionDataParams(fileId, offset, size, data, response);
+
+    }
+
+    /**
+     * Requests a batch of regions to transfer, an empty batch when there is
+     * nothing to transfer.
+     */
+    public RegionFrameReader getRegionDataBatch() throws IOException {
+        WebTarget webTarget = restClient.target(SERVER_PATH + "regiondatabatch");
+        Invocation.Builder invocationBuilder =
+                webTarget.request();
+        invocationBuilder.header("clientId", clientId);
+
+        return new RegionFrameReader(invocationBuilder.get());
+    }
 
-        return new RegionDataParams(fileId, offset, size, bytes, response);
+    /**
+     * Opens a stream the server pushes regions to as they are queued. The
+     * stream fails when not even a heartbeat arrives for a while, so that
+     * a server that went away is noticed.
+     */
+    public RegionFrameReader openRegionStream() throws IOException {
+        WebTarget webTarget = restClient.target(SERVER_PATH + "regionstream");
+        Invocation.Builder invocationBuilder =
+                webTarget.request();
+        invocationBuilder.header("clientId", clientId);
+        invocationBuilder.property(ClientProperties.READ_TIMEOUT, REGION_STREAM_TIMEOUT_MILLIS);
 
+        return new RegionFrameReader(invocationBuilder.get());
     }
 
     public void setClientId(int clientId) {
         this.clientId = clientId;
     }
 
+    /**
+     * Send digest batches in the binary {@link DigestBatchFormat} instead of
+     * JSON, once the server is known to read it.
+     */
+    public void setBinaryDigests(boolean binaryDigests) {
+        digestBatchType = binaryDigests ? DigestBatchFormat.DIGEST_BATCH_TYPE : MediaType.APPLICATION_JSON_TYPE;
+    }
+
     public void postFastDigestMessageBatch(ArrayList<ClientFastDigestMessage> batch) {
         logger.fine("Posting batch of ClientFastDigestMessages");
         WebTarget webTarget = restClient.target(SERVER_PATH + "clientfastdigestmessages");
         Invocation.Builder invocationBuilder =
                 webTarget.request();
 
-        Response post = invocationBuilder.post(Entity.entity(batch, MediaType.APPLICATION_JSON_TYPE));
+        Entity<GenericEntity<List<ClientFastDigestMessage>>> entity = Entity.entity(
+                new GenericEntity<List<ClientFastDigestMessage>>(batch) {
+                }, digestBatchType);
+        Response post = invocationBuilder.post(entity);
         if(!Response.Status.Family.SUCCESSFUL.equals(post.getStatusInfo().getFamily())){
             logger.severe(post.getStatusInfo().toString());
         }
@@ -147,13 +261,24 @@ public class RestClient {
         post.close();
     }
 
+    public MerkleReply postMerkleMessage(MerkleMessage merkleMessage) {
+        logger.fine("Posting MerkleMessage");
+        WebTarget webTarget = restClient.target(SERVER_PATH + "merkle");
+        Invocation.Builder invocationBuilder =
+                webTarget.request();
+
+        return invocationBuilder.post(Entity.entity(merkleMessage, MediaType.APPLICATION_JSON_TYPE), MerkleReply.class);
+    }
+
     public void postSlowDigestMessageBatch(List<ClientSlowDigestMessage> batch) {
         logger.fine("Posting batch of ClientSlowDigestMessages");
         WebTarget webTarget = restClient.target(SERVER_PATH + "clientslowdigestmessages");
         Invocation.Builder invocationBuilder =
                 webTarget.request();
 
-        Entity<List<ClientSlowDigestMessage>> entity = Entity.entity(batch, MediaType.APPLICATION_JSON_TYPE);
+        Entity<GenericEntity<List<ClientSlowDigestMessage>>> entity = Entity.entity(
+                new GenericEntity<List<ClientSlowDigestMessage>>(batch) {
+                }, digestBatchType);
         Response post = invocationBuilder.post(entity);
         if(!Response.Status.Family.SUCCESSFUL.equals(post.getStatusInfo().getFamily())){
             logger.severe(post.getStatusInfo().toString());
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.codec;
+
+import com.giorgosgaganis.odoxsync.messages.Capabilities;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodings of the region data sent from the server to a client. The codec
+ * is negotiated per client, and the server still sends a region as is when
+ * a sample of it does not compress.
+ */
+public enum RegionCodec {
+    IDENTITY(Capabilities.IDENTITY_CODEC, Deflater.NO_COMPRESSION),
+    /**
+     * Deflate at its fastest level, mostly LZ77 matching.
+     */
+    DEFLATE_FAST("deflate-fast", Deflater.BEST_SPEED),
+    /**
+     * Deflate at its best ratio, several times slower to compress.
+     */
+    DEFLATE_BEST("deflate-best", Deflater.BEST_COMPRESSION);
+
+    private static final int BUFFER_SIZE = 0x10000;
+
+    /**
+     * Compressed size, in percent of the sample size, above which a region
+     * is sent as is.
+     */
+    private static final int MAX_SAMPLE_RATIO = 90;
+
+    private final String name;
+    private final int level;
+
+    RegionCodec(String name, int level) {
+        this.name = name;
+        this.level = level;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public static RegionCodec forName(String name) {
+        for (RegionCodec codec : values()) {
+            if (codec.name.equals(name)) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException("Unknown region codec [" + name + "]");
+    }
+
+    /**
+     * Whether compressing the given sample of a region saves enough to be
+     * worth it.
+     */
+    public boolean compresses(byte[] sample, int length) {
+        if (this == IDENTITY || length == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(sample, 0, length);
+            deflater.finish();
+            byte[] output = new byte[BUFFER_SIZE];
+            long compressedLength = 0;
+            while (!deflater.finished() && compressedLength * 100 <= (long) length * MAX_SAMPLE_RATIO) {
+                compressedLength += deflater.deflate(output);
+            }
+            return compressedLength * 100 <= (long) length * MAX_SAMPLE_RATIO;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Wraps a stream so that what is written to it is encoded. Closing the
+     * returned stream finishes the encoded data but leaves the wrapped
+     * stream open.
+     */
+    public OutputStream compress(OutputStream outputStream) {
+        if (this == IDENTITY) {
+            return new FilterOutputStream(outputStream) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    flush();
+                }
+            };
+        }
+        Deflater deflater = new Deflater(level);
+        return new DeflaterOutputStream(outputStream, deflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    finish();
+                    flush();
+                } finally {
+                    deflater.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream of encoded data so that it reads decoded. Closing the
+     * returned stream closes the wrapped one.
+     */
+    public InputStream decompress(InputStream inputStream) {
+        if (this == IDENTITY) {
+            return inputStream;
+        }
+        Inflater inflater = new Inflater();
+        return new InflaterInputStream(inputStream, inflater, BUFFER_SIZE) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+}
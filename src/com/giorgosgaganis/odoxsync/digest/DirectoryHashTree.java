@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.digest;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.messages.DirectoryListing;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hash tree over the directories of a set of files. A file is hashed from
+ * the digests of its regions and a directory from the files and directories
+ * directly in it, so two trees with the same hash for a directory have the
+ * same digests for everything below it.
+ *
+ * The hashes of the children of a directory are added together instead of
+ * being hashed in order, so a changed file is applied by walking up its
+ * ancestors rather than by rehashing whole directories. Files mark
+ * themselves changed when their digests change and are only rehashed on the
+ * next {@link #refresh()}.
+ */
+public class DirectoryHashTree {
+    public static final String ROOT = "";
+
+    private static final HashFunction hashFunction = Hashing.murmur3_128();
+
+    private final Map<String, Directory> directories = new HashMap<>();
+    private final Map<String, Long> fileHashes = new HashMap<>();
+    private final Set<File> changedFiles = ConcurrentHashMap.newKeySet();
+
+    public DirectoryHashTree() {
+        directories.put(ROOT, new Directory(ROOT, null));
+    }
+
+    /**
+     * Starts tracking a file. It is hashed on the next refresh and again
+     * every time its digests change.
+     */
+    public void add(File file) {
+        file.setDigestListener(this::fileChanged);
+        changedFiles.add(file);
+    }
+
+    public void fileChanged(File file) {
+        changedFiles.add(file);
+    }
+
+    /**
+     * Rehashes the files that changed since the last refresh and updates
+     * their directories.
+     */
+    public synchronized void refresh() {
+        Iterator<File> iterator = changedFiles.iterator();
+        while (iterator.hasNext()) {
+            File file = iterator.next();
+            // Removed before hashing so that a change made meanwhile is seen on the next refresh
+            iterator.remove();
+
+            String name = file.getName();
+            long hash = hashFile(file);
+            Long previousHash = fileHashes.put(name, hash);
+            if (previousHash != null && previousHash == hash) {
+                continue;
+            }
+
+            Directory directory = getOrCreateDirectory(parentOf(name));
+            long nameHash = hashName(name);
+            long delta = entryHash(nameHash, hash);
+            if (previousHash == null) {
+                directory.files.put(name, file);
+            } else {
+                delta -= entryHash(nameHash, previousHash);
+            }
+            directory.filesHash += delta;
+            addToHash(directory, delta);
+        }
+    }
+
+    /**
+     * Hash of a directory and everything below it, or null for a directory
+     * with no tracked files under it.
+     */
+    public synchronized Long getHash(String path) {
+        Directory directory = directories.get(path);
+        return directory == null ? null : directory.hash;
+    }
+
+    public synchronized List<File> getFiles(String path) {
+        Directory directory = directories.get(path);
+        return directory == null ? new ArrayList<>() : new ArrayList<>(directory.files.values());
+    }
+
+    public synchronized List<String> getSubdirectories(String path) {
+        Directory directory = directories.get(path);
+        return directory == null ? new ArrayList<>() : new ArrayList<>(directory.subdirectories);
+    }
+
+    /**
+     * The hashes a client needs to decide which directories to list, or
+     * null for an unknown directory.
+     */
+    public synchronized DirectoryListing getListing(String path) {
+        Directory directory = directories.get(path);
+        if (directory == null) {
+            return null;
+        }
+        Map<String, Long> subdirectories = new TreeMap<>();
+        for (String subdirectory : directory.subdirectories) {
+            subdirectories.put(subdirectory, directories.get(subdirectory).hash);
+        }
+        return new DirectoryListing(path, directory.hash, directory.filesHash, subdirectories);
+    }
+
+    private Directory getOrCreateDirectory(String path) {
+        Directory directory = directories.get(path);
+        if (directory == null) {
+            Directory parent = getOrCreateDirectory(parentOf(path));
+            directory = new Directory(path, parent);
+            directories.put(path, directory);
+            parent.subdirectories.add(path);
+            addToHash(parent, entryHash(directory.nameHash, directory.hash));
+        }
+        return directory;
+    }
+
+    /**
+     * Adds to the hash of a directory and carries the change of its entry
+     * up to every ancestor.
+     */
+    private static void addToHash(Directory directory, long delta) {
+        while (true) {
+            long previousHash = directory.hash;
+            directory.hash += delta;
+            if (directory.parent == null) {
+                return;
+            }
+            delta = entryHash(directory.nameHash, directory.hash)
+                    - entryHash(directory.nameHash, previousHash);
+            directory = directory.parent;
+        }
+    }
+
+    static String parentOf(String name) {
+        Path parent = Paths.get(name).getParent();
+        return parent == null ? ROOT : parent.toString();
+    }
+
+    /**
+     * Sum of the hashes of the regions with their digests. A region missing
+     * a digest is hashed too, so that it only matches a region missing the
+     * same digest.
+     */
+    static long hashFile(File file) {
+        long hash = 0;
+        for (Region region : file.getRegions().values()) {
+            Hasher hasher = hashFunction.newHasher()
+                    .putLong(region.getOffset())
+                    .putLong(region.getSize());
+
+            Integer quickDigest = region.getQuickDigest();
+            hasher.putBoolean(quickDigest != null);
+            if (quickDigest != null) {
+                hasher.putInt(quickDigest);
+            }
+            byte[] slowDigest = region.getSlowDigest();
+            hasher.putBoolean(slowDigest != null);
+            if (slowDigest != null) {
+                hasher.putBytes(slowDigest);
+            }
+            hash += hasher.hash().asLong();
+        }
+        return hash;
+    }
+
+    private static long hashName(String name) {
+        return hashFunction.hashString(name, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static long entryHash(long nameHash, long hash) {
+        return hashFunction.newHasher()
+                .putLong(nameHash)
+                .putLong(hash)
+                .hash().asLong();
+    }
+
+    private static class Directory {
+        final Directory parent;
+        final long nameHash;
+        final Map<String, File> files = new TreeMap<>();
+        final Set<String> subdirectories = new TreeSet<>();
+        long filesHash;
+        long hash;
+
+        Directory(String path, Directory parent) {
+            this.parent = parent;
+            this.nameHash = hashName(path);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.digest;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Checksum;
+
+import static com.giorgosgaganis.odoxsync.files.processing.FastFileProcessor.SAMPLE_SIZE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.FAST_DIGEST;
+
+/**
+ * The ways a fast digest can be calculated. The server picks one and clients
+ * use the one of the server, since digests of different algorithms can not
+ * be compared.
+ */
+public enum FastDigestAlgorithm {
+    /**
+     * Sum of the last {@code SAMPLE_SIZE} bytes of a region. Cheap to read
+     * but blind to changes anywhere else in the region.
+     */
+    SAMPLE_SUM("sample") {
+        @Override
+        public long sampleSize(long regionSize) {
+            return Math.min(regionSize, SAMPLE_SIZE);
+        }
+
+        @Override
+        public FastDigest newDigest() {
+            return new SampleSum();
+        }
+    },
+
+    /**
+     * CRC32C of the whole region, which reads every byte but is computed
+     * at memory speed by the intrinsic of the JDK where it is available.
+     */
+    CRC32C("crc32c") {
+        @Override
+        public long sampleSize(long regionSize) {
+            return regionSize;
+        }
+
+        @Override
+        public FastDigest newDigest() {
+            return Crc32c.create();
+        }
+    };
+
+    private static final int ZERO_CHUNK_SIZE = 0x10000;
+
+    private static volatile FastDigestAlgorithm selected = forName(FAST_DIGEST);
+
+    private final String name;
+    private final ConcurrentHashMap<Long, Integer> zeroDigests = new ConcurrentHashMap<>();
+
+    FastDigestAlgorithm(String name) {
+        this.name = name;
+    }
+
+    /**
+     * The algorithm of this side, which for a client is the one the server
+     * uses once they are introduced.
+     */
+    public static FastDigestAlgorithm get() {
+        return selected;
+    }
+
+    public static void select(FastDigestAlgorithm algorithm) {
+        selected = algorithm;
+    }
+
+    public static FastDigestAlgorithm forName(String name) {
+        for (FastDigestAlgorithm algorithm : values()) {
+            if (algorithm.name.equals(name)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown fast digest algorithm [" + name + "]");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Number of bytes at the end of a region the digest is calculated from.
+     */
+    public abstract long sampleSize(long regionSize);
+
+    public abstract FastDigest newDigest();
+
+    /**
+     * Digest of the remaining bytes of the buffer, leaving its position
+     * unchanged.
+     */
+    public int digest(ByteBuffer buffer) {
+        FastDigest digest = newDigest();
+        digest.update(buffer.duplicate());
+        return digest.getValue();
+    }
+
+    /**
+     * Digest of a region of the given size that holds only zeros.
+     */
+    public int zeroDigest(long regionSize) {
+        return zeroDigests.computeIfAbsent(regionSize, size -> {
+            FastDigest digest = newDigest();
+            byte[] zeros = new byte[(int) Math.min(ZERO_CHUNK_SIZE, sampleSize(size))];
+            for (long remaining = sampleSize(size); remaining > 0; remaining -= zeros.length) {
+                digest.update(zeros, 0, (int) Math.min(zeros.length, remaining));
+            }
+            return digest.getValue();
+        });
+    }
+
+    /**
+     * A digest calculated over bytes fed in order.
+     */
+    public interface FastDigest {
+        void update(byte[] bytes, int offset, int length);
+
+        /**
+         * Consumes the remaining bytes of the buffer.
+         */
+        void update(ByteBuffer buffer);
+
+        int getValue();
+    }
+
+    private static class SampleSum implements FastDigest {
+        private int sum;
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                sum += bytes[i];
+            }
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            } else {
+                while (buffer.hasRemaining()) {
+                    sum += buffer.get();
+                }
+            }
+        }
+
+        @Override
+        public int getValue() {
+            return sum;
+        }
+    }
+
+    /**
+     * CRC32C through {@code java.util.zip.CRC32C}, which only exists from
+     * Java 9 on and is looked up when the class loads. Older runtimes get
+     * the implementation of Guava, which gives the same values.
+     */
+    private static class Crc32c implements FastDigest {
+        private static final int COPY_CHUNK_SIZE = 0x2000;
+
+        private static final MethodHandle newChecksum;
+        private static final MethodHandle updateBuffer;
+
+        static {
+            MethodHandle constructor = null;
+            MethodHandle update = null;
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                constructor = lookup.findConstructor(Class.forName("java.util.zip.CRC32C"), MethodType.methodType(void.class))
+                        .asType(MethodType.methodType(Checksum.class));
+                update = lookup.findVirtual(Checksum.class, "update",
+                        MethodType.methodType(void.class, ByteBuffer.class));
+            } catch (ReflectiveOperationException e) {
+                constructor = null;
+                update = null;
+            }
+            newChecksum = constructor;
+            updateBuffer = update;
+        }
+
+        private final Checksum checksum;
+        private final Hasher hasher;
+
+        private Crc32c(Checksum checksum, Hasher hasher) {
+            this.checksum = checksum;
+            this.hasher = hasher;
+        }
+
+        static Crc32c create() {
+            if (newChecksum == null) {
+                return new Crc32c(null, Hashing.crc32c().newHasher());
+            }
+            try {
+                return new Crc32c((Checksum) newChecksum.invokeExact(), null);
+            } catch (Throwable e) {
+                throw new IllegalStateException("Unable to create CRC32C checksum", e);
+            }
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            if (checksum != null) {
+                checksum.update(bytes, offset, length);
+            } else {
+                hasher.putBytes(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                update(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            } else if (checksum != null) {
+                try {
+                    updateBuffer.invokeExact(checksum, buffer);
+                } catch (Throwable e) {
+                    throw new IllegalStateException("Unable to update CRC32C checksum", e);
+                }
+            } else {
+                byte[] chunk = new byte[Math.min(COPY_CHUNK_SIZE, buffer.remaining())];
+                while (buffer.hasRemaining()) {
+                    int length = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, length);
+                    hasher.putBytes(chunk, 0, length);
+                }
+            }
+        }
+
+        @Override
+        public int getValue() {
+            return checksum != null ? (int) checksum.getValue() : hasher.hash().asInt();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.digest;
+
+import com.giorgosgaganis.odoxsync.Region;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Hash tree over the slow digests of the regions of a file, in offset
+ * order. The leaves are the region digests themselves and every parent is
+ * the hash of its two children. A node without a sibling is carried up
+ * unchanged, so node {@code index} of {@code level} covers the leaves from
+ * {@code index << level} up to but excluding {@code (index + 1) << level}.
+ *
+ * Two sides with equal roots have equal regions, and when roots differ only
+ * the subtrees whose hashes differ need to be compared further.
+ */
+public class MerkleTree {
+    private final List<byte[][]> levels = new ArrayList<>();
+
+    public MerkleTree(List<byte[]> leafDigests) {
+        if (leafDigests.isEmpty()) {
+            throw new IllegalArgumentException("A tree needs at least one leaf");
+        }
+        byte[][] level = leafDigests.toArray(new byte[leafDigests.size()][]);
+        levels.add(level);
+        while (level.length > 1) {
+            byte[][] parents = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < parents.length; i++) {
+                int left = i * 2;
+                parents[i] = left + 1 < level.length
+                        ? Hashing.sha256().newHasher()
+                        .putBytes(level[left])
+                        .putBytes(level[left + 1])
+                        .hash().asBytes()
+                        : level[left];
+            }
+            levels.add(parents);
+            level = parents;
+        }
+    }
+
+    /**
+     * Number of levels, the root being on level {@code getHeight() - 1}.
+     */
+    public int getHeight() {
+        return levels.size();
+    }
+
+    public int getWidth(int level) {
+        return levels.get(level).length;
+    }
+
+    public int getLeafCount() {
+        return getWidth(0);
+    }
+
+    public byte[] getHash(int level, int index) {
+        return levels.get(level)[index];
+    }
+
+    public boolean contains(int level, int index) {
+        return level >= 0 && level < levels.size() && index >= 0 && index < getWidth(level);
+    }
+
+    /**
+     * Hash of the offsets and sizes of the regions. Trees can only be
+     * compared when both sides cut the file into the same regions.
+     */
+    public static byte[] layoutHash(Collection<Region> regions) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        regions.stream()
+                .sorted(Comparator.comparingLong(Region::getOffset))
+                .forEachOrdered(region -> hasher.putLong(region.getOffset()).putLong(region.getSize()));
+        return hasher.hash().asBytes();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.digest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Weak checksum over a fixed size window that can be moved forward one byte
+ * at a time, as used by rsync. It is made of the sum of the window bytes
+ * and the sum of those sums, each kept to 16 bits.
+ */
+public class RollingChecksum {
+    private final long windowSize;
+
+    private int a;
+    private int b;
+
+    public RollingChecksum(long windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Checksum of the bytes between the position and the limit of the
+     * buffer. The buffer position is left unchanged.
+     */
+    public static int of(ByteBuffer buffer) {
+        RollingChecksum checksum = new RollingChecksum(buffer.remaining());
+        checksum.update(buffer);
+        return checksum.getValue();
+    }
+
+    /**
+     * Adds the bytes between the position and the limit of the buffer to a
+     * window that is still being filled.
+     */
+    public void update(ByteBuffer buffer) {
+        int a = this.a;
+        int b = this.b;
+        for (int i = buffer.position(); i < buffer.limit(); i++) {
+            a += buffer.get(i) & 0xff;
+            b += a;
+        }
+        this.a = a & 0xffff;
+        this.b = b & 0xffff;
+    }
+
+    public void update(byte in) {
+        a = (a + (in & 0xff)) & 0xffff;
+        b = (b + a) & 0xffff;
+    }
+
+    /**
+     * Moves a full window forward by one byte.
+     */
+    public void roll(byte out, byte in) {
+        int outValue = out & 0xff;
+        a = (a - outValue + (in & 0xff)) & 0xffff;
+        b = (int) ((b - windowSize * outValue + a) & 0xffff);
+    }
+
+    public void reset() {
+        a = 0;
+        b = 0;
+    }
+
+    public int getValue() {
+        return a | (b << 16);
+    }
+}
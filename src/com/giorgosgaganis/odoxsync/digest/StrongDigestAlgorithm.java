@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.digest;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static com.giorgosgaganis.odoxsync.utils.Contants.STRONG_DIGEST;
+
+/**
+ * The ways a slow digest can be calculated. As with the fast digest the
+ * server picks one and clients use the one of the server.
+ */
+public enum StrongDigestAlgorithm {
+    /**
+     * SHA-256 of the region.
+     */
+    SHA256("sha256", 32) {
+        @Override
+        public StrongDigest newDigest() {
+            return new MessageDigestStrongDigest(newSha256());
+        }
+    },
+
+    /**
+     * 128 bit Murmur3 of the region. Not cryptographic, so it only guards
+     * against accidental collisions, but several times faster than SHA-256.
+     */
+    MURMUR3_128("murmur3", 16) {
+        @Override
+        public StrongDigest newDigest() {
+            return new HasherStrongDigest(Hashing.murmur3_128().newHasher());
+        }
+    },
+
+    /**
+     * SHA-256 of the SHA-256 digests of consecutive leaves of the region.
+     * The leaves are hashed in parallel, so a large region is digested by
+     * several cores.
+     */
+    SHA256_TREE("sha256-tree", 32) {
+        @Override
+        public StrongDigest newDigest() {
+            return new TreeStrongDigest();
+        }
+    };
+
+    private static final int ZERO_CHUNK_SIZE = 0x10000;
+
+    private static volatile StrongDigestAlgorithm selected = forName(STRONG_DIGEST);
+
+    private final String name;
+    private final int digestLength;
+    private final ConcurrentHashMap<Long, byte[]> zeroDigests = new ConcurrentHashMap<>();
+
+    StrongDigestAlgorithm(String name, int digestLength) {
+        this.name = name;
+        this.digestLength = digestLength;
+    }
+
+    /**
+     * The algorithm of this side, which for a client is the one the server
+     * uses once they are introduced.
+     */
+    public static StrongDigestAlgorithm get() {
+        return selected;
+    }
+
+    public static void select(StrongDigestAlgorithm algorithm) {
+        selected = algorithm;
+    }
+
+    public static StrongDigestAlgorithm forName(String name) {
+        for (StrongDigestAlgorithm algorithm : values()) {
+            if (algorithm.name.equals(name)) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("Unknown strong digest algorithm [" + name + "]");
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    public abstract StrongDigest newDigest();
+
+    /**
+     * Digest of the remaining bytes of the buffer, leaving its position
+     * unchanged.
+     */
+    public byte[] digest(ByteBuffer buffer) {
+        StrongDigest digest = newDigest();
+        digest.update(buffer.duplicate());
+        return digest.digest();
+    }
+
+    /**
+     * Digest of a region of the given size that holds only zeros. Regions
+     * come in few sizes, so the digests are calculated once per size.
+     */
+    public byte[] zeroDigest(long regionSize) {
+        return cachedZeroDigest(regionSize).clone();
+    }
+
+    public boolean isZeroDigest(long regionSize, byte[] digest) {
+        return Arrays.equals(cachedZeroDigest(regionSize), digest);
+    }
+
+    private byte[] cachedZeroDigest(long regionSize) {
+        return zeroDigests.computeIfAbsent(regionSize, size -> {
+            StrongDigest digest = newDigest();
+            byte[] zeros = new byte[(int) Math.min(ZERO_CHUNK_SIZE, size)];
+            for (long remaining = size; remaining > 0; remaining -= zeros.length) {
+                digest.update(zeros, 0, (int) Math.min(zeros.length, remaining));
+            }
+            return digest.digest();
+        });
+    }
+
+    /**
+     * A digest calculated over bytes fed in order.
+     */
+    public interface StrongDigest {
+        void update(byte[] bytes, int offset, int length);
+
+        /**
+         * Consumes the remaining bytes of the buffer.
+         */
+        void update(ByteBuffer buffer);
+
+        byte[] digest();
+    }
+
+    private static MessageDigest newSha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class MessageDigestStrongDigest implements StrongDigest {
+        private final MessageDigest messageDigest;
+
+        MessageDigestStrongDigest(MessageDigest messageDigest) {
+            this.messageDigest = messageDigest;
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            messageDigest.update(bytes, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            messageDigest.update(buffer);
+        }
+
+        @Override
+        public byte[] digest() {
+            return messageDigest.digest();
+        }
+    }
+
+    private static class HasherStrongDigest implements StrongDigest {
+        private static final int COPY_CHUNK_SIZE = 0x2000;
+
+        private final Hasher hasher;
+
+        HasherStrongDigest(Hasher hasher) {
+            this.hasher = hasher;
+        }
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            hasher.putBytes(bytes, offset, length);
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            if (buffer.hasArray()) {
+                hasher.putBytes(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+                return;
+            }
+            byte[] chunk = new byte[Math.min(COPY_CHUNK_SIZE, buffer.remaining())];
+            while (buffer.hasRemaining()) {
+                int length = Math.min(chunk.length, buffer.remaining());
+                buffer.get(chunk, 0, length);
+                hasher.putBytes(chunk, 0, length);
+            }
+        }
+
+        @Override
+        public byte[] digest() {
+            return hasher.hash().asBytes();
+        }
+    }
+
+    /**
+     * Whole leaves are hashed straight from the buffers they are fed in,
+     * before {@code update} returns, so buffers can be reused right after.
+     * Only a leaf split between two updates is copied.
+     */
+    private static class TreeStrongDigest implements StrongDigest {
+        static final int LEAF_SIZE = 0x40000;
+
+        private final List<byte[]> leafDigests = new ArrayList<>();
+        private ByteBuffer pendingLeaf;
+
+        @Override
+        public void update(byte[] bytes, int offset, int length) {
+            update(ByteBuffer.wrap(bytes, offset, length));
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            if (pendingLeaf != null && pendingLeaf.position() > 0) {
+                fillPendingLeaf(buffer);
+            }
+
+            List<ByteBuffer> leaves = new ArrayList<>();
+            while (buffer.remaining() >= LEAF_SIZE) {
+                ByteBuffer leaf = buffer.duplicate();
+                leaf.limit(leaf.position() + LEAF_SIZE);
+                leaves.add(leaf);
+                buffer.position(buffer.position() + LEAF_SIZE);
+            }
+            if (leaves.size() == 1) {
+                leafDigests.add(hashLeaf(leaves.get(0)));
+            } else if (leaves.size() > 1) {
+                leafDigests.addAll(leaves.parallelStream()
+                        .map(TreeStrongDigest::hashLeaf)
+                        .collect(Collectors.toList()));
+            }
+
+            fillPendingLeaf(buffer);
+        }
+
+        private void fillPendingLeaf(ByteBuffer buffer) {
+            if (!buffer.hasRemaining()) {
+                return;
+            }
+            if (pendingLeaf == null) {
+                pendingLeaf = ByteBuffer.allocate(LEAF_SIZE);
+            }
+            int length = Math.min(pendingLeaf.remaining(), buffer.remaining());
+            ByteBuffer part = buffer.duplicate();
+            part.limit(part.position() + length);
+            pendingLeaf.put(part);
+            buffer.position(buffer.position() + length);
+
+            if (!pendingLeaf.hasRemaining()) {
+                pendingLeaf.flip();
+                leafDigests.add(hashLeaf(pendingLeaf));
+                pendingLeaf.clear();
+            }
+        }
+
+        private static byte[] hashLeaf(ByteBuffer leaf) {
+            MessageDigest messageDigest = newSha256();
+            messageDigest.update(leaf);
+            return messageDigest.digest();
+        }
+
+        @Override
+        public byte[] digest() {
+            if (pendingLeaf != null && pendingLeaf.position() > 0) {
+                pendingLeaf.flip();
+                leafDigests.add(hashLeaf(pendingLeaf));
+                pendingLeaf.clear();
+            } else if (leafDigests.isEmpty()) {
+                leafDigests.add(hashLeaf(ByteBuffer.allocate(0)));
+            }
+            MessageDigest root = newSha256();
+            for (byte[] leafDigest : leafDigests) {
+                root.update(leafDigest);
+            }
+            leafDigests.clear();
+            return root.digest();
+        }
+    }
+}
@@ -18,7 +18,10 @@
  */
 package com.giorgosgaganis.odoxsync.files;
 
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * Created by gaganis on 21/01/17.
@@ -28,11 +31,48 @@ public class BatchArea {
     public final long offset;
     public final LinkedList<Long> currentBatchRegions;
     public final boolean isSkip;
+    public final FileTime lastModifiedTime;
+
+    /**
+     * The file ranges to read, in order. They are laid out back to back in
+     * the buffer handed to the processor. A contiguous batch has a single
+     * segment spanning the whole area.
+     */
+    public final List<Segment> segments;
 
     public BatchArea(long offset, long size, LinkedList<Long> currentBatchRegions, boolean isSkip) {
+        this(offset, size, currentBatchRegions, isSkip, null);
+    }
+
+    public BatchArea(long offset, long size, LinkedList<Long> currentBatchRegions, boolean isSkip, FileTime lastModifiedTime) {
         this.offset = offset;
         this.size = size;
         this.currentBatchRegions = currentBatchRegions;
         this.isSkip = isSkip;
+        this.lastModifiedTime = lastModifiedTime;
+        this.segments = Collections.singletonList(new Segment(offset, size));
+    }
+
+    public BatchArea(List<Segment> segments, LinkedList<Long> currentBatchRegions, boolean isSkip) {
+        this.offset = segments.isEmpty() ? 0 : segments.get(0).offset;
+        this.size = segments.stream().mapToLong(segment -> segment.size).sum();
+        this.currentBatchRegions = currentBatchRegions;
+        this.isSkip = isSkip;
+        this.lastModifiedTime = null;
+        this.segments = segments;
+    }
+
+    public boolean isContiguous() {
+        return segments.size() <= 1;
+    }
+
+    public static class Segment {
+        public final long offset;
+        public final long size;
+
+        public Segment(long offset, long size) {
+            this.offset = offset;
+            this.size = size;
+        }
     }
 }
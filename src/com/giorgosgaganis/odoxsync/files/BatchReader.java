@@ -16,17 +16,19 @@
  * You should have received a copy of the GNU General Public License
  * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
  */
-package com.giorgosgaganis.odoxsync.client;
+package com.giorgosgaganis.odoxsync.files;
 
-import com.giorgosgaganis.odoxsync.Region;
-import com.google.common.hash.Hasher;
-
-import java.nio.MappedByteBuffer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 
 /**
- * Created by gaganis on 18/01/17.
+ * Supplies the bytes of a {@link BatchArea} to the scanner. The returned
+ * buffer starts at the batch offset and must be given back through
+ * {@link #release(ByteBuffer)} once the processor is done with it.
  */
-@FunctionalInterface
-public interface RegionProcessor {
-    int processRegion(Region region, Hasher hasher, MappedByteBuffer mappedByteBuffer);
+interface BatchReader extends Closeable {
+    ByteBuffer read(BatchArea batchArea) throws IOException;
+
+    void release(ByteBuffer buffer);
 }
@@ -20,9 +20,15 @@ package com.giorgosgaganis.odoxsync.files;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
 import com.giorgosgaganis.odoxsync.File;
@@ -32,14 +38,26 @@ import com.giorgosgaganis.odoxsync.files.processing.FileProcessorFactory;
 import com.giorgosgaganis.odoxsync.files.processing.SlowFileProcessorFactory;
 import com.giorgosgaganis.odoxsync.files.processing.handlers.ConsolePrintingDigestHandler;
 import com.giorgosgaganis.odoxsync.server.ActivityStaler;
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
 import com.giorgosgaganis.odoxsync.utils.Statistics;
 
+import static com.giorgosgaganis.odoxsync.utils.Contants.MAPPED_SCAN;
+import static com.giorgosgaganis.odoxsync.utils.Contants.MAPPED_WINDOW_SIZE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.PARALLEL_SCAN;
+import static com.giorgosgaganis.odoxsync.utils.Contants.PARALLEL_SCAN_MIN_FILE_SIZE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.PARALLEL_SCAN_THREADS;
+import static com.giorgosgaganis.odoxsync.utils.Contants.SCAN_PIPELINE_DEPTH;
+
 /**
  * Created by gaganis on 21/01/17.
  */
 public class FileScanner {
     private static final Logger logger = Logger.getLogger(FileScanner.class.getName());
 
+    private static final ForkJoinPool parallelScanPool = PARALLEL_SCAN
+            ? new ForkJoinPool(PARALLEL_SCAN_THREADS)
+            : null;
+
     private final String workingDirectory;
     private final FileProcessorFactory fileProcessorFactory;
 
@@ -71,6 +89,26 @@ public class FileScanner {
         ) {
             fileProcessor.doBeforeFileRead(randomAccessFile);
 
+            if (isParallel(fileProcessor, randomAccessFile.length())) {
+                scanParallel(filePath, fileProcessor);
+            } else {
+                scanSequential(randomAccessFile.getChannel(), fileProcessor);
+            }
+        }
+    }
+
+    private boolean isParallel(FileProcessor fileProcessor, long fileSize) {
+        return parallelScanPool != null
+                && fileProcessor.isBatchOrderIndependent()
+                && fileSize >= PARALLEL_SCAN_MIN_FILE_SIZE;
+    }
+
+    private void scanSequential(FileChannel channel, FileProcessor fileProcessor) throws IOException {
+        if (SCAN_PIPELINE_DEPTH > 0) {
+            scanPipelined(channel, fileProcessor);
+            return;
+        }
+        try (BatchReader batchReader = createBatchReader(channel)) {
             while (fileProcessor.hasNextBatchArea()) {
                 BatchArea batchArea = fileProcessor.nextBatchArea();
 
@@ -80,16 +118,81 @@ public class FileScanner {
 
                 fileProcessor.doBeforeBatchByteRead();
 
-                byte[] buffer = new byte[(int) batchArea.size];
-                randomAccessFile.seek(batchArea.offset);
-                randomAccessFile.readFully(buffer);
-                fileProcessor.process(buffer, batchArea);
+                ByteBuffer buffer = batchReader.read(batchArea);
+                try {
+                    fileProcessor.process(buffer, batchArea);
+                } finally {
+                    batchReader.release(buffer);
+                }
+
+                activityStaler.waitToDoActivity();
+            }
+        }
+    }
+
+    /**
+     * Reads batches ahead on a separate thread while this thread hashes, so
+     * that the disk and the processor work at the same time.
+     */
+    private void scanPipelined(FileChannel channel, FileProcessor fileProcessor) throws IOException {
+        try (
+                BatchReader batchReader = createBatchReader(channel, true);
+                ReadAheadPipeline pipeline = new ReadAheadPipeline(fileProcessor, batchReader, SCAN_PIPELINE_DEPTH)
+        ) {
+            pipeline.start();
+
+            ReadAheadPipeline.ReadBatch readBatch;
+            while ((readBatch = pipeline.take()) != null) {
+                try {
+                    fileProcessor.process(readBatch.buffer, readBatch.batchArea);
+                } finally {
+                    pipeline.release(readBatch);
+                }
 
                 activityStaler.waitToDoActivity();
             }
         }
     }
 
+    /**
+     * Collects the batch areas that need reading and hashes contiguous runs
+     * of them on the parallel scan pool.
+     */
+    private void scanParallel(Path filePath, FileProcessor fileProcessor) throws IOException {
+        List<BatchArea> batchAreas = new ArrayList<>();
+        while (fileProcessor.hasNextBatchArea()) {
+            BatchArea batchArea = fileProcessor.nextBatchArea();
+            if (!batchArea.isSkip) {
+                fileProcessor.doBeforeBatchByteRead();
+                batchAreas.add(batchArea);
+            }
+        }
+        if (batchAreas.isEmpty()) {
+            return;
+        }
+
+        int leafSize = Math.max(1, batchAreas.size() / (parallelScanPool.getParallelism() * 2));
+        logger.fine("Scanning [" + filePath + "] in parallel, [" + batchAreas.size()
+                + "] batches in runs of [" + leafSize + "]");
+        try {
+            parallelScanPool.invoke(new ParallelBatchTask(
+                    filePath, fileProcessor, activityStaler, batchAreas, 0, batchAreas.size(), leafSize));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static BatchReader createBatchReader(FileChannel channel) {
+        return createBatchReader(channel, false);
+    }
+
+    static BatchReader createBatchReader(FileChannel channel, boolean prefetch) {
+        if (MAPPED_SCAN) {
+            return new MappedBatchReader(channel, MAPPED_WINDOW_SIZE, prefetch);
+        }
+        return new HeapBatchReader(channel, BufferPool.INSTANCE);
+    }
+
     public static void main(String[] args) throws IOException {
 
         long start = System.currentTimeMillis();
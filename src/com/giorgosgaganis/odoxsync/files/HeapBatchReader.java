@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.files;
+
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads every batch into a heap buffer borrowed from the {@link BufferPool}
+ * using positional reads on the channel.
+ *
+ * Batches made of several segments are read back to back into the same
+ * buffer. Segments separated by at most {@link #MAX_COALESCED_GAP} bytes are
+ * fetched with a single scattering read that drops the gaps.
+ */
+class HeapBatchReader implements BatchReader {
+    static final int MAX_COALESCED_GAP = 0x10000;
+
+    private final FileChannel channel;
+    private final BufferPool bufferPool;
+
+    private ByteBuffer gapBuffer;
+
+    HeapBatchReader(FileChannel channel, BufferPool bufferPool) {
+        this.channel = channel;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public ByteBuffer read(BatchArea batchArea) throws IOException {
+        ByteBuffer buffer;
+        try {
+            buffer = bufferPool.borrow(Math.toIntExact(batchArea.size));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a scan buffer");
+        }
+        try {
+            if (batchArea.isContiguous()) {
+                readFully(channel, buffer, batchArea.offset);
+            } else {
+                readSegments(buffer, batchArea.segments);
+            }
+        } catch (IOException | RuntimeException e) {
+            bufferPool.release(buffer);
+            throw e;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void release(ByteBuffer buffer) {
+        bufferPool.release(buffer);
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    private void readSegments(ByteBuffer buffer, List<BatchArea.Segment> segments) throws IOException {
+        int runStart = 0;
+        while (runStart < segments.size()) {
+            int runEnd = runStart + 1;
+            while (runEnd < segments.size() && isCoalescable(segments.get(runEnd - 1), segments.get(runEnd))) {
+                runEnd++;
+            }
+
+            List<BatchArea.Segment> run = segments.subList(runStart, runEnd);
+            if (run.size() == 1) {
+                BatchArea.Segment segment = run.get(0);
+                readFully(channel, slice(buffer, buffer.position(), segment.size), segment.offset);
+                buffer.position(buffer.position() + Math.toIntExact(segment.size));
+            } else {
+                readRun(buffer, run);
+            }
+            runStart = runEnd;
+        }
+    }
+
+    private void readRun(ByteBuffer buffer, List<BatchArea.Segment> run) throws IOException {
+        List<ByteBuffer> targets = new ArrayList<>(run.size() * 2);
+        long end = run.get(0).offset;
+        for (BatchArea.Segment segment : run) {
+            if (segment.offset > end) {
+                targets.add(slice(gapBuffer(), 0, segment.offset - end));
+            }
+            targets.add(slice(buffer, buffer.position(), segment.size));
+            buffer.position(buffer.position() + Math.toIntExact(segment.size));
+            end = segment.offset + segment.size;
+        }
+
+        ByteBuffer[] dsts = targets.toArray(new ByteBuffer[targets.size()]);
+        ByteBuffer last = dsts[dsts.length - 1];
+        channel.position(run.get(0).offset);
+        while (last.hasRemaining()) {
+            if (channel.read(dsts) < 0) {
+                throw new EOFException("Reached end of file at [" + channel.position() + "]");
+            }
+        }
+    }
+
+    private static boolean isCoalescable(BatchArea.Segment previous, BatchArea.Segment next) {
+        long gap = next.offset - (previous.offset + previous.size);
+        return gap >= 0 && gap <= MAX_COALESCED_GAP;
+    }
+
+    private ByteBuffer gapBuffer() {
+        if (gapBuffer == null) {
+            gapBuffer = ByteBuffer.allocate(MAX_COALESCED_GAP);
+        }
+        return gapBuffer;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int position, long size) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(position + Math.toIntExact(size));
+        slice.position(position);
+        return slice.slice();
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Reached end of file at [" + position + "]");
+            }
+            position += read;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.files;
+
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exposes batches as views over a memory mapped window of the file so that
+ * processors hash the page cache directly instead of a heap copy.
+ *
+ * The window slides forward as batches are requested. A window is unmapped
+ * as soon as it has been replaced and every view handed out from it has
+ * been released, instead of waiting for the garbage collector to do it.
+ *
+ * Batches of scattered segments, such as fast scan samples, are small and
+ * spread over the whole file, so they are read into heap buffers instead.
+ */
+class MappedBatchReader implements BatchReader {
+    private static final Logger logger = Logger.getLogger(MappedBatchReader.class.getName());
+
+    private static final Unmapper unmapper = new Unmapper();
+
+    private static final int PAGE_SIZE = 4096;
+
+    private final FileChannel channel;
+    private final long windowSize;
+    private final boolean prefetch;
+    private final HeapBatchReader scatteredReader;
+
+    private final Map<ByteBuffer, Window> leasedViews = new IdentityHashMap<>();
+    private Window current;
+
+    private volatile int prefetchSink;
+
+    MappedBatchReader(FileChannel channel, long windowSize) {
+        this(channel, windowSize, false);
+    }
+
+    /**
+     * @param prefetch touch every page of a batch before returning it, so
+     *                 that a read ahead thread takes the page faults instead
+     *                 of the thread that hashes the batch
+     */
+    MappedBatchReader(FileChannel channel, long windowSize, boolean prefetch) {
+        this.channel = channel;
+        this.windowSize = Math.min(windowSize, Integer.MAX_VALUE);
+        this.prefetch = prefetch;
+        this.scatteredReader = new HeapBatchReader(channel, BufferPool.INSTANCE);
+    }
+
+    @Override
+    public ByteBuffer read(BatchArea batchArea) throws IOException {
+        if (!batchArea.isContiguous()) {
+            return scatteredReader.read(batchArea);
+        }
+        ByteBuffer view = lease(batchArea);
+        if (prefetch) {
+            touchPages(view);
+        }
+        return view;
+    }
+
+    private void touchPages(ByteBuffer view) {
+        int sum = 0;
+        for (int i = 0; i < view.limit(); i += PAGE_SIZE) {
+            sum += view.get(i);
+        }
+        prefetchSink = sum;
+    }
+
+    private synchronized ByteBuffer lease(BatchArea batchArea) throws IOException {
+        long end = batchArea.offset + batchArea.size;
+        long fileSize = channel.size();
+        if (end > fileSize) {
+            throw new EOFException("Batch [" + batchArea.offset + ":" + end
+                    + "] is beyond end of file [" + fileSize + "]");
+        }
+
+        if (current == null || !current.contains(batchArea.offset, end)) {
+            retire(current);
+            long length = Math.min(Math.max(windowSize, batchArea.size), fileSize - batchArea.offset);
+            current = new Window(
+                    channel.map(FileChannel.MapMode.READ_ONLY, batchArea.offset, length),
+                    batchArea.offset);
+        }
+
+        ByteBuffer view = current.buffer.duplicate();
+        int start = (int) (batchArea.offset - current.start);
+        view.position(start);
+        view.limit(start + Math.toIntExact(batchArea.size));
+        view = view.slice();
+
+        current.users++;
+        leasedViews.put(view, current);
+        return view;
+    }
+
+    @Override
+    public synchronized void release(ByteBuffer buffer) {
+        Window window = leasedViews.remove(buffer);
+        if (window != null) {
+            window.users--;
+            unmapIfUnused(window);
+        } else {
+            scatteredReader.release(buffer);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        retire(current);
+        current = null;
+    }
+
+    private void retire(Window window) {
+        if (window != null) {
+            window.retired = true;
+            unmapIfUnused(window);
+        }
+    }
+
+    private void unmapIfUnused(Window window) {
+        if (window.retired && window.users == 0) {
+            unmapper.unmap(window.buffer);
+        }
+    }
+
+    private static class Window {
+        final MappedByteBuffer buffer;
+        final long start;
+        int users;
+        boolean retired;
+
+        Window(MappedByteBuffer buffer, long start) {
+            this.buffer = buffer;
+            this.start = start;
+        }
+
+        boolean contains(long from, long to) {
+            return from >= start && to <= start + buffer.capacity();
+        }
+    }
+
+    /**
+     * Releases a mapping eagerly. Uses {@code Unsafe.invokeCleaner} where it
+     * exists and the buffer cleaner on older runtimes. If neither is
+     * accessible the mapping is left to the garbage collector.
+     */
+    private static class Unmapper {
+        private Object unsafe;
+        private Method invokeCleaner;
+
+        Unmapper() {
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                unsafe = theUnsafe.get(null);
+            } catch (Exception e) {
+                invokeCleaner = null;
+            }
+        }
+
+        void unmap(MappedByteBuffer buffer) {
+            try {
+                if (invokeCleaner != null) {
+                    invokeCleaner.invoke(unsafe, buffer);
+                } else {
+                    Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                    cleanerMethod.setAccessible(true);
+                    Object cleaner = cleanerMethod.invoke(buffer);
+                    if (cleaner != null) {
+                        cleaner.getClass().getMethod("clean").invoke(cleaner);
+                    }
+                }
+            } catch (Exception e) {
+                logger.log(Level.FINE, "Unable to unmap buffer, leaving it to the garbage collector", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.files;
+
+import com.giorgosgaganis.odoxsync.files.processing.FileProcessor;
+import com.giorgosgaganis.odoxsync.server.ActivityStaler;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Processes a contiguous run of batch areas of one file. Runs longer than
+ * the leaf size are split in half, each leaf reads through its own channel
+ * so that workers do not contend on a shared file position.
+ */
+class ParallelBatchTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Path filePath;
+    private final FileProcessor fileProcessor;
+    private final ActivityStaler activityStaler;
+    private final List<BatchArea> batchAreas;
+    private final int from;
+    private final int to;
+    private final int leafSize;
+
+    ParallelBatchTask(Path filePath, FileProcessor fileProcessor, ActivityStaler activityStaler,
+                      List<BatchArea> batchAreas, int from, int to, int leafSize) {
+        this.filePath = filePath;
+        this.fileProcessor = fileProcessor;
+        this.activityStaler = activityStaler;
+        this.batchAreas = batchAreas;
+        this.from = from;
+        this.to = to;
+        this.leafSize = leafSize;
+    }
+
+    @Override
+    protected void compute() {
+        if (to - from <= leafSize) {
+            try {
+                processRun();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        } else {
+            int middle = (from + to) >>> 1;
+            invokeAll(
+                    new ParallelBatchTask(filePath, fileProcessor, activityStaler, batchAreas, from, middle, leafSize),
+                    new ParallelBatchTask(filePath, fileProcessor, activityStaler, batchAreas, middle, to, leafSize));
+        }
+    }
+
+    private void processRun() throws IOException {
+        try (
+                FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ);
+                BatchReader batchReader = FileScanner.createBatchReader(channel)
+        ) {
+            for (int i = from; i < to; i++) {
+                BatchArea batchArea = batchAreas.get(i);
+                ByteBuffer buffer = batchReader.read(batchArea);
+                try {
+                    fileProcessor.process(buffer, batchArea);
+                } finally {
+                    batchReader.release(buffer);
+                }
+
+                activityStaler.waitToDoActivity();
+            }
+        }
+    }
+}
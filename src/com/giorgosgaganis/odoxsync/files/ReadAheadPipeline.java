@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.files;
+
+import com.giorgosgaganis.odoxsync.files.processing.FileProcessor;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reader stage of a pipelined scan. A background thread walks the batch
+ * areas of a processor and reads them ahead into a bounded queue while the
+ * scanning thread hashes the batch it took last.
+ */
+class ReadAheadPipeline implements AutoCloseable {
+    private static final ExecutorService readAheadExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "odox-read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ReadBatch END = new ReadBatch(null, null, null);
+
+    private final FileProcessor fileProcessor;
+    private final BatchReader batchReader;
+    private final ArrayBlockingQueue<ReadBatch> readBatches;
+    private final CountDownLatch readerDone = new CountDownLatch(1);
+
+    private Future<?> reader;
+
+    ReadAheadPipeline(FileProcessor fileProcessor, BatchReader batchReader, int depth) {
+        this.fileProcessor = fileProcessor;
+        this.batchReader = batchReader;
+        this.readBatches = new ArrayBlockingQueue<>(depth);
+    }
+
+    void start() {
+        reader = readAheadExecutor.submit(this::readAhead);
+    }
+
+    /**
+     * Returns the next batch read ahead, or null when the processor has
+     * no more batch areas.
+     */
+    ReadBatch take() throws IOException {
+        ReadBatch readBatch;
+        try {
+            readBatch = readBatches.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for read ahead");
+        }
+        if (readBatch.failure != null) {
+            throw readBatch.failure;
+        }
+        return readBatch == END ? null : readBatch;
+    }
+
+    void release(ReadBatch readBatch) {
+        batchReader.release(readBatch.buffer);
+    }
+
+    /**
+     * Stops the reader if it is still running, waits for it to let go of the
+     * channel and returns any buffers left in the queue. The queue is drained
+     * while waiting so the reader is never left blocked on a full queue.
+     */
+    @Override
+    public void close() {
+        if (reader == null) {
+            return;
+        }
+        reader.cancel(true);
+        try {
+            while (!readerDone.await(10, TimeUnit.MILLISECONDS)) {
+                releaseQueued();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        releaseQueued();
+    }
+
+    private void releaseQueued() {
+        ReadBatch readBatch;
+        while ((readBatch = readBatches.poll()) != null) {
+            if (readBatch.buffer != null) {
+                release(readBatch);
+            }
+        }
+    }
+
+    private void readAhead() {
+        try {
+            readUntilEnd();
+        } finally {
+            readerDone.countDown();
+        }
+    }
+
+    private void readUntilEnd() {
+        ReadBatch last = END;
+        try {
+            while (fileProcessor.hasNextBatchArea()) {
+                BatchArea batchArea = fileProcessor.nextBatchArea();
+                if (batchArea.isSkip) {
+                    continue;
+                }
+                fileProcessor.doBeforeBatchByteRead();
+
+                ByteBuffer buffer = batchReader.read(batchArea);
+                try {
+                    readBatches.put(new ReadBatch(batchArea, buffer, null));
+                } catch (InterruptedException e) {
+                    batchReader.release(buffer);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            last = new ReadBatch(null, null, e);
+        } catch (Throwable e) {
+            // Errors too, or the scanning thread would wait for the end marker forever
+            last = new ReadBatch(null, null, new IOException(e));
+        }
+
+        try {
+            readBatches.put(last);
+        } catch (InterruptedException e) {
+            // Scan was abandoned, nobody is waiting for the end marker
+        }
+    }
+
+    static class ReadBatch {
+        final BatchArea batchArea;
+        final ByteBuffer buffer;
+        final IOException failure;
+
+        ReadBatch(BatchArea batchArea, ByteBuffer buffer, IOException failure) {
+            this.batchArea = batchArea;
+            this.buffer = buffer;
+            this.failure = failure;
+        }
+    }
+}
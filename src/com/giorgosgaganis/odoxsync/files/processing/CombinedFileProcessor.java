@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.files.processing;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.digest.FastDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.files.BatchArea;
+import com.giorgosgaganis.odoxsync.files.processing.handlers.FastDigestHandler;
+import com.giorgosgaganis.odoxsync.files.processing.handlers.SlowDigestHandler;
+
+import java.nio.ByteBuffer;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * Slow scans whole regions and takes the fast digest from the same bytes,
+ * so a file is opened and read once to produce both digests.
+ */
+public class CombinedFileProcessor extends SlowFileProcessor {
+
+    private final FastFileByteArrayHandler fastFileByteArrayHandler;
+
+    public CombinedFileProcessor(FastDigestHandler fastDigestHandler, SlowDigestHandler slowDigestHandler, File file) {
+        super(slowDigestHandler, file);
+        fastFileByteArrayHandler = new FastFileByteArrayHandler(fastDigestHandler);
+    }
+
+    @Override
+    protected void processRegion(ByteBuffer buffer, BatchArea batchArea, Region region) {
+        super.processRegion(buffer, batchArea, region);
+
+        long sampleSize = FastDigestAlgorithm.get().sampleSize(region.getSize());
+        int sampleStart = Math.toIntExact(region.getOffset() + region.getSize() - sampleSize - batchArea.offset);
+
+        ByteBuffer sample = buffer.duplicate();
+        sample.limit(sampleStart + (int) sampleSize);
+        sample.position(sampleStart);
+
+        fastFileByteArrayHandler.handleBytes(sample.slice(), getFile(), region, batchArea.lastModifiedTime);
+    }
+
+    /**
+     * A region can only be skipped when neither of its digests is stale.
+     */
+    @Override
+    protected boolean isUpToDate(Region region, FileTime batchLastModifiedTime) {
+        FileTime regionFastModifiedTime = region.getFastModifiedTime();
+        return super.isUpToDate(region, batchLastModifiedTime)
+                && regionFastModifiedTime != null
+                && regionFastModifiedTime.compareTo(batchLastModifiedTime) >= 0;
+    }
+}
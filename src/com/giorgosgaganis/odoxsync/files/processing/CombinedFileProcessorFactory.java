@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.files.processing;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.files.processing.handlers.FastDigestHandler;
+import com.giorgosgaganis.odoxsync.files.processing.handlers.SlowDigestHandler;
+
+public class CombinedFileProcessorFactory implements FileProcessorFactory {
+    private final FastDigestHandler fastDigestHandler;
+    private final SlowDigestHandler slowDigestHandler;
+
+    public CombinedFileProcessorFactory(FastDigestHandler fastDigestHandler, SlowDigestHandler slowDigestHandler) {
+        this.fastDigestHandler = fastDigestHandler;
+        this.slowDigestHandler = slowDigestHandler;
+    }
+
+    @Override
+    public FileProcessor create(File file) {
+        return new CombinedFileProcessor(fastDigestHandler, slowDigestHandler, file);
+    }
+}
@@ -20,9 +20,11 @@ package com.giorgosgaganis.odoxsync.files.processing;
 
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.digest.FastDigestAlgorithm;
 import com.giorgosgaganis.odoxsync.files.processing.handlers.FastDigestHandler;
 import com.giorgosgaganis.odoxsync.utils.Statistics;
 
+import java.nio.ByteBuffer;
 import java.nio.file.attribute.FileTime;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -41,7 +43,7 @@ public class FastFileByteArrayHandler {
         this.fastDigestHandler = fastDigestHandler;
     }
 
-    public void handleBytes(byte[] buffer, File file, Region currentRegion, FileTime fileLastModifiedTime) {
+    public void handleBytes(ByteBuffer buffer, File file, Region currentRegion, FileTime fileLastModifiedTime) {
 
         Integer fastDigest = calculateFastDigest(currentRegion.getOffset(), currentRegion.getSize(), file.getName(), buffer);
         fastDigestHandler.handleFastDigest(buffer, file, currentRegion, fastDigest, fileLastModifiedTime);
@@ -49,14 +51,8 @@ public class FastFileByteArrayHandler {
     }
 
 
-    private static Integer calculateFastDigest(long offset, long size, String fileName, byte[] buffer) {
-        Integer quickDigest = null;
-        int sum = 0;
-        for (int i = 0; i < buffer.length; i++) {
-            byte b = buffer[i];
-            sum += b;
-        }
-        quickDigest = sum;
+    private static Integer calculateFastDigest(long offset, long size, String fileName, ByteBuffer buffer) {
+        Integer quickDigest = FastDigestAlgorithm.get().digest(buffer);
 
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("Calculated fast digest[" + quickDigest
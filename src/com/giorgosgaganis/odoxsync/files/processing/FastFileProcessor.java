@@ -20,14 +20,19 @@ package com.giorgosgaganis.odoxsync.files.processing;
 
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.digest.FastDigestAlgorithm;
 import com.giorgosgaganis.odoxsync.files.BatchArea;
 import com.giorgosgaganis.odoxsync.files.processing.handlers.FastDigestHandler;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -40,6 +45,18 @@ public class FastFileProcessor implements FileProcessor {
 
     public static final int SAMPLE_SIZE = 0x1000;
 
+    /**
+     * Samples gathered into one batch so that they are read together
+     * into a single buffer.
+     */
+    public static final int BATCH_SAMPLES = 64;
+
+    /**
+     * Bound on the bytes of a batch, for algorithms that digest whole
+     * regions instead of samples.
+     */
+    public static final long BATCH_BYTES = 0x2000000;
+
     private final File file;
     private final ConcurrentHashMap<Long, Region> regions;
 
@@ -64,11 +81,30 @@ public class FastFileProcessor implements FileProcessor {
     }
 
     @Override
-    public void process(byte[] buffer, BatchArea batchArea) {
-
-        Region currentRegion = regions.get(batchArea.currentBatchRegions.remove());
+    public void process(ByteBuffer buffer, BatchArea batchArea) {
+        Iterator<BatchArea.Segment> segments = batchArea.segments.iterator();
+        int position = 0;
+        for (Long regionOffset : batchArea.currentBatchRegions) {
+            Region currentRegion = regions.get(regionOffset);
+            BatchArea.Segment segment = segments.next();
+            int sampleSize = Math.toIntExact(segment.size);
+
+            // The regions may have been recalculated after the batch was read
+            if (isSampleOf(segment, currentRegion)) {
+                ByteBuffer sample = buffer.duplicate();
+                sample.limit(position + sampleSize);
+                sample.position(position);
+                fileByteArrayHandler.handleBytes(sample.slice(), file, currentRegion, fileLastModifiedTime);
+            }
+
+            position += sampleSize;
+        }
+    }
 
-        fileByteArrayHandler.handleBytes(buffer, file, currentRegion, fileLastModifiedTime);
+    private static boolean isSampleOf(BatchArea.Segment segment, Region region) {
+        return region != null
+                && segment.size == FastDigestAlgorithm.get().sampleSize(region.getSize())
+                && segment.offset == region.getOffset() + region.getSize() - segment.size;
     }
 
     @Override
@@ -79,11 +115,25 @@ public class FastFileProcessor implements FileProcessor {
     @Override
     public BatchArea nextBatchArea() {
         LinkedList<Long> currentBatchRegions = new LinkedList<>();
-
-        Long regionOffset = regionsToProcess.remove();
-        Region region = regions.get(regionOffset);
-
-        return getSample(currentBatchRegions, regionOffset, region);
+        List<BatchArea.Segment> segments = new ArrayList<>(BATCH_SAMPLES);
+        long batchBytes = 0;
+
+        while (segments.size() < BATCH_SAMPLES && batchBytes < BATCH_BYTES && !regionsToProcess.isEmpty()) {
+            Long regionOffset = regionsToProcess.remove();
+            Region region = regions.get(regionOffset);
+            if (region == null) {
+                // The regions were recalculated since this processor was created
+                continue;
+            }
+
+            BatchArea sample = getSample(new LinkedList<>(), regionOffset, region);
+            if (!sample.isSkip) {
+                currentBatchRegions.add(regionOffset);
+                segments.add(new BatchArea.Segment(sample.offset, sample.size));
+                batchBytes += sample.size;
+            }
+        }
+        return new BatchArea(segments, currentBatchRegions, segments.isEmpty());
     }
 
     @Override
@@ -96,7 +146,7 @@ public class FastFileProcessor implements FileProcessor {
     }
 
     public BatchArea getSample(LinkedList<Long> currentBatchRegions, Long regionOffset, Region region) {
-        long sampleSize = region.getSize() <= SAMPLE_SIZE ? region.getSize() : SAMPLE_SIZE;
+        long sampleSize = FastDigestAlgorithm.get().sampleSize(region.getSize());
         long offset = regionOffset + region.getSize() - sampleSize;
 
         currentBatchRegions.add(regionOffset);
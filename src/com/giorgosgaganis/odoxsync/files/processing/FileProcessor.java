@@ -23,6 +23,7 @@ import com.giorgosgaganis.odoxsync.files.BatchArea;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 
 /**
  * Created by gaganis on 23/01/17.
@@ -30,7 +31,24 @@ import java.io.RandomAccessFile;
 public interface FileProcessor {
     File getFile();
 
-    void process(byte[] buffer, BatchArea batchArea);
+    /**
+     * Processes the bytes of a batch. Index 0 of the buffer corresponds to
+     * the batch offset. The buffer may be a view over a mapped file and
+     * must not be retained after this method returns.
+     */
+    void process(ByteBuffer buffer, BatchArea batchArea);
+
+    default void process(byte[] buffer, BatchArea batchArea) {
+        process(ByteBuffer.wrap(buffer), batchArea);
+    }
+
+    /**
+     * Whether {@link #process} may be called concurrently and in any order
+     * for the batch areas this processor has handed out.
+     */
+    default boolean isBatchOrderIndependent() {
+        return false;
+    }
 
     boolean hasNextBatchArea();
 
@@ -20,11 +20,11 @@ package com.giorgosgaganis.odoxsync.files.processing;
 
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.digest.StrongDigestAlgorithm;
 import com.giorgosgaganis.odoxsync.files.processing.handlers.SlowDigestHandler;
 import com.giorgosgaganis.odoxsync.utils.Statistics;
-import com.google.common.hash.Hasher;
-import com.google.common.hash.Hashing;
 
+import java.nio.ByteBuffer;
 import java.nio.file.attribute.FileTime;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,20 +43,21 @@ public class SlowFileByteArrayHandler {
         this.slowDigestHandler = slowDigestHandler;
     }
 
-    public void handleBytes(byte[] buffer, File file, long batchAreaOffset, Region currentRegion, FileTime batchLastModifiedTime) {
+    public void handleBytes(ByteBuffer buffer, File file, long batchAreaOffset, Region currentRegion, FileTime batchLastModifiedTime) {
 
         byte[] slowDigest = calculateSlowDigest(batchAreaOffset, currentRegion.getOffset(), currentRegion.getSize(), file.getName(), buffer);
         slowDigestHandler.handleSlowDigest(file, currentRegion, batchLastModifiedTime, slowDigest);
         statistics.bytesReadSlow.addAndGet(currentRegion.getSize());
     }
 
-    private static byte[] calculateSlowDigest(long batchAreaOffset, long offset, long size, String fileName, byte[] buffer) {
+    private static byte[] calculateSlowDigest(long batchAreaOffset, long offset, long size, String fileName, ByteBuffer buffer) {
         byte[] slowDigest;
-        Hasher hasher = Hashing.sha256().newHasher();
-        hasher.putBytes(buffer,
-                Math.toIntExact(offset - batchAreaOffset),
-                Math.toIntExact(size));
-        slowDigest = hasher.hash().asBytes();
+        int start = Math.toIntExact(offset - batchAreaOffset);
+        ByteBuffer regionBuffer = buffer.duplicate();
+        regionBuffer.limit(start + Math.toIntExact(size));
+        regionBuffer.position(start);
+
+        slowDigest = StrongDigestAlgorithm.get().digest(regionBuffer);
 
         if (logger.isLoggable(Level.FINER)) {
             logger.finer("Calculated slow digest[" + slowDigest + "] for file ["
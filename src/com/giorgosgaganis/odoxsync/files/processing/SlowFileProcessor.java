@@ -22,16 +22,21 @@ import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
 import com.giorgosgaganis.odoxsync.files.BatchArea;
 import com.giorgosgaganis.odoxsync.files.processing.handlers.SlowDigestHandler;
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import static com.giorgosgaganis.odoxsync.utils.Contants.MAPPED_SCAN;
+
 /**
  * Created by gaganis on 20/01/17.
  */
@@ -40,15 +45,19 @@ public class SlowFileProcessor implements FileProcessor {
 
     public static final int BATCH_SIZE = 32;
 
+    /**
+     * Bound on the bytes of a batch, so that files with large regions are
+     * not read in batches that overflow a buffer or a single mapping. A
+     * region larger than this is still read as a batch of its own.
+     */
+    public static final long BATCH_BYTES = 0x4000000;
+
     private final File file;
     private final ConcurrentHashMap<Long, Region> regions;
 
     private final LinkedList<Long> regionsToProcess;
 
-    private final LinkedList<Long> currentBatchRegions = new LinkedList<>();
-
     private final SlowFileByteArrayHandler fileByteArrayHandler;
-    private FileTime batchLastModifiedTime;
 
     public SlowFileProcessor(SlowDigestHandler slowDigestHandler, File file) {
         this.file = file;
@@ -67,16 +76,37 @@ public class SlowFileProcessor implements FileProcessor {
     }
 
     @Override
-    public void process(byte[] buffer, BatchArea batchArea) {
+    public void process(ByteBuffer buffer, BatchArea batchArea) {
 
-        for (Long currentBatchRegionOffset : currentBatchRegions) {
+        Iterator<Long> offsets = batchArea.currentBatchRegions.iterator();
+        Long currentBatchRegionOffset = offsets.hasNext() ? offsets.next() : null;
+        while (currentBatchRegionOffset != null) {
+            Long nextOffset = offsets.hasNext() ? offsets.next() : null;
+            long readSize = (nextOffset != null ? nextOffset : batchArea.offset + batchArea.size)
+                    - currentBatchRegionOffset;
 
             Region currentRegion = regions.get(currentBatchRegionOffset);
-
-            fileByteArrayHandler.handleBytes(buffer, file, batchArea.offset, currentRegion, batchLastModifiedTime);
+            // The regions may have been recalculated after the batch was read
+            if (currentRegion != null && currentRegion.getSize() == readSize) {
+                processRegion(buffer, batchArea, currentRegion);
+            }
+            currentBatchRegionOffset = nextOffset;
         }
     }
 
+    protected void processRegion(ByteBuffer buffer, BatchArea batchArea, Region region) {
+        fileByteArrayHandler.handleBytes(buffer, file, batchArea.offset, region, batchArea.lastModifiedTime);
+    }
+
+    /**
+     * Every batch carries its own regions and modification time so batches
+     * can be processed concurrently and out of order.
+     */
+    @Override
+    public boolean isBatchOrderIndependent() {
+        return true;
+    }
+
     @Override
     public boolean hasNextBatchArea() {
         return !regionsToProcess.isEmpty();
@@ -84,29 +114,47 @@ public class SlowFileProcessor implements FileProcessor {
 
     @Override
     public BatchArea nextBatchArea() throws IOException {
-        currentBatchRegions.clear();
-        batchLastModifiedTime = Files.getLastModifiedTime(file.getAbsolutePath());
+        LinkedList<Long> currentBatchRegions = new LinkedList<>();
+        FileTime batchLastModifiedTime = Files.getLastModifiedTime(file.getAbsolutePath());
 
         Long firstRegionOffset = regionsToProcess.remove();
-        long size = regions.get(firstRegionOffset).getSize();
+        Region firstRegion = regions.get(firstRegionOffset);
+        if (firstRegion == null) {
+            // The regions were recalculated since this processor was created
+            return new BatchArea(firstRegionOffset, 0, currentBatchRegions, true, batchLastModifiedTime);
+        }
+        long size = firstRegion.getSize();
         currentBatchRegions.add(firstRegionOffset);
 
-        boolean isSkip = true;
+        // Shrink the batch rather than block when other scans hold most of the buffer budget.
+        // Mapped batches are views of the file and do not borrow from the pool.
+        long batchLimit = Math.min(BATCH_BYTES,
+                MAPPED_SCAN ? Long.MAX_VALUE : BufferPool.INSTANCE.getAvailableBytes());
+
+        boolean isSkip = isUpToDate(firstRegion, batchLastModifiedTime);
         for (int i = 1; i < BATCH_SIZE && !regionsToProcess.isEmpty(); i++) {
+            Region region = regions.get(regionsToProcess.peek());
+            if (region == null
+                    || region.getOffset() != firstRegionOffset + size
+                    || size + region.getSize() > batchLimit) {
+                break;
+            }
             Long regionOffset = regionsToProcess.remove();
-            Region region = regions.get(regionOffset);
             size += region.getSize();
 
-
-            FileTime regionSlowModifiedTime = region
-                    .getSlowModifiedTime();
-            if(regionSlowModifiedTime == null
-                    || regionSlowModifiedTime.compareTo(batchLastModifiedTime) == -1) {
+            if (!isUpToDate(region, batchLastModifiedTime)) {
                 isSkip = false;
             }
             currentBatchRegions.add(regionOffset);
         }
-        return new BatchArea(firstRegionOffset, size, currentBatchRegions, isSkip);
+        return new BatchArea(firstRegionOffset, size, currentBatchRegions, isSkip, batchLastModifiedTime);
+    }
+
+    protected boolean isUpToDate(Region region, FileTime batchLastModifiedTime) {
+        FileTime regionSlowModifiedTime = region
+                .getSlowModifiedTime();
+        return regionSlowModifiedTime != null
+                && regionSlowModifiedTime.compareTo(batchLastModifiedTime) >= 0;
     }
 
     @Override
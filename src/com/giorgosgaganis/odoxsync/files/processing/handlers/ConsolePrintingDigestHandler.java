@@ -21,6 +21,7 @@ package com.giorgosgaganis.odoxsync.files.processing.handlers;
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
 
+import java.nio.ByteBuffer;
 import java.nio.file.attribute.FileTime;
 import java.util.Base64;
 
@@ -29,7 +30,7 @@ import java.util.Base64;
  */
 public class ConsolePrintingDigestHandler implements FastDigestHandler, SlowDigestHandler {
     @Override
-    public void handleFastDigest(byte[] buffer, File file, Region currentRegion, Integer fastDigest, FileTime fileLastModifiedTime) {
+    public void handleFastDigest(ByteBuffer buffer, File file, Region currentRegion, Integer fastDigest, FileTime fileLastModifiedTime) {
         System.out.print("currentOffset = " + currentRegion.getOffset());
         System.out.println(", fastDigest = " + fastDigest);
     }
@@ -21,11 +21,12 @@ package com.giorgosgaganis.odoxsync.files.processing.handlers;
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
 
+import java.nio.ByteBuffer;
 import java.nio.file.attribute.FileTime;
 
 /**
  * Created by gaganis on 23/01/17.
  */
 public interface FastDigestHandler {
-    void handleFastDigest(byte[] buffer, File file, Region currentRegion, Integer fastDigest, FileTime fileLastModifiedTime);
+    void handleFastDigest(ByteBuffer buffer, File file, Region currentRegion, Integer fastDigest, FileTime fileLastModifiedTime);
 }
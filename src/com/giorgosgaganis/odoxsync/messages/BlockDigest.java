@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+/**
+ * Weak and strong digest of one server region, sent to clients so that they
+ * can find the region in their copy of the file at any offset.
+ */
+public class BlockDigest {
+    private long offset;
+    private long size;
+
+    private int weakDigest;
+    private byte[] strongDigest;
+
+    public BlockDigest() {}
+
+    public BlockDigest(long offset, long size, int weakDigest, byte[] strongDigest) {
+        this.offset = offset;
+        this.size = size;
+        this.weakDigest = weakDigest;
+        this.strongDigest = strongDigest;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public int getWeakDigest() {
+        return weakDigest;
+    }
+
+    public void setWeakDigest(int weakDigest) {
+        this.weakDigest = weakDigest;
+    }
+
+    public byte[] getStrongDigest() {
+        return strongDigest;
+    }
+
+    public void setStrongDigest(byte[] strongDigest) {
+        this.strongDigest = strongDigest;
+    }
+}
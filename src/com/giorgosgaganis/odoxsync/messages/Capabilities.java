@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+import java.util.List;
+
+/**
+ * What a client supports, sent when it introduces itself so that the server
+ * can pick settings both sides understand.
+ */
+public class Capabilities {
+    /**
+     * Version of the protocol this build speaks. Clients that introduce
+     * themselves without capabilities are taken to speak version 0.
+     */
+    public static final int PROTOCOL_VERSION = 5;
+
+    /**
+     * First version in which clients understand instructions to copy a
+     * region from their own files.
+     */
+    public static final int COPY_LOCAL_VERSION = 2;
+
+    /**
+     * First version in which digest batches can be sent in the
+     * {@link DigestBatchFormat} instead of JSON.
+     */
+    public static final int BINARY_DIGESTS_VERSION = 3;
+
+    /**
+     * First version in which clients can request several regions in one
+     * response of the {@link RegionFrameFormat}.
+     */
+    public static final int BATCHED_REGIONS_VERSION = 4;
+
+    /**
+     * First version in which clients can keep a stream open that the
+     * server pushes regions to as soon as they are queued.
+     */
+    public static final int STREAMED_REGIONS_VERSION = 5;
+
+    /**
+     * Region data sent as is.
+     */
+    public static final String IDENTITY_CODEC = "identity";
+
+    private int protocolVersion;
+    private List<String> fastDigests;
+    private List<String> strongDigests;
+    private List<String> codecs;
+    private int maxDigestBatchSize;
+    private int maxMerkleNodes;
+
+    public Capabilities() {}
+
+    public Capabilities(int protocolVersion, List<String> fastDigests, List<String> strongDigests,
+                        List<String> codecs, int maxDigestBatchSize, int maxMerkleNodes) {
+        this.protocolVersion = protocolVersion;
+        this.fastDigests = fastDigests;
+        this.strongDigests = strongDigests;
+        this.codecs = codecs;
+        this.maxDigestBatchSize = maxDigestBatchSize;
+        this.maxMerkleNodes = maxMerkleNodes;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    public List<String> getFastDigests() {
+        return fastDigests;
+    }
+
+    public void setFastDigests(List<String> fastDigests) {
+        this.fastDigests = fastDigests;
+    }
+
+    public List<String> getStrongDigests() {
+        return strongDigests;
+    }
+
+    public void setStrongDigests(List<String> strongDigests) {
+        this.strongDigests = strongDigests;
+    }
+
+    /**
+     * Encodings of region data the client can decode, in order of
+     * preference.
+     */
+    public List<String> getCodecs() {
+        return codecs;
+    }
+
+    public void setCodecs(List<String> codecs) {
+        this.codecs = codecs;
+    }
+
+    public int getMaxDigestBatchSize() {
+        return maxDigestBatchSize;
+    }
+
+    public void setMaxDigestBatchSize(int maxDigestBatchSize) {
+        this.maxDigestBatchSize = maxDigestBatchSize;
+    }
+
+    public int getMaxMerkleNodes() {
+        return maxMerkleNodes;
+    }
+
+    public void setMaxMerkleNodes(int maxMerkleNodes) {
+        this.maxMerkleNodes = maxMerkleNodes;
+    }
+}
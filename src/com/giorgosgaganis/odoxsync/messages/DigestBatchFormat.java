@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+import javax.ws.rs.core.MediaType;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * Binary encoding of batches of fast and slow digests, smaller and cheaper
+ * to parse than their JSON lists.
+ *
+ * A batch starts with its kind and the number of groups. Consecutive
+ * messages for the same client and file form a group, which holds the
+ * client and file ids once and then its messages. The offset of each
+ * message is written as a zigzag varint of its difference from the
+ * previous offset of the group and its digest as raw bytes.
+ */
+public final class DigestBatchFormat {
+    public static final String DIGEST_BATCH = "application/x-odoxsync-digests";
+    public static final MediaType DIGEST_BATCH_TYPE = new MediaType("application", "x-odoxsync-digests");
+
+    private static final int FAST = 'F';
+    private static final int SLOW = 'S';
+
+    private static final int MAX_DIGEST_LENGTH = 1024;
+
+    private DigestBatchFormat() {
+    }
+
+    public static void writeFastDigests(List<ClientFastDigestMessage> messages, OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeByte(FAST);
+        writeGroups(output, messages,
+                ClientFastDigestMessage::getClientId,
+                ClientFastDigestMessage::getFileId,
+                ClientFastDigestMessage::getOffset,
+                (message) -> output.writeInt(message.getFastDigest()));
+        output.flush();
+    }
+
+    public static void writeSlowDigests(List<ClientSlowDigestMessage> messages, OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(outputStream);
+        output.writeByte(SLOW);
+        writeGroups(output, messages,
+                ClientSlowDigestMessage::getClientId,
+                ClientSlowDigestMessage::getFileId,
+                ClientSlowDigestMessage::getOffset,
+                (message) -> {
+                    byte[] slowDigest = message.getSlowDigest();
+                    writeVarint(output, slowDigest.length);
+                    output.write(slowDigest);
+                });
+        output.flush();
+    }
+
+    public static List<ClientFastDigestMessage> readFastDigests(InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        readKind(input, FAST);
+        return readGroups(input, (clientId, fileId, offset) ->
+                new ClientFastDigestMessage(clientId, fileId, offset, input.readInt()));
+    }
+
+    public static List<ClientSlowDigestMessage> readSlowDigests(InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(inputStream);
+        readKind(input, SLOW);
+        return readGroups(input, (clientId, fileId, offset) -> {
+            byte[] slowDigest = new byte[readLength(input, MAX_DIGEST_LENGTH)];
+            input.readFully(slowDigest);
+            return new ClientSlowDigestMessage(clientId, fileId, offset, slowDigest);
+        });
+    }
+
+    private static <T> void writeGroups(DataOutputStream output, List<T> messages,
+                                        ToIntFunction<T> clientId, ToIntFunction<T> fileId,
+                                        ToLongFunction<T> offset, DigestWriter<T> digestWriter) throws IOException {
+        List<Integer> groupStarts = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            if (i == 0
+                    || clientId.applyAsInt(messages.get(i)) != clientId.applyAsInt(messages.get(i - 1))
+                    || fileId.applyAsInt(messages.get(i)) != fileId.applyAsInt(messages.get(i - 1))) {
+                groupStarts.add(i);
+            }
+        }
+        groupStarts.add(messages.size());
+
+        writeVarint(output, groupStarts.size() - 1);
+        for (int group = 0; group < groupStarts.size() - 1; group++) {
+            int start = groupStarts.get(group);
+            int end = groupStarts.get(group + 1);
+
+            output.writeInt(clientId.applyAsInt(messages.get(start)));
+            output.writeInt(fileId.applyAsInt(messages.get(start)));
+            writeVarint(output, end - start);
+
+            long previousOffset = 0;
+            for (T message : messages.subList(start, end)) {
+                long messageOffset = offset.applyAsLong(message);
+                writeVarint(output, zigzag(messageOffset - previousOffset));
+                previousOffset = messageOffset;
+                digestWriter.write(message);
+            }
+        }
+    }
+
+    private static <T> List<T> readGroups(DataInputStream input, DigestReader<T> digestReader) throws IOException {
+        int groupCount = readLength(input, Integer.MAX_VALUE);
+        List<T> messages = new ArrayList<>();
+        for (int group = 0; group < groupCount; group++) {
+            int clientId = input.readInt();
+            int fileId = input.readInt();
+            int count = readLength(input, Integer.MAX_VALUE);
+
+            long offset = 0;
+            for (int i = 0; i < count; i++) {
+                offset += unzigzag(readVarint(input));
+                messages.add(digestReader.read(clientId, fileId, offset));
+            }
+        }
+        return messages;
+    }
+
+    private static void readKind(DataInputStream input, int expected) throws IOException {
+        int kind = input.readUnsignedByte();
+        if (kind != expected) {
+            throw new IOException("Unexpected digest batch kind [" + kind + "]");
+        }
+    }
+
+    private static int readLength(DataInputStream input, int max) throws IOException {
+        long length = readVarint(input);
+        if (length < 0 || length > max) {
+            throw new IOException("Invalid length [" + length + "] in digest batch");
+        }
+        return (int) length;
+    }
+
+    static void writeVarint(DataOutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    static long readVarint(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint in digest batch");
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private interface DigestWriter<T> {
+        void write(T message) throws IOException;
+    }
+
+    private interface DigestReader<T> {
+        T read(int clientId, int fileId, long offset) throws IOException;
+    }
+}
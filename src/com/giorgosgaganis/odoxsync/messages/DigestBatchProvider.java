@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Provider;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.List;
+
+/**
+ * Reads and writes lists of fast or slow digest messages in the
+ * {@link DigestBatchFormat}. Registered on both the client and the server.
+ */
+@Provider
+@Consumes(DigestBatchFormat.DIGEST_BATCH)
+@Produces(DigestBatchFormat.DIGEST_BATCH)
+public class DigestBatchProvider implements MessageBodyReader<List<?>>, MessageBodyWriter<List<?>> {
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return isDigestBatch(type, genericType, mediaType);
+    }
+
+    @Override
+    public List<?> readFrom(Class<List<?>> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                            MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        return messageType(genericType) == ClientFastDigestMessage.class
+                ? DigestBatchFormat.readFastDigests(entityStream)
+                : DigestBatchFormat.readSlowDigests(entityStream);
+    }
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return isDigestBatch(type, genericType, mediaType);
+    }
+
+    @Override
+    public long getSize(List<?> messages, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void writeTo(List<?> messages, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType,
+                        MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        OutputStream output = new BufferedOutputStream(entityStream);
+        if (messageType(genericType) == ClientFastDigestMessage.class) {
+            DigestBatchFormat.writeFastDigests((List<ClientFastDigestMessage>) messages, output);
+        } else {
+            DigestBatchFormat.writeSlowDigests((List<ClientSlowDigestMessage>) messages, output);
+        }
+    }
+
+    private static boolean isDigestBatch(Class<?> type, Type genericType, MediaType mediaType) {
+        return List.class.isAssignableFrom(type)
+                && messageType(genericType) != null
+                && DigestBatchFormat.DIGEST_BATCH_TYPE.isCompatible(mediaType);
+    }
+
+    private static Type messageType(Type genericType) {
+        if (!(genericType instanceof ParameterizedType)) {
+            return null;
+        }
+        Type[] arguments = ((ParameterizedType) genericType).getActualTypeArguments();
+        if (arguments.length == 1
+                && (arguments[0] == ClientFastDigestMessage.class || arguments[0] == ClientSlowDigestMessage.class)) {
+            return arguments[0];
+        }
+        return null;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+import java.util.Map;
+
+/**
+ * The hashes of a server directory, of the files directly in it and of each
+ * of its subdirectories by path, so that a client only lists the parts that
+ * changed since it last looked.
+ */
+public class DirectoryListing {
+    private String path;
+    private long hash;
+    private long filesHash;
+    private Map<String, Long> subdirectories;
+
+    public DirectoryListing() {}
+
+    public DirectoryListing(String path, long hash, long filesHash, Map<String, Long> subdirectories) {
+        this.path = path;
+        this.hash = hash;
+        this.filesHash = filesHash;
+        this.subdirectories = subdirectories;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public void setPath(String path) {
+        this.path = path;
+    }
+
+    public long getHash() {
+        return hash;
+    }
+
+    public void setHash(long hash) {
+        this.hash = hash;
+    }
+
+    public long getFilesHash() {
+        return filesHash;
+    }
+
+    public void setFilesHash(long filesHash) {
+        this.filesHash = filesHash;
+    }
+
+    public Map<String, Long> getSubdirectories() {
+        return subdirectories;
+    }
+
+    public void setSubdirectories(Map<String, Long> subdirectories) {
+        this.subdirectories = subdirectories;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+import java.util.List;
+
+public class MerkleMessage {
+    private int clientId;
+    private int fileId;
+
+    private byte[] layoutHash;
+    private List<MerkleNode> nodes;
+
+    public MerkleMessage() {}
+
+    public MerkleMessage(int clientId, int fileId, byte[] layoutHash, List<MerkleNode> nodes) {
+        this.clientId = clientId;
+        this.fileId = fileId;
+        this.layoutHash = layoutHash;
+        this.nodes = nodes;
+    }
+
+    public int getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(int clientId) {
+        this.clientId = clientId;
+    }
+
+    public int getFileId() {
+        return fileId;
+    }
+
+    public void setFileId(int fileId) {
+        this.fileId = fileId;
+    }
+
+    public byte[] getLayoutHash() {
+        return layoutHash;
+    }
+
+    public void setLayoutHash(byte[] layoutHash) {
+        this.layoutHash = layoutHash;
+    }
+
+    public List<MerkleNode> getNodes() {
+        return nodes;
+    }
+
+    public void setNodes(List<MerkleNode> nodes) {
+        this.nodes = nodes;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+/**
+ * A node of a {@link com.giorgosgaganis.odoxsync.digest.MerkleTree}. Nodes
+ * requested by the server carry only their position. Leaves sent by the
+ * client also carry the fast digest of their region.
+ */
+public class MerkleNode {
+    private int level;
+    private int index;
+
+    private byte[] hash;
+    private Integer fastDigest;
+
+    public MerkleNode() {}
+
+    public MerkleNode(int level, int index) {
+        this.level = level;
+        this.index = index;
+    }
+
+    public MerkleNode(int level, int index, byte[] hash, Integer fastDigest) {
+        this.level = level;
+        this.index = index;
+        this.hash = hash;
+        this.fastDigest = fastDigest;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public void setHash(byte[] hash) {
+        this.hash = hash;
+    }
+
+    public Integer getFastDigest() {
+        return fastDigest;
+    }
+
+    public void setFastDigest(Integer fastDigest) {
+        this.fastDigest = fastDigest;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The nodes the server wants to see next. A server that can not compare the
+ * tree, because its own digests are incomplete or its regions differ,
+ * replies as not ready and the client sends its region digests instead.
+ */
+public class MerkleReply {
+    private boolean ready;
+    private List<MerkleNode> requestedNodes;
+
+    public MerkleReply() {}
+
+    public MerkleReply(boolean ready, List<MerkleNode> requestedNodes) {
+        this.ready = ready;
+        this.requestedNodes = requestedNodes;
+    }
+
+    public static MerkleReply notReady() {
+        return new MerkleReply(false, Collections.emptyList());
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    public void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    public List<MerkleNode> getRequestedNodes() {
+        return requestedNodes;
+    }
+
+    public void setRequestedNodes(List<MerkleNode> requestedNodes) {
+        this.requestedNodes = requestedNodes;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+/**
+ * The settings the server chose for a client from its capabilities. They
+ * hold for as long as the client is connected.
+ */
+public class NegotiatedSettings {
+    private int clientId;
+    private int protocolVersion;
+    private String fastDigest;
+    private String strongDigest;
+    private String codec;
+    private int maxDigestBatchSize;
+    private int maxMerkleNodes;
+
+    public NegotiatedSettings() {}
+
+    public NegotiatedSettings(int clientId, int protocolVersion, String fastDigest, String strongDigest,
+                              String codec, int maxDigestBatchSize, int maxMerkleNodes) {
+        this.clientId = clientId;
+        this.protocolVersion = protocolVersion;
+        this.fastDigest = fastDigest;
+        this.strongDigest = strongDigest;
+        this.codec = codec;
+        this.maxDigestBatchSize = maxDigestBatchSize;
+        this.maxMerkleNodes = maxMerkleNodes;
+    }
+
+    public int getClientId() {
+        return clientId;
+    }
+
+    public void setClientId(int clientId) {
+        this.clientId = clientId;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public void setProtocolVersion(int protocolVersion) {
+        this.protocolVersion = protocolVersion;
+    }
+
+    public String getFastDigest() {
+        return fastDigest;
+    }
+
+    public void setFastDigest(String fastDigest) {
+        this.fastDigest = fastDigest;
+    }
+
+    public String getStrongDigest() {
+        return strongDigest;
+    }
+
+    public void setStrongDigest(String strongDigest) {
+        this.strongDigest = strongDigest;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public int getMaxDigestBatchSize() {
+        return maxDigestBatchSize;
+    }
+
+    public void setMaxDigestBatchSize(int maxDigestBatchSize) {
+        this.maxDigestBatchSize = maxDigestBatchSize;
+    }
+
+    public int getMaxMerkleNodes() {
+        return maxMerkleNodes;
+    }
+
+    public void setMaxMerkleNodes(int maxMerkleNodes) {
+        this.maxMerkleNodes = maxMerkleNodes;
+    }
+
+    @Override
+    public String toString() {
+        return "protocol [" + protocolVersion + "], fast digest [" + fastDigest
+                + "], strong digest [" + strongDigest + "], codec [" + codec
+                + "], digest batches [" + maxDigestBatchSize + "], merkle nodes [" + maxMerkleNodes + "]";
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Framing of the regions of a batch sent in one response. Each region
+ * starts with a header frame of its kind, file id, offset and size. Data
+ * frames then carry the codec and the region bytes in length prefixed
+ * chunks ended by an empty chunk, so that their length need not be known
+ * when compressing. An end frame closes the batch.
+ *
+ * A stream of regions is a batch that stays open. While there is nothing
+ * to send, heartbeat frames show the client that the server is still
+ * there.
+ */
+public final class RegionFrameFormat {
+    public static final int DATA = 'D';
+    public static final int ZERO = 'Z';
+    public static final int COPY_LOCAL = 'C';
+    public static final int END = 'E';
+    public static final int HEARTBEAT = 'H';
+
+    private static final int MAX_DIGEST_LENGTH = 1024;
+
+    private RegionFrameFormat() {
+    }
+
+    /**
+     * Writes the header of a data frame. The region bytes follow, written
+     * through {@link #dataOutput}.
+     */
+    public static void writeData(DataOutputStream output, int fileId, long offset, long size, String codec) throws IOException {
+        writeHeader(output, DATA, fileId, offset, size);
+        output.writeUTF(codec);
+    }
+
+    public static void writeZero(DataOutputStream output, int fileId, long offset, long size) throws IOException {
+        writeHeader(output, ZERO, fileId, offset, size);
+    }
+
+    public static void writeCopyLocal(DataOutputStream output, int fileId, long offset, long size,
+                                      int sourceFileId, long sourceOffset, byte[] slowDigest) throws IOException {
+        writeHeader(output, COPY_LOCAL, fileId, offset, size);
+        output.writeInt(sourceFileId);
+        output.writeLong(sourceOffset);
+        output.writeShort(slowDigest.length);
+        output.write(slowDigest);
+    }
+
+    public static void writeEnd(DataOutputStream output) throws IOException {
+        output.writeByte(END);
+        output.flush();
+    }
+
+    public static void writeHeartbeat(DataOutputStream output) throws IOException {
+        output.writeByte(HEARTBEAT);
+        output.flush();
+    }
+
+    private static void writeHeader(DataOutputStream output, int type, int fileId, long offset, long size) throws IOException {
+        output.writeByte(type);
+        output.writeInt(fileId);
+        output.writeLong(offset);
+        output.writeLong(size);
+    }
+
+    /**
+     * Reads the next frame header, null at the end of the batch. Heartbeats
+     * are skipped.
+     */
+    public static Frame readFrame(DataInputStream input) throws IOException {
+        int type;
+        do {
+            type = input.readUnsignedByte();
+        } while (type == HEARTBEAT);
+        if (type == END) {
+            return null;
+        }
+        if (type != DATA && type != ZERO && type != COPY_LOCAL) {
+            throw new IOException("Unknown region frame type [" + type + "]");
+        }
+
+        Frame frame = new Frame(type, input.readInt(), input.readLong(), input.readLong());
+        if (type == DATA) {
+            frame.codec = input.readUTF();
+        } else if (type == COPY_LOCAL) {
+            frame.sourceFileId = input.readInt();
+            frame.sourceOffset = input.readLong();
+            int digestLength = input.readUnsignedShort();
+            if (digestLength > MAX_DIGEST_LENGTH) {
+                throw new IOException("Invalid digest length [" + digestLength + "] in region frame");
+            }
+            frame.slowDigest = new byte[digestLength];
+            input.readFully(frame.slowDigest);
+        }
+        return frame;
+    }
+
+    /**
+     * Stream for the bytes of a data frame. Closing it ends the frame but
+     * leaves the wrapped stream open.
+     */
+    public static OutputStream dataOutput(DataOutputStream output) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (len > 0) {
+                    output.writeInt(len);
+                    output.write(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                output.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                output.writeInt(0);
+            }
+        };
+    }
+
+    /**
+     * Stream of the bytes of a data frame, at its end when the frame ends.
+     * Closing it skips what is left of the frame, so that the next frame
+     * can be read, but leaves the wrapped stream open.
+     */
+    public static InputStream dataInput(DataInputStream input) {
+        return new InputStream() {
+            private int remaining = 0;
+            private boolean ended = false;
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (remaining == 0 && !ended) {
+                    remaining = input.readInt();
+                    if (remaining < 0) {
+                        throw new IOException("Invalid chunk length [" + remaining + "] in region frame");
+                    }
+                    ended = remaining == 0;
+                }
+                if (ended) {
+                    return -1;
+                }
+                int read = input.read(b, off, Math.min(len, remaining));
+                if (read < 0) {
+                    throw new IOException("Region frame ended early");
+                }
+                remaining -= read;
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException {
+                byte[] skipped = new byte[0x2000];
+                while (read(skipped, 0, skipped.length) >= 0) {
+                    // Skip to the end of the frame
+                }
+            }
+        };
+    }
+
+    /**
+     * Header of a region in a batch. Which fields are set depends on its
+     * type.
+     */
+    public static class Frame {
+        public final int type;
+        public final int fileId;
+        public final long offset;
+        public final long size;
+        public String codec;
+        public int sourceFileId;
+        public long sourceOffset;
+        public byte[] slowDigest;
+
+        Frame(int type, int fileId, long offset, long size) {
+            this.type = type;
+            this.fileId = fileId;
+            this.offset = offset;
+            this.size = size;
+        }
+    }
+}
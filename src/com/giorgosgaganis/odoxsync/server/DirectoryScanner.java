@@ -21,9 +21,13 @@ package com.giorgosgaganis.odoxsync.server;
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.RegionCalculator;
 import com.giorgosgaganis.odoxsync.files.FileScanner;
+import com.giorgosgaganis.odoxsync.files.processing.CombinedFileProcessorFactory;
 import com.giorgosgaganis.odoxsync.files.processing.FastFileProcessorFactory;
+import com.giorgosgaganis.odoxsync.files.processing.FileProcessorFactory;
 import com.giorgosgaganis.odoxsync.files.processing.SlowFileProcessorFactory;
 import com.giorgosgaganis.odoxsync.files.processing.handlers.SlowDigestHandler;
+import com.giorgosgaganis.odoxsync.server.files.DigestStore;
+import com.giorgosgaganis.odoxsync.server.files.FileCatalog;
 import com.giorgosgaganis.odoxsync.server.files.FileRegionHashMapDigestHandler;
 import com.giorgosgaganis.odoxsync.server.files.HashMapSlowDigestHandler;
 import com.giorgosgaganis.odoxsync.utils.Statistics;
@@ -32,29 +36,39 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileTime;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import static com.giorgosgaganis.odoxsync.utils.Contants.CDC_REGIONS;
+import static com.giorgosgaganis.odoxsync.utils.Contants.COMBINED_SCAN;
+import static com.giorgosgaganis.odoxsync.utils.Contants.WALK_PARALLELISM;
+
 /**
  * Created by gaganis on 18/01/17.
  */
 public class DirectoryScanner {
     private static final Logger logger = Logger.getLogger(DirectoryScanner.class.getName());
 
-    private final ConcurrentHashMap<Integer, File> files;
+    private final FileCatalog files;
     private boolean isFast;
 
-    private final AtomicInteger fileIdCounter = new AtomicInteger(1);
-
     private String workingDirectory;
+    private DigestStore digestStore;
 
     private volatile int scanCount = 0;
+
+    private final LinkedBlockingQueue<Path> touchedPaths = new LinkedBlockingQueue<>();
+    private volatile boolean isWatched = false;
+    private volatile boolean fullScanRequested = true;
     private final ActivityStaler activityStaler;
 
-    public DirectoryScanner(ConcurrentHashMap<Integer, File> files, boolean isFast, ActivityStaler activityStaler) {
+    public DirectoryScanner(FileCatalog files, boolean isFast, ActivityStaler activityStaler) {
         this.files = files;
         this.isFast = isFast;
         this.activityStaler = activityStaler;
@@ -69,72 +83,90 @@ public class DirectoryScanner {
 
             logger.fine("Starting directory scan in [" + root + "]");
 
+            if (WALK_PARALLELISM > 1) {
+                new ParallelDirectoryWalker(root,
+                        this::trackFile)
+                        .walk();
+                logger.fine("Finished directory scan");
+                return;
+            }
+
             Files.walk(root)
                     .filter(Files::isRegularFile)
                     .map(Path::normalize)
                     .map(path -> root.relativize(path))
-                    .forEach((path) -> {
-                        String name = path.toString();
-                        File file = new File(name);
-                        if (!files.containsValue(file)) {
-                            int id = fileIdCounter.getAndIncrement();
-                            file.setId(id);
-
-                            file.setAbsolutePath(
-                                    Paths.get(
-                                            workingDirectory,
-                                            name
-                                    ).toAbsolutePath());
-                            RegionCalculator rc = new RegionCalculator(workingDirectory, file);
-                            try {
-                                rc.calculate();
-                            } catch (IOException e) {
-                                logger.log(Level.SEVERE, "Error while getting size of file", e);
-                            }
-
-                            files.put(id, file);
-                            logger.fine("Added new tracked file " + id + ":[" + name + "]");
-                        } else {
-                            logger.finer("File is already tracked [" + name + "]");
-                        }
-                    });
+                    .forEach(this::trackFile);
         } catch (IOException e) {
             logger.log(Level.SEVERE, "Error while scanning directory", e);
         }
         logger.fine("Finished directory scan");
     }
 
+    private File trackFile(Path path) {
+        return trackFile(path, null);
+    }
+
+    /**
+     * @param attributes the attributes of the file if already read, or null
+     *                   to read them here
+     */
+    private File trackFile(Path path, BasicFileAttributes attributes) {
+        String name = path.toString();
+        File trackedFile = files.getByName(name);
+        if (trackedFile != null) {
+            logger.finer("File is already tracked [" + name + "]");
+            return trackedFile;
+        }
+
+        File file = new File(name);
+        file.setAbsolutePath(
+                Paths.get(
+                        workingDirectory,
+                        name
+                ).toAbsolutePath());
+        try {
+            if (attributes == null) {
+                attributes = Files.readAttributes(file.getAbsolutePath(), BasicFileAttributes.class);
+            }
+            RegionCalculator.calculate(file, file.getAbsolutePath(), attributes.size());
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Error while getting size of file", e);
+        }
+
+        trackedFile = files.add(file);
+        if (trackedFile == file) {
+            logger.fine("Added new tracked file " + file.getId() + ":[" + name + "]");
+            if (attributes != null) {
+                restoreDigests(file, attributes.lastModifiedTime());
+            }
+        }
+        return trackedFile;
+    }
+
+    /**
+     * Applies digests stored before a restart. When all of them are still
+     * valid the file is marked as scanned so the fast scan passes over it.
+     */
+    private void restoreDigests(File file, FileTime lastModifiedTime) {
+        if (digestStore != null && digestStore.restore(file, lastModifiedTime)) {
+            file.setLastModified(lastModifiedTime);
+            logger.finer("Restored digests for [" + file.getName() + "]");
+        }
+    }
+
     void scanDirectoryAndFiles() {
         new Thread(() -> {
             do {
-                scan(workingDirectory);
-                long fastBytesAtStart = Statistics.INSTANCE.bytesReadFast.get();
-                long startTime = System.currentTimeMillis();
-
                 try {
-                    if (isFast) {
-                        files.values()
-                                .stream()
-                                .sorted(new FileModifiedComparator().reversed())
-                                .forEach(this::processFileFast);
+                    if (isWatched && !fullScanRequested) {
+                        scanTouchedFiles();
                     } else {
-                        files.values()
-                                .parallelStream()
-                                .sorted(new FileModifiedComparator().reversed())
-                                .forEach(this::processFileSlow);
+                        fullScanRequested = false;
+                        scanAll();
+                        if (!isWatched) {
+                            Thread.sleep(30_000);
+                        }
                     }
-                    scanCount++;
-
-                    long duration = System.currentTimeMillis() - startTime;
-                    long speed =
-                            duration == 0 ?
-                                    -1 :
-                                    (Statistics.INSTANCE.bytesReadFast.get() - fastBytesAtStart) * 1000 / duration;
-
-                    String scanType = isFast ? "fast" : "slow";
-                    logger.info("Finished [" + scanCount + "] " + scanType + " scan in ["
-                            + duration / 1000 + "] at [" + Statistics.humanReadableByteCount(speed, false) + "]");
-                    Thread.sleep(30_000);
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 }
@@ -142,6 +174,82 @@ public class DirectoryScanner {
         }).start();
     }
 
+    private void scanAll() {
+        scan(workingDirectory);
+        long fastBytesAtStart = Statistics.INSTANCE.bytesReadFast.get();
+        long startTime = System.currentTimeMillis();
+
+        if (isFast) {
+            files.values()
+                    .stream()
+                    .sorted(new FileModifiedComparator().reversed())
+                    .forEach(this::processFileFast);
+        } else {
+            files.values()
+                    .parallelStream()
+                    .sorted(new FileModifiedComparator().reversed())
+                    .forEach(this::processFileSlow);
+        }
+        scanCount++;
+
+        long duration = System.currentTimeMillis() - startTime;
+        long speed =
+                duration == 0 ?
+                        -1 :
+                        (Statistics.INSTANCE.bytesReadFast.get() - fastBytesAtStart) * 1000 / duration;
+
+        String scanType = isFast ? "fast" : "slow";
+        logger.info("Finished [" + scanCount + "] " + scanType + " scan in ["
+                + duration / 1000 + "] at [" + Statistics.humanReadableByteCount(speed, false) + "]");
+    }
+
+    /**
+     * Scans the files reported by the {@link DirectoryWatcher} since the last
+     * call, waiting a short while for the first one to arrive.
+     */
+    private void scanTouchedFiles() throws InterruptedException {
+        Path touchedPath = touchedPaths.poll(1, TimeUnit.SECONDS);
+        if (touchedPath == null) {
+            return;
+        }
+        Set<Path> paths = new LinkedHashSet<>();
+        paths.add(touchedPath);
+        touchedPaths.drainTo(paths);
+
+        for (Path path : paths) {
+            if (!Files.isRegularFile(Paths.get(workingDirectory).resolve(path))) {
+                continue;
+            }
+            File file = trackFile(path);
+            if (isFast) {
+                processFileFast(file);
+            } else {
+                processFileSlow(file);
+            }
+        }
+    }
+
+    /**
+     * Switches from polling to scanning the paths handed over by a
+     * {@link DirectoryWatcher}. The first pass is still a full walk.
+     */
+    void watch() {
+        isWatched = true;
+    }
+
+    void stopWatching() {
+        isWatched = false;
+    }
+
+    void touch(Path relativePath) {
+        touchedPaths.add(relativePath);
+    }
+
+    void requestFullScan() {
+        touchedPaths.clear();
+        fullScanRequested = true;
+    }
+
     private void processFileFast(File file) {
         try {
 
@@ -163,7 +271,8 @@ public class DirectoryScanner {
             file.setLastModified(lastModifiedTime);
 
             long size = Files.size(path);
-            if (size != file.getSize()) {
+            // Content defined boundaries can move whenever the content changes
+            if (size != file.getSize() || (CDC_REGIONS && doScan)) {
                 logger.fine("Recalculation regions for [" + file.getName() + "]");
                 reCalculateRegions(file);
                 doScan = true;
@@ -173,13 +282,13 @@ public class DirectoryScanner {
                 long startTime = System.currentTimeMillis();
                 logger.fine("Starting scan for [" + file.getName() + "]");
                 FileScanner fileScanner = new FileScanner(workingDirectory,
-                        new FastFileProcessorFactory(new FileRegionHashMapDigestHandler()), activityStaler, false);
+                        new FastFileProcessorFactory(new FileRegionHashMapDigestHandler(digestStore)), activityStaler, false);
                 fileScanner.scanFile(file);
                 long duration = System.currentTimeMillis() - startTime;
                 logger.fine("Finished scan for [" + file.getName() + "] in [" + duration + "ms]");
             }
 
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
             logger.log(Level.SEVERE, "Unable to scan file [" + file.getName() + "]", e);
         }
     }
@@ -188,12 +297,15 @@ public class DirectoryScanner {
         try {
             logger.fine("Starting scan for [" + file.getName() + "]");
 
-            SlowDigestHandler slowDigestHandler = new HashMapSlowDigestHandler();
-            FileScanner fileScanner = new FileScanner(workingDirectory, new SlowFileProcessorFactory(slowDigestHandler), activityStaler, false);
+            SlowDigestHandler slowDigestHandler = new HashMapSlowDigestHandler(digestStore);
+            FileProcessorFactory fileProcessorFactory = COMBINED_SCAN
+                    ? new CombinedFileProcessorFactory(new FileRegionHashMapDigestHandler(digestStore), slowDigestHandler)
+                    : new SlowFileProcessorFactory(slowDigestHandler);
+            FileScanner fileScanner = new FileScanner(workingDirectory, fileProcessorFactory, activityStaler, false);
             fileScanner.scanFile(file);
             logger.fine("Finished scan for [" + file.getName() + "]");
 
-        } catch (IOException e) {
+        } catch (IOException | RuntimeException e) {
             logger.log(Level.SEVERE, "Unable to scan file [" + file.getName() + "]", e);
         }
     }
@@ -204,6 +316,10 @@ public class DirectoryScanner {
         regionCalculator.calculate();
     }
 
+    public void setDigestStore(DigestStore digestStore) {
+        this.digestStore = digestStore;
+    }
+
     public void setWorkingDirectory(String workingDirectory) {
         this.workingDirectory = workingDirectory;
     }
@@ -22,23 +22,47 @@ import com.giorgosgaganis.odoxsync.Client;
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
 import com.giorgosgaganis.odoxsync.client.ClientRegionMessage;
+import com.giorgosgaganis.odoxsync.codec.RegionCodec;
+import com.giorgosgaganis.odoxsync.digest.DirectoryHashTree;
+import com.giorgosgaganis.odoxsync.digest.FastDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.digest.StrongDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.digest.MerkleTree;
 import com.giorgosgaganis.odoxsync.messages.BlankFileMessage;
+import com.giorgosgaganis.odoxsync.messages.BlockDigest;
+import com.giorgosgaganis.odoxsync.messages.Capabilities;
 import com.giorgosgaganis.odoxsync.messages.ClientFastDigestMessage;
 import com.giorgosgaganis.odoxsync.messages.ClientSlowDigestMessage;
+import com.giorgosgaganis.odoxsync.messages.DirectoryListing;
+import com.giorgosgaganis.odoxsync.messages.MerkleMessage;
+import com.giorgosgaganis.odoxsync.messages.MerkleNode;
+import com.giorgosgaganis.odoxsync.messages.MerkleReply;
+import com.giorgosgaganis.odoxsync.messages.NegotiatedSettings;
 import com.giorgosgaganis.odoxsync.server.candidates.TransferCandidateFinder;
+import com.giorgosgaganis.odoxsync.server.files.BlockDigester;
+import com.giorgosgaganis.odoxsync.server.files.DigestStore;
+import com.giorgosgaganis.odoxsync.server.files.FileCatalog;
+import com.giorgosgaganis.odoxsync.server.files.MerkleTreeCache;
 import com.giorgosgaganis.odoxsync.server.status.RegionWalker;
 import com.giorgosgaganis.odoxsync.utils.LoggingUtils;
 import com.giorgosgaganis.odoxsync.utils.Statistics;
 
 import java.io.IOException;
-import java.util.Base64;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
 
-import static com.giorgosgaganis.odoxsync.utils.Contants.REGION_SIZE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.DIGEST_STORE;
+import static com.giorgosgaganis.odoxsync.utils.Contants.WATCH_CHANGES;
 
 /**
  * Created by gaganis on 13/01/17.
@@ -48,7 +72,26 @@ public class DirectorySynchronizer {
 
     public static final DirectorySynchronizer INSTANCE = new DirectorySynchronizer();
 
-    public final ConcurrentHashMap<Integer, File> files = new ConcurrentHashMap<>();
+    /**
+     * Largest batches the server accepts, whatever a client supports.
+     */
+    public static final int MAX_DIGEST_BATCH_SIZE = 1000;
+    public static final int MAX_MERKLE_NODES = 10000;
+
+    /**
+     * Encodings of region data the server can send, in order of preference.
+     */
+    private static final List<String> CODECS = Arrays.stream(RegionCodec.values())
+            .map(RegionCodec::getName)
+            .collect(Collectors.toList());
+
+    /**
+     * Batch sizes of clients from before settings were negotiated.
+     */
+    private static final int LEGACY_DIGEST_BATCH_SIZE = 200;
+    private static final int LEGACY_MERKLE_NODES = 1000;
+
+    public final FileCatalog files = new FileCatalog();
 
     public final ConcurrentHashMap<Integer, Client> clients = new ConcurrentHashMap<>();
 
@@ -66,6 +109,9 @@ public class DirectorySynchronizer {
             false,
             new CandidateQueueActivityStaler(clients));
 
+    private final BlockDigester blockDigester = new BlockDigester();
+    private final MerkleTreeCache merkleTrees = new MerkleTreeCache();
+
     public String workingDirectory;
 
 
@@ -75,10 +121,27 @@ public class DirectorySynchronizer {
         startStatisticsPrintThread();
         startProgressTrackingThread();
 
+        if (DIGEST_STORE != null) {
+            try {
+                DigestStore digestStore = DigestStore.open(Paths.get(DIGEST_STORE));
+                fastDirectoryScanner.setDigestStore(digestStore);
+                slowDirectoryScanner.setDigestStore(digestStore);
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Unable to open digest store [" + DIGEST_STORE + "], digests will not be kept", e);
+            }
+        }
+
         fastDirectoryScanner.setWorkingDirectory(workingDirectory);
-        fastDirectoryScanner.scanDirectoryAndFiles();
 
         slowDirectoryScanner.setWorkingDirectory(workingDirectory);
+
+        if (WATCH_CHANGES) {
+            fastDirectoryScanner.watch();
+            slowDirectoryScanner.watch();
+            new DirectoryWatcher(workingDirectory, fastDirectoryScanner, slowDirectoryScanner).start();
+        }
+
+        fastDirectoryScanner.scanDirectoryAndFiles();
         slowDirectoryScanner.scanDirectoryAndFiles();
 
         transferCandidateFinder.lookForRegionsToTransfer();
@@ -103,6 +166,7 @@ public class DirectorySynchronizer {
             do {
                 AtomicLong counter = Statistics.INSTANCE.bytesTransferred;
                 Statistics.printStatistic("transfered", counter);
+                Statistics.printCompression();
 
                 counter = Statistics.INSTANCE.bytesReadFast;
                 Statistics.printStatistic("read fast", counter);
@@ -124,7 +188,66 @@ public class DirectorySynchronizer {
 
     }
 
+    /**
+     * Sets up a client that introduced itself without capabilities, which is
+     * taken to use the settings from before they were negotiated. It is
+     * refused when the server uses other digest algorithms, since its
+     * digests would never match.
+     */
     public int setupClient() {
+        if (FastDigestAlgorithm.get() != FastDigestAlgorithm.SAMPLE_SUM
+                || StrongDigestAlgorithm.get() != StrongDigestAlgorithm.SHA256) {
+            throw new IllegalArgumentException("Client did not negotiate and does not support the digest algorithms ["
+                    + FastDigestAlgorithm.get().getName() + ", " + StrongDigestAlgorithm.get().getName() + "]");
+        }
+        int clientId = createClient();
+        NegotiatedSettings settings = new NegotiatedSettings(clientId, 0,
+                FastDigestAlgorithm.SAMPLE_SUM.getName(), StrongDigestAlgorithm.SHA256.getName(),
+                Capabilities.IDENTITY_CODEC, LEGACY_DIGEST_BATCH_SIZE, LEGACY_MERKLE_NODES);
+        clients.get(clientId).setSettings(settings);
+        return clientId;
+    }
+
+    /**
+     * Picks the settings for a client from its capabilities and sets it up.
+     * The digest algorithms are those of the server, since its digests are
+     * calculated once for all clients, so a client that does not support
+     * them is refused.
+     */
+    public NegotiatedSettings introduce(Capabilities capabilities) {
+        if (capabilities.getProtocolVersion() < 1) {
+            throw new IllegalArgumentException("Unsupported protocol version [" + capabilities.getProtocolVersion() + "]");
+        }
+        String fastDigest = FastDigestAlgorithm.get().getName();
+        if (capabilities.getFastDigests() == null || !capabilities.getFastDigests().contains(fastDigest)) {
+            throw new IllegalArgumentException("Client does not support fast digest [" + fastDigest + "]");
+        }
+        String strongDigest = StrongDigestAlgorithm.get().getName();
+        if (capabilities.getStrongDigests() == null || !capabilities.getStrongDigests().contains(strongDigest)) {
+            throw new IllegalArgumentException("Client does not support strong digest [" + strongDigest + "]");
+        }
+        String codec = capabilities.getCodecs() == null
+                ? Capabilities.IDENTITY_CODEC
+                : capabilities.getCodecs()
+                .stream()
+                .filter(CODECS::contains)
+                .findFirst()
+                .orElse(Capabilities.IDENTITY_CODEC);
+
+        int clientId = createClient();
+        NegotiatedSettings settings = new NegotiatedSettings(clientId,
+                Math.min(Capabilities.PROTOCOL_VERSION, capabilities.getProtocolVersion()),
+                fastDigest,
+                strongDigest,
+                codec,
+                Math.min(MAX_DIGEST_BATCH_SIZE, capabilities.getMaxDigestBatchSize()),
+                Math.min(MAX_MERKLE_NODES, capabilities.getMaxMerkleNodes()));
+        clients.get(clientId).setSettings(settings);
+        logger.info("Client [" + clientId + "] introduced with " + settings);
+        return settings;
+    }
+
+    private int createClient() {
         Client collision;
         int clientId;
         do {
@@ -152,11 +275,15 @@ public class DirectorySynchronizer {
 
             if (existingFile != null) {
                 clientFile = existingFile;
+            } else {
+                client.tree.add(clientFile);
             }
             ConcurrentHashMap<Long, Region> clientRegions = clientFile.getRegions();
             Region region = clientRegionMessage.getRegion();
 
             clientRegions.put(region.getOffset(), region);
+            client.digestIndex.add(fileId, region);
+            clientFile.digestsChanged();
             logger.fine("Added client region " + region);
         } catch (Exception e) {
             e.printStackTrace();
@@ -173,7 +300,10 @@ public class DirectorySynchronizer {
             int fastDigest = clientFastDigestMessage.getFastDigest();
 
             Region clientRegion = getClientRegion(clientId, fileId, offset);
-            clientRegion.setQuickDigest(fastDigest);
+            if (clientRegion != null) {
+                clientRegion.setQuickDigest(fastDigest);
+                clientDigestsChanged(clientId, fileId, clientRegion);
+            }
         }
     }
 
@@ -183,9 +313,18 @@ public class DirectorySynchronizer {
         File clientFile = getOrCreateClientFile(fileId, client);
 
         Region serverRegion = files.get(fileId).getRegions().get(offset);
+        if (serverRegion == null) {
+            // Digest for a region layout the server has since replaced
+            return null;
+        }
 
         ConcurrentHashMap<Long, Region> clientRegions = clientFile.getRegions();
-        return clientRegions.computeIfAbsent(offset, (aLong) -> new Region(serverRegion.getOffset(), serverRegion.getSize()));
+        Region clientRegion = clientRegions.computeIfAbsent(offset, (aLong) -> new Region(serverRegion.getOffset(), serverRegion.getSize()));
+        if (clientRegion.getSize() != serverRegion.getSize()) {
+            clientRegion = new Region(serverRegion.getOffset(), serverRegion.getSize());
+            clientRegions.put(offset, clientRegion);
+        }
+        return clientRegion;
     }
 
     private File getOrCreateClientFile(int fileId, Client client) {
@@ -194,6 +333,7 @@ public class DirectorySynchronizer {
         return client.files.computeIfAbsent(fileId, integer -> {
             File newFile = new File(fileName);
             newFile.setId(fileId);
+            client.tree.add(newFile);
             return newFile;
         });
     }
@@ -208,8 +348,8 @@ public class DirectorySynchronizer {
         ConcurrentHashMap<Long, Region> clientRegions = clientFile.getRegions();
         ConcurrentHashMap<Long, Region> serverRegions = files.get(fileId).getRegions();
 
-        byte[] emptyByteArrayRegionSize = new byte[(int) REGION_SIZE];
-        byte[] slowDigestForWholeEmptyRegion = Base64.getEncoder().encode(emptyByteArrayRegionSize);
+        FastDigestAlgorithm fastDigestAlgorithm = FastDigestAlgorithm.get();
+        StrongDigestAlgorithm strongDigestAlgorithm = StrongDigestAlgorithm.get();
 
         for (Region serverRegion : serverRegions.values()) {
             long offset = serverRegion.getOffset();
@@ -217,16 +357,112 @@ public class DirectorySynchronizer {
 
             Region region = clientRegions.computeIfAbsent(offset, (aLong) ->
                     new Region(offset, size));
-            region.setQuickDigest(0);
-            if(region.getSize() == REGION_SIZE) {
-                region.setSlowDigest(slowDigestForWholeEmptyRegion);
+            region.setQuickDigest(fastDigestAlgorithm.zeroDigest(region.getSize()));
+            region.setSlowDigest(strongDigestAlgorithm.zeroDigest(region.getSize()));
+            client.digestIndex.add(fileId, region);
+        }
+        clientFile.digestsChanged();
+    }
+
+    /**
+     * The hashes of a directory of the server files, or null when no file is
+     * tracked under it.
+     */
+    public DirectoryListing getDirectoryListing(String path) {
+        DirectoryHashTree tree = files.getTree();
+        tree.refresh();
+        return tree.getListing(path);
+    }
+
+    /**
+     * Whether the last scan found the region to hold only zeros and the file
+     * has not been modified since, so that the client can write the zeros
+     * itself instead of receiving them.
+     */
+    public boolean isZeroRegion(File file, long offset, long size) throws IOException {
+        Region region = file.getRegions().get(offset);
+        if (region == null
+                || region.getSize() != size
+                || region.getSlowDigest() == null
+                || region.getSlowModifiedTime() == null) {
+            return false;
+        }
+        FileTime lastModifiedTime = Files.getLastModifiedTime(file.getAbsolutePath());
+        return region.getSlowModifiedTime().compareTo(lastModifiedTime) >= 0
+                && StrongDigestAlgorithm.get().isZeroDigest(size, region.getSlowDigest());
+    }
+
+    public List<BlockDigest> getBlockDigests(int fileId) throws IOException {
+        File file = files.get(fileId);
+        if (file == null || !Files.exists(file.getAbsolutePath())) {
+            return Collections.emptyList();
+        }
+        return blockDigester.digest(file);
+    }
+
+    /**
+     * Compares the tree nodes a client sent with the server tree of the file.
+     * The regions under matching nodes get the server digests, mismatching
+     * leaves get the client digests and the children of mismatching inner
+     * nodes are requested from the client.
+     */
+    public MerkleReply compareMerkleNodes(MerkleMessage merkleMessage) {
+        int clientId = merkleMessage.getClientId();
+        int fileId = merkleMessage.getFileId();
+
+        File serverFile = files.get(fileId);
+        if (serverFile == null || !clients.containsKey(clientId)) {
+            return MerkleReply.notReady();
+        }
+        MerkleTreeCache.Snapshot snapshot = merkleTrees.get(serverFile);
+        if (snapshot == null || !Arrays.equals(snapshot.layoutHash, merkleMessage.getLayoutHash())) {
+            return MerkleReply.notReady();
+        }
+
+        MerkleTree tree = snapshot.tree;
+        List<MerkleNode> requestedNodes = new ArrayList<>();
+        for (MerkleNode node : merkleMessage.getNodes()) {
+            int level = node.getLevel();
+            int index = node.getIndex();
+            if (!tree.contains(level, index)) {
+                continue;
+            }
+
+            if (Arrays.equals(tree.getHash(level, index), node.getHash())) {
+                int lastLeaf = (int) Math.min(tree.getLeafCount(), ((long) index + 1) << level);
+                for (int leaf = index << level; leaf < lastLeaf; leaf++) {
+                    setClientDigests(clientId, fileId, snapshot.offsets[leaf],
+                            snapshot.fastDigests[leaf], tree.getHash(0, leaf));
+                }
+            } else if (level == 0) {
+                setClientDigests(clientId, fileId, snapshot.offsets[index], node.getFastDigest(), node.getHash());
             } else {
-                byte[] emptyArraySmallerSize = new byte[(int) region.getSize()];
-                region.setSlowDigest(
-                        Base64.getEncoder()
-                                .encode(emptyArraySmallerSize));
+                requestedNodes.add(new MerkleNode(level - 1, index * 2));
+                if (tree.contains(level - 1, index * 2 + 1)) {
+                    requestedNodes.add(new MerkleNode(level - 1, index * 2 + 1));
+                }
             }
         }
+        return new MerkleReply(true, requestedNodes);
+    }
+
+    private void setClientDigests(int clientId, int fileId, long offset, Integer fastDigest, byte[] slowDigest) {
+        Region clientRegion = getClientRegion(clientId, fileId, offset);
+        if (clientRegion != null) {
+            clientRegion.setQuickDigest(fastDigest);
+            clientRegion.setSlowDigest(slowDigest);
+            clientDigestsChanged(clientId, fileId, clientRegion);
+        }
+    }
+
+    /**
+     * Called after the digests of a client region are set, so that they are
+     * hashed into the tree of the client and indexed by slow digest.
+     */
+    private void clientDigestsChanged(int clientId, int fileId, Region clientRegion) {
+        Client client = clients.get(clientId);
+        client.digestIndex.add(fileId, clientRegion);
+        client.files.get(fileId).digestsChanged();
     }
 
     public void addClientSlowDigests(List<ClientSlowDigestMessage> clientSlowDigestMessage) {
@@ -237,7 +473,10 @@ public class DirectorySynchronizer {
             byte[] slowDigest = slowDigestMessage.getSlowDigest();
 
             Region clientRegion = getClientRegion(clientId, fileId, offset);
-            clientRegion.setSlowDigest(slowDigest);
+            if (clientRegion != null) {
+                clientRegion.setSlowDigest(slowDigest);
+                clientDigestsChanged(clientId, fileId, clientRegion);
+            }
         }
     }
 }
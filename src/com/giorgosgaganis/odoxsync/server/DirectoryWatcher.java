@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the working directory tree and hands the paths that change to the
+ * directory scanners, so that they do not have to walk and stat the whole
+ * tree to find them. When events are lost the scanners are asked for a
+ * full walk, and if the tree can not be watched at all they go back to
+ * polling.
+ */
+public class DirectoryWatcher {
+    private static final Logger logger = Logger.getLogger(DirectoryWatcher.class.getName());
+
+    private final Path root;
+    private final List<DirectoryScanner> directoryScanners;
+
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+    private WatchService watchService;
+
+    public DirectoryWatcher(String workingDirectory, DirectoryScanner... directoryScanners) {
+        this.root = FileSystems.getDefault().getPath(workingDirectory).toAbsolutePath().normalize();
+        this.directoryScanners = Arrays.asList(directoryScanners);
+    }
+
+    public void start() {
+        try {
+            watchService = root.getFileSystem().newWatchService();
+            registerAll(root);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Unable to watch [" + root + "], falling back to polling", e);
+            directoryScanners.forEach(DirectoryScanner::stopWatching);
+            return;
+        }
+        logger.info("Watching [" + watchedDirectories.size() + "] directories under [" + root + "]");
+
+        new Thread(null, () -> {
+            do {
+                try {
+                    WatchKey watchKey = watchService.take();
+                    handleEvents(watchKey);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (Exception e) {
+                    logger.log(Level.SEVERE, "Failure while handling watch events", e);
+                    directoryScanners.forEach(DirectoryScanner::requestFullScan);
+                }
+            } while (true);
+        }, "odox-directory-watcher").start();
+    }
+
+    private void handleEvents(WatchKey watchKey) throws IOException {
+        Path directory = watchedDirectories.get(watchKey);
+
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            if (event.kind() == OVERFLOW || directory == null) {
+                logger.fine("Lost watch events, requesting a full scan");
+                directoryScanners.forEach(DirectoryScanner::requestFullScan);
+                continue;
+            }
+
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                // Files may have been created before the new directory was registered
+                registerAll(path);
+                try (Stream<Path> paths = Files.walk(path)) {
+                    paths.filter(Files::isRegularFile).forEach(this::touch);
+                }
+            } else {
+                touch(path);
+            }
+        }
+
+        if (!watchKey.reset()) {
+            watchedDirectories.remove(watchKey);
+        }
+    }
+
+    private void touch(Path path) {
+        logger.finer("Path changed [" + path + "]");
+        Path relativePath = root.relativize(path);
+        directoryScanners.forEach(directoryScanner -> directoryScanner.touch(relativePath));
+    }
+
+    private void registerAll(Path start) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey watchKey = dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+                watchedDirectories.put(watchKey, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                logger.log(Level.WARNING, "Unable to watch [" + file + "]", e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.giorgosgaganis.odoxsync.utils.Contants.WALK_PARALLELISM;
+import static com.giorgosgaganis.odoxsync.utils.Contants.WALK_PER_DEVICE_LIMIT;
+
+/**
+ * Walks a directory tree listing sibling directories concurrently, which
+ * pays off when listing and stat calls are slow, e.g. on network mounts.
+ *
+ * The number of directories being listed at once on a single device is
+ * capped so that a slow disk is not flooded with requests. Regular files
+ * are handed to the visitor from the worker that found them, together with
+ * the attributes read while listing.
+ */
+class ParallelDirectoryWalker {
+    private static final Logger logger = Logger.getLogger(ParallelDirectoryWalker.class.getName());
+
+    private static final ForkJoinPool walkPool = new ForkJoinPool(WALK_PARALLELISM);
+    private static final ConcurrentHashMap<Object, Semaphore> deviceListings = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final BiConsumer<Path, BasicFileAttributes> fileVisitor;
+
+    /**
+     * @param fileVisitor called with the path of every regular file relative
+     *                    to the root, possibly from several threads at once
+     */
+    ParallelDirectoryWalker(Path root, BiConsumer<Path, BasicFileAttributes> fileVisitor) {
+        this.root = root;
+        this.fileVisitor = fileVisitor;
+    }
+
+    void walk() {
+        walkPool.invoke(new DirectoryTask(root));
+    }
+
+    private class DirectoryTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        DirectoryTask(Path directory) {
+            this.directory = directory;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            List<Path> regularFiles = new ArrayList<>();
+            List<BasicFileAttributes> regularFileAttributes = new ArrayList<>();
+
+            Semaphore semaphore = deviceListings.computeIfAbsent(
+                    deviceOf(directory), device -> new Semaphore(WALK_PER_DEVICE_LIMIT));
+            try {
+                semaphore.acquire();
+                try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+                    for (Path entry : entries) {
+                        BasicFileAttributes attributes = readAttributes(entry);
+                        if (attributes == null) {
+                            continue;
+                        }
+                        if (attributes.isDirectory() && !attributes.isSymbolicLink()) {
+                            subdirectories.add(new DirectoryTask(entry));
+                        } else if (attributes.isRegularFile()) {
+                            regularFiles.add(entry);
+                            regularFileAttributes.add(attributes);
+                        }
+                    }
+                } finally {
+                    semaphore.release();
+                }
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to list directory [" + directory + "]", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            for (int i = 0; i < regularFiles.size(); i++) {
+                fileVisitor.accept(root.relativize(regularFiles.get(i)), regularFileAttributes.get(i));
+            }
+            invokeAll(subdirectories);
+        }
+    }
+
+    /**
+     * Reads the attributes of a directory entry, following links to files
+     * but reporting links to directories as links so they are not walked.
+     */
+    private static BasicFileAttributes readAttributes(Path entry) {
+        try {
+            BasicFileAttributes attributes =
+                    Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isSymbolicLink()) {
+                BasicFileAttributes target = Files.readAttributes(entry, BasicFileAttributes.class);
+                return target.isRegularFile() ? target : attributes;
+            }
+            return attributes;
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Unable to read attributes of [" + entry + "]", e);
+            return null;
+        }
+    }
+
+    private static Object deviceOf(Path directory) {
+        try {
+            return Files.getAttribute(directory, "unix:dev", LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+            return directory.getRoot() == null ? "" : directory.getRoot();
+        }
+    }
+}
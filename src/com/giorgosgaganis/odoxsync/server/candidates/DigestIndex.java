@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.candidates;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import com.google.common.base.Objects;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Where in its files a client holds the bytes of each slow digest it
+ * reported, so that a region it is missing can be copied from another of
+ * its files instead of transferred.
+ *
+ * Locations are not removed when a region changes. They are checked
+ * against the current client digests when looked up and dropped then if
+ * they no longer hold the digest.
+ */
+public class DigestIndex {
+    private final Map<Integer, File> files;
+    private final ConcurrentHashMap<ByteBuffer, Set<Location>> locations = new ConcurrentHashMap<>();
+
+    public DigestIndex(Map<Integer, File> files) {
+        this.files = files;
+    }
+
+    public void add(int fileId, Region region) {
+        byte[] slowDigest = region.getSlowDigest();
+        if (slowDigest == null) {
+            return;
+        }
+        locations.computeIfAbsent(ByteBuffer.wrap(slowDigest), digest -> ConcurrentHashMap.newKeySet())
+                .add(new Location(fileId, region.getOffset()));
+    }
+
+    /**
+     * A location other than the target where the client holds a region of
+     * the given size and slow digest, or null if there is none.
+     */
+    public Location find(byte[] slowDigest, long size, int targetFileId, long targetOffset) {
+        ByteBuffer key = ByteBuffer.wrap(slowDigest);
+        Set<Location> candidates = locations.get(key);
+        if (candidates == null) {
+            return null;
+        }
+
+        Location target = new Location(targetFileId, targetOffset);
+        Location found = null;
+        Iterator<Location> iterator = candidates.iterator();
+        while (found == null && iterator.hasNext()) {
+            Location location = iterator.next();
+            Region region = getRegion(location);
+            if (region == null || !Arrays.equals(region.getSlowDigest(), slowDigest)) {
+                iterator.remove();
+            } else if (!location.equals(target) && region.getSize() == size) {
+                found = location;
+            }
+        }
+        if (candidates.isEmpty()) {
+            locations.remove(key, candidates);
+        }
+        return found;
+    }
+
+    private Region getRegion(Location location) {
+        File file = files.get(location.fileId);
+        return file == null ? null : file.getRegions().get(location.offset);
+    }
+
+    public static class Location {
+        public final int fileId;
+        public final long offset;
+
+        public Location(int fileId, long offset) {
+            this.fileId = fileId;
+            this.offset = offset;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Location that = (Location) o;
+            return fileId == that.fileId && offset == that.offset;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(fileId, offset);
+        }
+
+        @Override
+        public String toString() {
+            return "[" + fileId + ":" + offset + "]";
+        }
+    }
+}
@@ -28,13 +28,25 @@ public class TransferCandidate {
     private final Integer fileId;
     private final Long offset;
     private final Long size;
-    private long offeredTimeMillis;
+    private final DigestIndex.Location source;
+    private final byte[] slowDigest;
+    private volatile long offeredTimeMillis;
 
     public TransferCandidate(Integer fileId, Long offset, Long size) {
+        this(fileId, offset, size, null, null);
+    }
+
+    /**
+     * A region the client copies from {@code source} in its own files,
+     * where it holds bytes with the given slow digest.
+     */
+    public TransferCandidate(Integer fileId, Long offset, Long size, DigestIndex.Location source, byte[] slowDigest) {
 
         this.fileId = fileId;
         this.offset = offset;
         this.size = size;
+        this.source = source;
+        this.slowDigest = slowDigest;
     }
 
     public Integer getFileId() {
@@ -49,6 +61,18 @@ public class TransferCandidate {
         return size;
     }
 
+    public boolean isCopyLocal() {
+        return source != null;
+    }
+
+    public DigestIndex.Location getSource() {
+        return source;
+    }
+
+    public byte[] getSlowDigest() {
+        return slowDigest;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -69,6 +93,7 @@ public class TransferCandidate {
                 .append("fileId", fileId)
                 .append("offset", offset)
                 .append("size", size)
+                .append("source", source)
                 .toString();
     }
 
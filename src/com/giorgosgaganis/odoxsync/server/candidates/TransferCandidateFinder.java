@@ -21,12 +21,21 @@ package com.giorgosgaganis.odoxsync.server.candidates;
 import com.giorgosgaganis.odoxsync.Client;
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.digest.DirectoryHashTree;
+import com.giorgosgaganis.odoxsync.messages.Capabilities;
+import com.giorgosgaganis.odoxsync.messages.NegotiatedSettings;
+import com.giorgosgaganis.odoxsync.server.files.FileCatalog;
 import com.giorgosgaganis.odoxsync.utils.Statistics;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 
+import static com.giorgosgaganis.odoxsync.utils.Contants.COPY_LOCAL;
+import static com.giorgosgaganis.odoxsync.utils.Contants.DIRECTORY_TREE;
+
 /**
  * Created by gaganis on 15/01/17.
  */
@@ -34,10 +43,16 @@ public class TransferCandidateFinder {
     private static final Logger logger = Logger.getLogger(TransferCandidateFinder.class.getName());
     public static final int OFFER_EXPIRY_SECONDS = 30;
 
-    private final ConcurrentHashMap<Integer, File> files;
+    private final FileCatalog files;
     private final ConcurrentHashMap<Integer, Client> clients;
 
-    public TransferCandidateFinder(ConcurrentHashMap<Integer, File> files,
+    /**
+     * For every client the directories found in sync on the last look, with
+     * the hash they had then.
+     */
+    private final Map<Integer, Map<String, Long>> syncedDirectories = new HashMap<>();
+
+    public TransferCandidateFinder(FileCatalog files,
                                    ConcurrentHashMap<Integer, Client> clients) {
         this.files = files;
         this.clients = clients;
@@ -63,8 +78,15 @@ public class TransferCandidateFinder {
 
     private void lookAtClient(Integer clientId) {
         Client client = clients.get(clientId);
-        if (client != null) {
-            for (Integer fileId : files.keySet()) {
+        if (client != null && DIRECTORY_TREE) {
+            DirectoryHashTree serverTree = files.getTree();
+            serverTree.refresh();
+            client.tree.refresh();
+            lookAtDirectory(client, clientId, DirectoryHashTree.ROOT,
+                    syncedDirectories.computeIfAbsent(clientId, id -> new HashMap<>()));
+        } else if (client != null) {
+            for (File serverFile : files.values()) {
+                Integer fileId = serverFile.getId();
                 logger.finer("Looking candidates for client ["
                         + clientId + "] and file [" + fileId + "]");
                 lookAtFile(client, clientId, fileId);
@@ -72,6 +94,35 @@ public class TransferCandidateFinder {
         }
     }
 
+    /**
+     * Looks at the files of a directory and its subdirectories, skipping it
+     * when its hash is the same for the client and was already the same on
+     * the last look. A directory that just came in sync is still looked at
+     * once so that the synced percentage of its files is brought up to date.
+     */
+    private void lookAtDirectory(Client client, Integer clientId, String path, Map<String, Long> synced) {
+        DirectoryHashTree serverTree = files.getTree();
+        Long hash = serverTree.getHash(path);
+        boolean isSynced = hash != null && hash.equals(client.tree.getHash(path));
+        if (isSynced && hash.equals(synced.get(path))) {
+            logger.finer("Skipping directory [" + path + "] in sync for client [" + clientId + "]");
+            return;
+        }
+
+        for (File serverFile : serverTree.getFiles(path)) {
+            lookAtFile(client, clientId, serverFile.getId());
+        }
+        for (String subdirectory : serverTree.getSubdirectories(path)) {
+            lookAtDirectory(client, clientId, subdirectory, synced);
+        }
+
+        if (isSynced) {
+            synced.put(path, hash);
+        } else {
+            synced.remove(path);
+        }
+    }
+
     private void lookAtFile(Client client, Integer clientId, Integer fileId) {
         File serverFile = files.get(fileId);
         File clientFile = client.getFiles().get(fileId);
@@ -122,6 +173,11 @@ public class TransferCandidateFinder {
 
         if (serverRegion != null && clientRegion != null) {
 
+            if (serverRegion.getSize() != clientRegion.getSize()) {
+                // The client digests were calculated for an older region layout
+                return false;
+            }
+
             Integer serverQuickDigest = serverRegion.getQuickDigest();
             Integer clientQuickDigest = clientRegion.getQuickDigest();
 
@@ -148,7 +204,7 @@ public class TransferCandidateFinder {
             }
 
             if (doTransfer) {
-                TransferCandidate transferCandidate = new TransferCandidate(fileId, offset, serverRegion.getSize());
+                TransferCandidate transferCandidate = newTransferCandidate(client, fileId, serverRegion);
                 try {
 
                     removeFromOfferedIfExpired(client, transferCandidate);
@@ -170,6 +226,30 @@ public class TransferCandidateFinder {
         return doTransfer;
     }
 
+    /**
+     * A candidate that has the client copy the region from another of its
+     * files when it already holds the same bytes there, otherwise one that
+     * transfers it.
+     */
+    private TransferCandidate newTransferCandidate(Client client, Integer fileId, Region serverRegion) {
+        byte[] slowDigest = serverRegion.getSlowDigest();
+        if (COPY_LOCAL && slowDigest != null && supportsCopyLocal(client)) {
+            DigestIndex.Location source = client.digestIndex.find(
+                    slowDigest, serverRegion.getSize(), fileId, serverRegion.getOffset());
+            if (source != null) {
+                logger.finer("Client [" + client.getId() + "] holds region [" + fileId + ":"
+                        + serverRegion.getOffset() + "] at " + source);
+                return new TransferCandidate(fileId, serverRegion.getOffset(), serverRegion.getSize(), source, slowDigest);
+            }
+        }
+        return new TransferCandidate(fileId, serverRegion.getOffset(), serverRegion.getSize());
+    }
+
+    private static boolean supportsCopyLocal(Client client) {
+        NegotiatedSettings settings = client.getSettings();
+        return settings != null && settings.getProtocolVersion() >= Capabilities.COPY_LOCAL_VERSION;
+    }
+
     private void removeFromOfferedIfExpired(Client client, TransferCandidate transferCandidate) {
         int index = client.offeredTransferCandidates.indexOf(transferCandidate);
 
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.files;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.digest.RollingChecksum;
+import com.giorgosgaganis.odoxsync.digest.StrongDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.messages.BlockDigest;
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Produces the {@link BlockDigest}s of a server file. Weak digests are
+ * calculated on first request and kept on the regions until the file is
+ * modified. Slow digests are reused while they are current and calculated
+ * from the same read otherwise.
+ */
+public class BlockDigester {
+    private static final int READ_SIZE = 0x100000;
+
+    public List<BlockDigest> digest(File file) throws IOException {
+        Path path = file.getAbsolutePath();
+        FileTime lastModifiedTime = Files.getLastModifiedTime(path);
+
+        List<Region> regions = file.getRegions().values()
+                .stream()
+                .sorted(Comparator.comparingLong(Region::getOffset))
+                .collect(Collectors.toList());
+
+        List<BlockDigest> blockDigests = new ArrayList<>(regions.size());
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (Region region : regions) {
+                blockDigests.add(digest(channel, region, lastModifiedTime));
+            }
+        }
+        return blockDigests;
+    }
+
+    private BlockDigest digest(FileChannel channel, Region region, FileTime lastModifiedTime) throws IOException {
+        Integer weakDigest = isCurrent(region.getWeakModifiedTime(), lastModifiedTime)
+                ? region.getWeakDigest()
+                : null;
+        byte[] strongDigest = isCurrent(region.getSlowModifiedTime(), lastModifiedTime)
+                ? region.getSlowDigest()
+                : null;
+
+        if (weakDigest == null || strongDigest == null) {
+            RollingChecksum checksum = new RollingChecksum(region.getSize());
+            StrongDigestAlgorithm.StrongDigest digest = StrongDigestAlgorithm.get().newDigest();
+            read(channel, region, buffer -> {
+                checksum.update(buffer);
+                digest.update(buffer.array(), 0, buffer.limit());
+            });
+            weakDigest = checksum.getValue();
+            if (strongDigest == null) {
+                strongDigest = digest.digest();
+            }
+            region.setWeakDigest(weakDigest);
+            region.setWeakModifiedTime(lastModifiedTime);
+        }
+        return new BlockDigest(region.getOffset(), region.getSize(), weakDigest, strongDigest);
+    }
+
+    private static boolean isCurrent(FileTime digestModifiedTime, FileTime lastModifiedTime) {
+        return digestModifiedTime != null && digestModifiedTime.compareTo(lastModifiedTime) >= 0;
+    }
+
+    /**
+     * Reads the region in pieces of at most {@link #READ_SIZE} bytes so that
+     * large regions do not need a buffer of their own size.
+     */
+    private static void read(FileChannel channel, Region region, Consumer<ByteBuffer> consumer) throws IOException {
+        int readSize = (int) Math.min(region.getSize(), READ_SIZE);
+        ByteBuffer buffer;
+        try {
+            buffer = BufferPool.INSTANCE.borrow(readSize);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a digest buffer");
+        }
+        try {
+            long end = region.getOffset() + region.getSize();
+            for (long position = region.getOffset(); position < end; position += buffer.limit()) {
+                buffer.clear();
+                buffer.limit((int) Math.min(readSize, end - position));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException("Region [" + region.getOffset() + "] is beyond end of file");
+                    }
+                }
+                buffer.flip();
+                consumer.accept(buffer);
+            }
+        } finally {
+            BufferPool.INSTANCE.release(buffer);
+        }
+    }
+}
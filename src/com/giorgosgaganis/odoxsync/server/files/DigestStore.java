@@ -0,0 +1,346 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.files;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.digest.FastDigestAlgorithm;
+import com.giorgosgaganis.odoxsync.digest.StrongDigestAlgorithm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the digests calculated by the server scanners in an append only log
+ * so that they survive a restart.
+ *
+ * Every record carries the file name, the file size and modification time
+ * the digest was calculated for and the region offset and size. On startup the log
+ * is compacted to the latest record of every region and those records are
+ * applied to tracked files whose size and modification time still match,
+ * which spares the scanners from reading them again. The log is compacted
+ * again whenever it has grown to several times its compacted size.
+ *
+ * A file that is not a digest store is never overwritten. A store of
+ * another version is kept aside and the digests are calculated again.
+ */
+public class DigestStore {
+    private static final Logger logger = Logger.getLogger(DigestStore.class.getName());
+
+    private static final int MAGIC = 0x6f647844;
+    private static final int VERSION = 4;
+
+    private static final byte FAST = 1;
+    private static final byte SLOW = 2;
+
+    /**
+     * The log is compacted when the records appended since it was last
+     * compacted are this many times the records it was compacted to.
+     */
+    private static final int COMPACTION_RATIO = 4;
+    private static final long MIN_COMPACTION_RECORDS = 100000;
+
+    private final Path path;
+
+    private final ConcurrentHashMap<String, Map<Long, Record>> storedFast = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Map<Long, Record>> storedSlow = new ConcurrentHashMap<>();
+
+    private final LinkedBlockingQueue<Record> pendingRecords = new LinkedBlockingQueue<>();
+
+    private long compactedRecords;
+
+    private DigestStore(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Loads and compacts the log at {@code path}, creating it if needed, and
+     * starts appending new digests to it.
+     */
+    public static DigestStore open(Path path) throws IOException {
+        DigestStore digestStore = new DigestStore(path);
+        int count = digestStore.load(digestStore.storedFast, digestStore.storedSlow);
+        logger.info("Loaded [" + count + "] digests for [" + digestStore.storedFast.size() + "] files from [" + path + "]");
+        digestStore.compactedRecords = digestStore.compact(digestStore.storedFast, digestStore.storedSlow);
+        digestStore.startWriterThread();
+        return digestStore;
+    }
+
+    /**
+     * Applies the stored digests to the regions of a newly tracked file.
+     * Returns true when every region was restored.
+     */
+    public boolean restore(File file, FileTime lastModifiedTime) {
+        Map<Long, Record> fastRecords = storedFast.remove(file.getName());
+        Map<Long, Record> slowRecords = storedSlow.remove(file.getName());
+        if (fastRecords == null && slowRecords == null) {
+            return false;
+        }
+
+        long modifiedNanos = lastModifiedTime.to(TimeUnit.NANOSECONDS);
+        boolean isComplete = true;
+        for (Region region : file.getRegions().values()) {
+            Record fastRecord = fastRecords == null ? null : fastRecords.get(region.getOffset());
+            if (fastRecord != null && fastRecord.matches(file.getSize(), modifiedNanos, region.getSize())) {
+                region.setQuickDigest(fastRecord.fastDigest);
+                region.setFastModifiedTime(lastModifiedTime);
+            } else {
+                isComplete = false;
+            }
+
+            Record slowRecord = slowRecords == null ? null : slowRecords.get(region.getOffset());
+            if (slowRecord != null && slowRecord.matches(file.getSize(), modifiedNanos, region.getSize())) {
+                region.setSlowDigest(slowRecord.slowDigest);
+                region.setSlowModifiedTime(lastModifiedTime);
+            } else {
+                isComplete = false;
+            }
+        }
+        file.digestsChanged();
+        return isComplete;
+    }
+
+    public void putFast(File file, Region region, Integer fastDigest, FileTime modifiedTime) {
+        if (fastDigest == null || modifiedTime == null) {
+            return;
+        }
+        pendingRecords.add(new Record(FAST, file.getName(), file.getSize(),
+                modifiedTime.to(TimeUnit.NANOSECONDS), region.getOffset(), region.getSize(), fastDigest, null));
+    }
+
+    public void putSlow(File file, Region region, byte[] slowDigest, FileTime modifiedTime) {
+        if (slowDigest == null || modifiedTime == null) {
+            return;
+        }
+        pendingRecords.add(new Record(SLOW, file.getName(), file.getSize(),
+                modifiedTime.to(TimeUnit.NANOSECONDS), region.getOffset(), region.getSize(), 0, slowDigest));
+    }
+
+    /**
+     * Reads the latest record of every region in the log into the maps and
+     * returns how many records were read.
+     */
+    private int load(Map<String, Map<Long, Record>> fast, Map<String, Map<Long, Record>> slow) throws IOException {
+        if (!Files.exists(path) || Files.size(path) == 0) {
+            return 0;
+        }
+        int version = readVersion();
+        if (version != VERSION) {
+            Path asidePath = path.resolveSibling(path.getFileName() + ".v" + version);
+            logger.warning("Moving digest store [" + path + "] of version [" + version + "] to [" + asidePath + "]");
+            Files.move(path, asidePath, StandardCopyOption.REPLACE_EXISTING);
+            return 0;
+        }
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            // Magic and version, checked above
+            in.readInt();
+            in.readInt();
+            String fastDigestAlgorithm = in.readUTF();
+            boolean isFastUsable = fastDigestAlgorithm.equals(FastDigestAlgorithm.get().getName());
+            if (!isFastUsable) {
+                logger.info("Ignoring fast digests of algorithm [" + fastDigestAlgorithm + "] in [" + path + "]");
+            }
+            String strongDigestAlgorithm = in.readUTF();
+            boolean isSlowUsable = strongDigestAlgorithm.equals(StrongDigestAlgorithm.get().getName());
+            if (!isSlowUsable) {
+                logger.info("Ignoring slow digests of algorithm [" + strongDigestAlgorithm + "] in [" + path + "]");
+            }
+            do {
+                Record record = Record.read(in);
+                if (record.type == FAST ? !isFastUsable : !isSlowUsable) {
+                    continue;
+                }
+                Map<String, Map<Long, Record>> stored = record.type == FAST ? fast : slow;
+                stored.computeIfAbsent(record.name, name -> new HashMap<>()).put(record.offset, record);
+                count++;
+            } while (true);
+        } catch (EOFException e) {
+            // End of the log, or a record cut short by a crash
+        }
+        return count;
+    }
+
+    /**
+     * Returns the version of the store, refusing files that are not digest
+     * stores so that they are never overwritten.
+     */
+    private int readVersion() throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(path))) {
+            if (Files.size(path) < 8 || in.readInt() != MAGIC) {
+                throw new IOException("[" + path + "] is not a digest store");
+            }
+            return in.readInt();
+        }
+    }
+
+    /**
+     * Replaces the log with the records of the maps and returns how many
+     * were written.
+     */
+    private long compact(Map<String, Map<Long, Record>> fast, Map<String, Map<Long, Record>> slow) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path compacted = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        long count = 0;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(compacted)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(FastDigestAlgorithm.get().getName());
+            out.writeUTF(StrongDigestAlgorithm.get().getName());
+            for (Map<String, Map<Long, Record>> stored : Arrays.asList(fast, slow)) {
+                for (Map<Long, Record> records : stored.values()) {
+                    for (Record record : records.values()) {
+                        record.write(out);
+                        count++;
+                    }
+                }
+            }
+        }
+        Files.move(compacted, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    private void startWriterThread() throws IOException {
+        DataOutputStream initialOut = openAppend();
+
+        new Thread(null, () -> {
+            DataOutputStream out = initialOut;
+            long appendedRecords = 0;
+            do {
+                try {
+                    Record record = pendingRecords.take();
+                    do {
+                        record.write(out);
+                        appendedRecords++;
+                    } while ((record = pendingRecords.poll()) != null);
+                    out.flush();
+
+                    if (appendedRecords > COMPACTION_RATIO * Math.max(compactedRecords, MIN_COMPACTION_RECORDS)) {
+                        out.close();
+                        try {
+                            compactRunning();
+                        } finally {
+                            appendedRecords = 0;
+                            out = openAppend();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                } catch (IOException e) {
+                    logger.log(Level.SEVERE, "Unable to write to digest store [" + path + "]", e);
+                }
+            } while (true);
+        }, "odox-digest-store").start();
+    }
+
+    /**
+     * Compacts the log while the server runs. Only the writer thread appends
+     * to the log, so nothing is written to it meanwhile.
+     */
+    private void compactRunning() throws IOException {
+        Map<String, Map<Long, Record>> fast = new HashMap<>();
+        Map<String, Map<Long, Record>> slow = new HashMap<>();
+        load(fast, slow);
+        compactedRecords = compact(fast, slow);
+        logger.info("Compacted digest store [" + path + "] to [" + compactedRecords + "] digests");
+    }
+
+    private DataOutputStream openAppend() throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(path, StandardOpenOption.APPEND)));
+    }
+
+    private static class Record {
+        final byte type;
+        final String name;
+        final long fileSize;
+        final long modifiedNanos;
+        final long offset;
+        final long regionSize;
+        final int fastDigest;
+        final byte[] slowDigest;
+
+        Record(byte type, String name, long fileSize, long modifiedNanos, long offset, long regionSize,
+               int fastDigest, byte[] slowDigest) {
+            this.type = type;
+            this.name = name;
+            this.fileSize = fileSize;
+            this.modifiedNanos = modifiedNanos;
+            this.offset = offset;
+            this.regionSize = regionSize;
+            this.fastDigest = fastDigest;
+            this.slowDigest = slowDigest;
+        }
+
+        boolean matches(long size, long nanos, long regionSize) {
+            return fileSize == size && modifiedNanos == nanos && this.regionSize == regionSize;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(type);
+            out.writeUTF(name);
+            out.writeLong(fileSize);
+            out.writeLong(modifiedNanos);
+            out.writeLong(offset);
+            out.writeLong(regionSize);
+            if (type == FAST) {
+                out.writeInt(fastDigest);
+            } else {
+                out.writeShort(slowDigest.length);
+                out.write(slowDigest);
+            }
+        }
+
+        static Record read(DataInputStream in) throws IOException {
+            byte type = in.readByte();
+            if (type != FAST && type != SLOW) {
+                throw new EOFException("Unknown digest record type [" + type + "]");
+            }
+            String name = in.readUTF();
+            long fileSize = in.readLong();
+            long modifiedNanos = in.readLong();
+            long offset = in.readLong();
+            long regionSize = in.readLong();
+            if (type == FAST) {
+                return new Record(type, name, fileSize, modifiedNanos, offset, regionSize, in.readInt(), null);
+            }
+            byte[] slowDigest = new byte[in.readUnsignedShort()];
+            in.readFully(slowDigest);
+            return new Record(type, name, fileSize, modifiedNanos, offset, regionSize, 0, slowDigest);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.files;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.digest.DirectoryHashTree;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The files tracked by the server, indexed both by id and by their name
+ * relative to the working directory. Ids are handed out here so that every
+ * scanner adding files shares a single sequence.
+ */
+public class FileCatalog {
+    private final ConcurrentHashMap<Integer, File> filesById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, File> filesByName = new ConcurrentHashMap<>();
+
+    private final AtomicInteger fileIdCounter = new AtomicInteger(1);
+
+    private final DirectoryHashTree tree = new DirectoryHashTree();
+
+    public File get(Integer fileId) {
+        return filesById.get(fileId);
+    }
+
+    public File getByName(String name) {
+        return filesByName.get(name);
+    }
+
+    /**
+     * Assigns an id to the file and tracks it, unless a file with the same
+     * name is already tracked in which case that one is returned instead.
+     * The id is assigned before the file can be found by name, so that no
+     * scanner sees it without one.
+     */
+    public File add(File file) {
+        File tracked = filesByName.computeIfAbsent(file.getName(), name -> {
+            int id = fileIdCounter.getAndIncrement();
+            file.setId(id);
+            filesById.put(id, file);
+            return file;
+        });
+        if (tracked == file) {
+            tree.add(file);
+        }
+        return tracked;
+    }
+
+    /**
+     * Hashes of the tracked files by directory.
+     */
+    public DirectoryHashTree getTree() {
+        return tree;
+    }
+
+    public Collection<File> values() {
+        return Collections.unmodifiableCollection(filesById.values());
+    }
+
+    public int size() {
+        return filesById.size();
+    }
+}
@@ -22,14 +22,33 @@ import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
 import com.giorgosgaganis.odoxsync.files.processing.handlers.FastDigestHandler;
 
+import java.nio.ByteBuffer;
 import java.nio.file.attribute.FileTime;
 
 public class FileRegionHashMapDigestHandler implements FastDigestHandler {
 
+    private final DigestStore digestStore;
+
+    public FileRegionHashMapDigestHandler() {
+        this(null);
+    }
+
+    public FileRegionHashMapDigestHandler(DigestStore digestStore) {
+        this.digestStore = digestStore;
+    }
+
     @Override
-    public void handleFastDigest(byte[] buffer, File file, Region currentRegion, Integer fastDigest, FileTime fileLastModifiedTime) {
+    public void handleFastDigest(ByteBuffer buffer, File file, Region currentRegion, Integer fastDigest, FileTime fileLastModifiedTime) {
         Region region = file.getRegions().get(currentRegion.getOffset());
+        if (region != currentRegion) {
+            // The region was removed or replaced by a new layout since it was read
+            return;
+        }
         region.setQuickDigest(fastDigest);
         region.setFastModifiedTime(fileLastModifiedTime);
+        file.digestsChanged();
+        if (digestStore != null) {
+            digestStore.putFast(file, region, fastDigest, fileLastModifiedTime);
+        }
     }
 }
\ No newline at end of file
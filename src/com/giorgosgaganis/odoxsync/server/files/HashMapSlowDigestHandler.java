@@ -28,9 +28,28 @@ import java.nio.file.attribute.FileTime;
  * Created by gaganis on 02/02/17.
  */
 public class HashMapSlowDigestHandler implements SlowDigestHandler {
+
+    private final DigestStore digestStore;
+
+    public HashMapSlowDigestHandler() {
+        this(null);
+    }
+
+    public HashMapSlowDigestHandler(DigestStore digestStore) {
+        this.digestStore = digestStore;
+    }
+
     public void handleSlowDigest(File file, Region currentRegion, FileTime batchLastModifiedTime, byte[] slowDigest) {
         Region region = file.getRegions().get(currentRegion.getOffset());
+        if (region != currentRegion) {
+            // The region was removed or replaced by a new layout since it was read
+            return;
+        }
         region.setSlowDigest(slowDigest);
         region.setSlowModifiedTime(batchLastModifiedTime);
+        file.digestsChanged();
+        if (digestStore != null) {
+            digestStore.putSlow(file, region, slowDigest, batchLastModifiedTime);
+        }
     }
 }
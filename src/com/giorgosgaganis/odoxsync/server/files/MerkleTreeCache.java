@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.files;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.digest.MerkleTree;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the {@link MerkleTree} of every server file that clients compare
+ * against, and builds it again once the digests of the file have changed.
+ */
+public class MerkleTreeCache {
+    private final ConcurrentHashMap<Integer, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the tree of the file, or null while some region of the file
+     * lacks a fast or slow digest.
+     */
+    public Snapshot get(File file) {
+        Snapshot snapshot = snapshots.get(file.getId());
+        if (snapshot != null && snapshot.digestVersion == file.getDigestVersion()) {
+            return snapshot;
+        }
+        snapshot = build(file);
+        if (snapshot == null) {
+            snapshots.remove(file.getId());
+        } else {
+            snapshots.put(file.getId(), snapshot);
+        }
+        return snapshot;
+    }
+
+    private static Snapshot build(File file) {
+        // Read the version first, a change during the build makes the next call build again
+        long digestVersion = file.getDigestVersion();
+
+        List<Region> regions = file.getRegions().values()
+                .stream()
+                .sorted(Comparator.comparingLong(Region::getOffset))
+                .collect(Collectors.toList());
+        if (regions.isEmpty()) {
+            return null;
+        }
+
+        long[] offsets = new long[regions.size()];
+        int[] fastDigests = new int[regions.size()];
+        List<byte[]> slowDigests = new ArrayList<>(regions.size());
+        for (int i = 0; i < regions.size(); i++) {
+            Region region = regions.get(i);
+            Integer fastDigest = region.getQuickDigest();
+            byte[] slowDigest = region.getSlowDigest();
+            if (fastDigest == null || slowDigest == null) {
+                return null;
+            }
+            offsets[i] = region.getOffset();
+            fastDigests[i] = fastDigest;
+            slowDigests.add(slowDigest);
+        }
+        return new Snapshot(digestVersion, MerkleTree.layoutHash(regions), new MerkleTree(slowDigests),
+                offsets, fastDigests);
+    }
+
+    /**
+     * A tree along with the region offsets and fast digests it was built
+     * from, so that regions found in sync are given the digests that were
+     * actually compared.
+     */
+    public static class Snapshot {
+        final long digestVersion;
+        public final byte[] layoutHash;
+        public final MerkleTree tree;
+        public final long[] offsets;
+        public final int[] fastDigests;
+
+        Snapshot(long digestVersion, byte[] layoutHash, MerkleTree tree, long[] offsets, int[] fastDigests) {
+            this.digestVersion = digestVersion;
+            this.layoutHash = layoutHash;
+            this.tree = tree;
+            this.offsets = offsets;
+            this.fastDigests = fastDigests;
+        }
+    }
+}
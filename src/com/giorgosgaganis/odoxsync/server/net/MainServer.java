@@ -18,6 +18,7 @@
  */
 package com.giorgosgaganis.odoxsync.server.net;
 
+import static com.giorgosgaganis.odoxsync.utils.Contants.MAX_REGION_STREAMS;
 import static com.giorgosgaganis.odoxsync.utils.LoggingUtils.configureLogging;
 
 import java.io.IOException;
@@ -27,8 +28,11 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.logging.Logger;
 
+import com.giorgosgaganis.odoxsync.messages.DigestBatchProvider;
 import com.giorgosgaganis.odoxsync.server.DirectorySynchronizer;
 import org.glassfish.grizzly.http.server.HttpServer;
+import org.glassfish.grizzly.http.server.NetworkListener;
+import org.glassfish.grizzly.threadpool.ThreadPoolConfig;
 import org.glassfish.jersey.grizzly2.httpserver.GrizzlyHttpServerFactory;
 import org.glassfish.jersey.server.ResourceConfig;
 
@@ -44,12 +48,23 @@ public class MainServer {
         DirectorySynchronizer.INSTANCE.start(workingDirectory);
         // create a resource config that scans for JAX-RS resources and providers
         // in com.example package
-        final ResourceConfig rc = new ResourceConfig().packages("com.giorgosgaganis.odoxsync.server.net.resources");
+        final ResourceConfig rc = new ResourceConfig().packages("com.giorgosgaganis.odoxsync.server.net.resources")
+                .register(DigestBatchProvider.class);
 
 
         // create and start a new instance of grizzly http server
         // exposing the Jersey application at BASE_URI
-        return GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URI), rc);
+        HttpServer server = GrizzlyHttpServerFactory.createHttpServer(URI.create(BASE_URI), rc, false);
+
+        // Open region streams each hold a worker thread, leave room for them
+        int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+        for (NetworkListener listener : server.getListeners()) {
+            listener.getTransport().setWorkerThreadPoolConfig(ThreadPoolConfig.defaultConfig()
+                    .setCorePoolSize(workerThreads)
+                    .setMaxPoolSize(workerThreads + MAX_REGION_STREAMS));
+        }
+        server.start();
+        return server;
     }
 
     public static void main(String[] args) throws IOException {
@@ -19,8 +19,10 @@
 package com.giorgosgaganis.odoxsync.server.net.resources;
 
 import com.giorgosgaganis.odoxsync.messages.ClientFastDigestMessage;
+import com.giorgosgaganis.odoxsync.messages.DigestBatchFormat;
 import com.giorgosgaganis.odoxsync.server.DirectorySynchronizer;
 
+import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
@@ -31,6 +33,7 @@ import java.util.List;
 public class ClientFastDigestMessageEndpoint {
 
     @POST
+    @Consumes({MediaType.APPLICATION_JSON, DigestBatchFormat.DIGEST_BATCH})
     @Produces(MediaType.APPLICATION_JSON)
     public Integer getIt(List<ClientFastDigestMessage> clientFastDigestMessage) {
         try {
@@ -25,6 +25,7 @@ import com.giorgosgaganis.odoxsync.server.FileModifiedComparator;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import java.util.Collection;
 import java.util.stream.Collectors;
@@ -34,8 +35,10 @@ public class Files {
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    public Collection<File> getIt() {
-        Collection<File> files = DirectorySynchronizer.INSTANCE.files.values();
+    public Collection<File> getIt(@QueryParam("directory") String directory) {
+        Collection<File> files = directory == null
+                ? DirectorySynchronizer.INSTANCE.files.values()
+                : DirectorySynchronizer.INSTANCE.files.getTree().getFiles(directory);
 
         return files
                 .stream()
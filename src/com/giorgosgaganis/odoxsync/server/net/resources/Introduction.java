@@ -18,12 +18,17 @@
  */
 package com.giorgosgaganis.odoxsync.server.net.resources;
 
+import com.giorgosgaganis.odoxsync.messages.Capabilities;
+import com.giorgosgaganis.odoxsync.messages.NegotiatedSettings;
 import com.giorgosgaganis.odoxsync.server.DirectorySynchronizer;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
 
 @Path("introduction")
 public class Introduction {
@@ -31,7 +36,21 @@ public class Introduction {
     @GET
     @Produces(MediaType.APPLICATION_JSON)
     public Integer getIt() {
-        int clientId = DirectorySynchronizer.INSTANCE.setupClient();
-        return clientId;
+        try {
+            int clientId = DirectorySynchronizer.INSTANCE.setupClient();
+            return clientId;
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e.getMessage(), Response.Status.CONFLICT);
+        }
+    }
+
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    public NegotiatedSettings introduce(Capabilities capabilities) {
+        try {
+            return DirectorySynchronizer.INSTANCE.introduce(capabilities);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e.getMessage(), Response.Status.CONFLICT);
+        }
     }
 }
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.net.resources;
+
+import com.giorgosgaganis.odoxsync.messages.MerkleMessage;
+import com.giorgosgaganis.odoxsync.messages.MerkleReply;
+import com.giorgosgaganis.odoxsync.server.DirectorySynchronizer;
+
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+@Path("merkle")
+public class MerkleEndpoint {
+
+    @POST
+    @Produces(MediaType.APPLICATION_JSON)
+    public MerkleReply getIt(MerkleMessage merkleMessage) {
+        try {
+            return DirectorySynchronizer.INSTANCE.compareMerkleNodes(merkleMessage);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return MerkleReply.notReady();
+        }
+    }
+}
@@ -21,6 +21,7 @@ package com.giorgosgaganis.odoxsync.server.net.resources;
 import com.giorgosgaganis.odoxsync.Client;
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.server.DirectorySynchronizer;
+import com.giorgosgaganis.odoxsync.server.files.FileCatalog;
 
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -67,7 +68,7 @@ public class Progress {
     @Produces(MediaType.APPLICATION_JSON)
     public Map<Integer, List<FileProgress>> getIt() {
         ConcurrentHashMap<Integer, Client> clients = DirectorySynchronizer.INSTANCE.clients;
-        ConcurrentHashMap<Integer, File> serverFiles = DirectorySynchronizer.INSTANCE.files;
+        FileCatalog serverFiles = DirectorySynchronizer.INSTANCE.files;
 
         Map<Integer, List<FileProgress>> result = new HashMap<>();
 
@@ -79,7 +80,7 @@ public class Progress {
         return result;
     }
 
-    private List<FileProgress> getFileProgresses(ConcurrentHashMap<Integer, File> serverFiles, Client client) {
+    private List<FileProgress> getFileProgresses(FileCatalog serverFiles, Client client) {
         List<FileProgress> fileProgresses = new ArrayList<>();
         ConcurrentHashMap<Integer, File> files = client.getFiles();
         for (File file : files.values()
@@ -103,7 +104,7 @@ public class Progress {
     @Produces(MediaType.APPLICATION_JSON)
     public List<FileProgress> getForClient(@PathParam("id") int id) {
         ConcurrentHashMap<Integer, Client> clients = DirectorySynchronizer.INSTANCE.clients;
-        ConcurrentHashMap<Integer, File> serverFiles = DirectorySynchronizer.INSTANCE.files;
+        FileCatalog serverFiles = DirectorySynchronizer.INSTANCE.files;
 
         return getFileProgresses(serverFiles, clients.get(id));
     }
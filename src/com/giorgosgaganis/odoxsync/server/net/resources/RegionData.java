@@ -20,9 +20,13 @@ package com.giorgosgaganis.odoxsync.server.net.resources;
 
 import com.giorgosgaganis.odoxsync.Client;
 import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.codec.RegionCodec;
+import com.giorgosgaganis.odoxsync.messages.NegotiatedSettings;
 import com.giorgosgaganis.odoxsync.server.DirectorySynchronizer;
 import com.giorgosgaganis.odoxsync.server.candidates.TransferCandidate;
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
 import com.giorgosgaganis.odoxsync.utils.Statistics;
+import com.google.common.io.CountingOutputStream;
 import org.glassfish.grizzly.http.server.Response;
 
 import javax.ws.rs.GET;
@@ -31,10 +35,13 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.nio.MappedByteBuffer;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.*;
+import java.util.Base64;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -43,6 +50,10 @@ import java.util.logging.Logger;
 public class RegionData {
     private static final Logger logger = Logger.getLogger(RegionData.class.getName());
 
+    private static final int CHUNK_SIZE = 0x100000;
+
+    private static final int SAMPLE_SIZE = 0x10000;
+
     @Context
     Response response;
 
@@ -75,35 +86,33 @@ public class RegionData {
             response.addHeader("size", transferCandidate.getSize().toString());
 
 
+            if (transferCandidate.isCopyLocal()) {
+                response.addHeader("copyLocal", "copyLocal");
+                response.addHeader("sourceFileId", String.valueOf(transferCandidate.getSource().fileId));
+                response.addHeader("sourceOffset", String.valueOf(transferCandidate.getSource().offset));
+                response.addHeader("slowDigest", Base64.getEncoder().encodeToString(transferCandidate.getSlowDigest()));
+                return outputStream -> {
+                };
+            }
+
             File file = directorySynchronizer.files.get(transferCandidate.getFileId());
 
-            return outputStream -> {
-                java.nio.file.Path filePath = Paths.get(directorySynchronizer.workingDirectory, file.getName());
+            if (directorySynchronizer.isZeroRegion(
+                    file, transferCandidate.getOffset(), transferCandidate.getSize())) {
+                response.addHeader("zeroRegion", "zeroRegion");
+                return outputStream -> {
+                };
+            }
+
+            java.nio.file.Path filePath = Paths.get(directorySynchronizer.workingDirectory, file.getName());
+            RegionCodec codec = regionCodec(client, filePath, transferCandidate);
+            response.addHeader("codec", codec.getName());
 
+            return outputStream -> {
                 if(!java.nio.file.Files.exists(filePath)){
                     return;
                 }
-
-                try (
-                        RandomAccessFile randomAccessFile = new RandomAccessFile(filePath.toFile(), "r");
-                        FileChannel channel = randomAccessFile.getChannel()
-                ) {
-                    MappedByteBuffer mappedByteBuffer = channel.map(FileChannel.MapMode.READ_ONLY, transferCandidate.getOffset(), transferCandidate.getSize());
-                    byte[] arrays = new byte[mappedByteBuffer.remaining()];
-                    do {
-                        mappedByteBuffer.get(arrays);
-                        outputStream.write(arrays);
-                    } while (mappedByteBuffer.hasRemaining());
-
-                    Statistics.INSTANCE
-                            .bytesTransferred.addAndGet(arrays.length);
-                } catch (Exception e) {
-                    logger.log(Level.SEVERE, "data transmision failed", e);
-                    e.printStackTrace();
-                } catch (Error e) {
-                    logger.log(Level.SEVERE, "data transmision failed", e);
-                    e.printStackTrace();
-                }
+                sendRegion(filePath, transferCandidate, codec, outputStream);
             };
         } catch (Exception e) {
             e.printStackTrace();
@@ -111,4 +120,75 @@ public class RegionData {
         return outputStream -> {
         };
     }
+
+    /**
+     * Streams the bytes of a region encoded with the codec. Closing the
+     * encoded stream leaves the output stream open, so that more can follow.
+     */
+    static void sendRegion(java.nio.file.Path filePath, TransferCandidate transferCandidate,
+                           RegionCodec codec, OutputStream outputStream) {
+        CountingOutputStream sentStream = new CountingOutputStream(outputStream);
+        long rawBytes = 0;
+        ByteBuffer buffer = null;
+        try (
+                RandomAccessFile randomAccessFile = new RandomAccessFile(filePath.toFile(), "r");
+                FileChannel channel = randomAccessFile.getChannel();
+                OutputStream regionStream = codec.compress(sentStream)
+        ) {
+            // Large regions are sent in pieces so that they do not need a buffer of their own size
+            int chunkSize = (int) Math.min(transferCandidate.getSize(), CHUNK_SIZE);
+            buffer = BufferPool.INSTANCE.borrow(chunkSize);
+            long position = transferCandidate.getOffset();
+            long end = position + transferCandidate.getSize();
+            int read = 0;
+            while (position < end && read >= 0) {
+                buffer.clear();
+                buffer.limit((int) Math.min(chunkSize, end - position));
+                do {
+                    read = channel.read(buffer, position + buffer.position());
+                } while (read >= 0 && buffer.hasRemaining());
+                regionStream.write(buffer.array(), 0, buffer.position());
+                position += buffer.position();
+                rawBytes += buffer.position();
+
+                Statistics.INSTANCE
+                        .bytesTransferred.addAndGet(buffer.position());
+            }
+        } catch (Exception e) {
+            logger.log(Level.SEVERE, "data transmision failed", e);
+            e.printStackTrace();
+        } catch (Error e) {
+            logger.log(Level.SEVERE, "data transmision failed", e);
+            e.printStackTrace();
+        } finally {
+            BufferPool.INSTANCE.release(buffer);
+            if (codec != RegionCodec.IDENTITY) {
+                Statistics.INSTANCE.bytesUncompressed.addAndGet(rawBytes);
+                Statistics.INSTANCE.bytesCompressed.addAndGet(sentStream.getCount());
+            }
+        }
+    }
+
+    /**
+     * The codec negotiated with the client, unless a sample from the start
+     * of the region does not compress.
+     */
+    static RegionCodec regionCodec(Client client, java.nio.file.Path filePath, TransferCandidate transferCandidate) {
+        NegotiatedSettings settings = client.getSettings();
+        RegionCodec codec = settings == null ? RegionCodec.IDENTITY : RegionCodec.forName(settings.getCodec());
+        if (codec == RegionCodec.IDENTITY) {
+            return codec;
+        }
+
+        ByteBuffer sample = ByteBuffer.allocate((int) Math.min(SAMPLE_SIZE, transferCandidate.getSize()));
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            int read = 0;
+            while (read >= 0 && sample.hasRemaining()) {
+                read = channel.read(sample, transferCandidate.getOffset() + sample.position());
+            }
+        } catch (IOException e) {
+            return RegionCodec.IDENTITY;
+        }
+        return codec.compresses(sample.array(), sample.position()) ? codec : RegionCodec.IDENTITY;
+    }
 }
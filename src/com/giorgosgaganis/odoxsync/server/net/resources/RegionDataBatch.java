@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.net.resources;
+
+import com.giorgosgaganis.odoxsync.Client;
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.codec.RegionCodec;
+import com.giorgosgaganis.odoxsync.messages.RegionFrameFormat;
+import com.giorgosgaganis.odoxsync.server.DirectorySynchronizer;
+import com.giorgosgaganis.odoxsync.server.candidates.TransferCandidate;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Sends several regions from the queue of a client in one response, framed
+ * by {@link RegionFrameFormat}, so that each region does not cost a request
+ * of its own.
+ */
+@Path("regiondatabatch")
+public class RegionDataBatch {
+    private static final Logger logger = Logger.getLogger(RegionDataBatch.class.getName());
+
+    public static final int MAX_REGIONS = 64;
+    public static final long MAX_BYTES = 0x4000000;
+
+    private static final int BUFFER_SIZE = 0x10000;
+
+    @Context
+    HttpHeaders httpHeaders;
+
+    @GET
+    @Produces({"application/octet-stream"})
+    public StreamingOutput getIt() throws InterruptedException {
+        DirectorySynchronizer directorySynchronizer = DirectorySynchronizer.INSTANCE;
+
+        Client client = requestingClient(directorySynchronizer, httpHeaders);
+        List<TransferCandidate> transferCandidates = Collections.emptyList();
+        try {
+            transferCandidates = poll(client, 2000);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        Client batchClient = client;
+        List<TransferCandidate> batch = transferCandidates;
+        return outputStream -> {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+            writeBatch(directorySynchronizer, batchClient, batch, output);
+            RegionFrameFormat.writeEnd(output);
+        };
+    }
+
+    /**
+     * The client named by the request. An unknown client, e.g. one that
+     * introduced itself before the server restarted, is answered with 404
+     * so that it does not take an empty batch and ask again at once.
+     */
+    static Client requestingClient(DirectorySynchronizer directorySynchronizer, HttpHeaders httpHeaders) {
+        Client client = null;
+        try {
+            client = directorySynchronizer.clients.get(Integer.valueOf(httpHeaders.getHeaderString("clientId")));
+        } catch (NumberFormatException e) {
+            logger.fine("Invalid client id [" + httpHeaders.getHeaderString("clientId") + "]");
+        }
+        if (client == null) {
+            throw new WebApplicationException("Unknown client", Response.Status.NOT_FOUND);
+        }
+        return client;
+    }
+
+    /**
+     * Waits for a first region like a single region request does and then
+     * takes whatever else is queued, up to the limits of a batch.
+     */
+    static List<TransferCandidate> poll(Client client, long waitMillis) throws InterruptedException {
+        List<TransferCandidate> transferCandidates = new ArrayList<>();
+        long bytes = 0;
+        TransferCandidate transferCandidate = client.transferCandidateQueueWrapper.poll(waitMillis, TimeUnit.MILLISECONDS);
+        while (transferCandidate != null) {
+            transferCandidate.setOfferedTimeMillis(System.currentTimeMillis());
+            client.offeredTransferCandidates.add(transferCandidate);
+            transferCandidates.add(transferCandidate);
+            bytes += transferCandidate.getSize();
+
+            transferCandidate = transferCandidates.size() < MAX_REGIONS && bytes < MAX_BYTES
+                    ? client.transferCandidateQueueWrapper.poll(0, TimeUnit.MILLISECONDS)
+                    : null;
+        }
+        logger.fine("Sending batch of [" + transferCandidates.size() + "] regions, [" + bytes + "] bytes");
+        return transferCandidates;
+    }
+
+    /**
+     * Writes the regions of a batch in order. The offers of the regions still
+     * waiting are renewed as each region is written, so that the end of a
+     * large batch on a slow link does not expire, and get queued again,
+     * while the start is being sent.
+     */
+    static void writeBatch(DirectorySynchronizer directorySynchronizer, Client client,
+                           List<TransferCandidate> batch, DataOutputStream output) throws IOException {
+        for (int i = 0; i < batch.size(); i++) {
+            long now = System.currentTimeMillis();
+            for (TransferCandidate waiting : batch.subList(i, batch.size())) {
+                waiting.setOfferedTimeMillis(now);
+            }
+            writeRegion(directorySynchronizer, client, batch.get(i), output);
+        }
+    }
+
+    private static void writeRegion(DirectorySynchronizer directorySynchronizer, Client client,
+                            TransferCandidate transferCandidate, DataOutputStream output) throws IOException {
+        int fileId = transferCandidate.getFileId();
+        long offset = transferCandidate.getOffset();
+        long size = transferCandidate.getSize();
+
+        if (transferCandidate.isCopyLocal()) {
+            RegionFrameFormat.writeCopyLocal(output, fileId, offset, size,
+                    transferCandidate.getSource().fileId, transferCandidate.getSource().offset,
+                    transferCandidate.getSlowDigest());
+            return;
+        }
+
+        File file = directorySynchronizer.files.get(fileId);
+        if (file == null) {
+            // Removed since it was queued, the offer expires unanswered
+            return;
+        }
+        if (isZeroRegion(directorySynchronizer, file, offset, size)) {
+            RegionFrameFormat.writeZero(output, fileId, offset, size);
+            return;
+        }
+
+        java.nio.file.Path filePath = Paths.get(directorySynchronizer.workingDirectory, file.getName());
+        RegionCodec codec = RegionData.regionCodec(client, filePath, transferCandidate);
+        RegionFrameFormat.writeData(output, fileId, offset, size, codec.getName());
+        OutputStream dataStream = RegionFrameFormat.dataOutput(output);
+        if (java.nio.file.Files.exists(filePath)) {
+            RegionData.sendRegion(filePath, transferCandidate, codec, dataStream);
+        }
+        dataStream.close();
+    }
+
+    private static boolean isZeroRegion(DirectorySynchronizer directorySynchronizer, File file, long offset, long size) {
+        try {
+            return directorySynchronizer.isZeroRegion(file, offset, size);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.net.resources;
+
+import com.giorgosgaganis.odoxsync.Client;
+import com.giorgosgaganis.odoxsync.messages.RegionFrameFormat;
+import com.giorgosgaganis.odoxsync.server.DirectorySynchronizer;
+import com.giorgosgaganis.odoxsync.server.candidates.TransferCandidate;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+import static com.giorgosgaganis.odoxsync.utils.Contants.MAX_REGION_STREAMS;
+
+/**
+ * Keeps the response open and pushes regions to the client, framed by
+ * {@link RegionFrameFormat}, as soon as they are queued for it, instead of
+ * the client polling for them.
+ *
+ * Every open stream holds a server thread, so only so many are let in at a
+ * time. A client over the limit gets a single batch and the stream ends.
+ * Streams also end after a while so that the thread of a client that went
+ * away without closing its connection is reclaimed.
+ */
+@Path("regionstream")
+public class RegionStream {
+    private static final Logger logger = Logger.getLogger(RegionStream.class.getName());
+
+    public static final long HEARTBEAT_MILLIS = 10000;
+    public static final long STREAM_MILLIS = 300000;
+
+    private static final int BUFFER_SIZE = 0x10000;
+
+    private static final Semaphore streams = new Semaphore(MAX_REGION_STREAMS);
+
+    @Context
+    HttpHeaders httpHeaders;
+
+    @GET
+    @Produces({"application/octet-stream"})
+    public StreamingOutput getIt() {
+        DirectorySynchronizer directorySynchronizer = DirectorySynchronizer.INSTANCE;
+
+        Client client = RegionDataBatch.requestingClient(directorySynchronizer, httpHeaders);
+        return outputStream -> {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+            boolean streaming = streams.tryAcquire();
+            try {
+                stream(directorySynchronizer, client, streaming, output);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                if (streaming) {
+                    streams.release();
+                }
+            }
+            RegionFrameFormat.writeEnd(output);
+        };
+    }
+
+    /**
+     * Sends batches as they are queued until the stream has been open long
+     * enough. Only one batch is sent when the stream was not let in.
+     */
+    private static void stream(DirectorySynchronizer directorySynchronizer, Client client,
+                               boolean streaming, DataOutputStream output) throws IOException, InterruptedException {
+        logger.fine("Opening region stream for client [" + client.getId() + "], streaming [" + streaming + "]");
+        long end = System.currentTimeMillis() + STREAM_MILLIS;
+        do {
+            List<TransferCandidate> batch = RegionDataBatch.poll(client, streaming ? HEARTBEAT_MILLIS : 2000);
+            if (batch.isEmpty()) {
+                RegionFrameFormat.writeHeartbeat(output);
+            }
+            RegionDataBatch.writeBatch(directorySynchronizer, client, batch, output);
+            output.flush();
+        } while (streaming && System.currentTimeMillis() < end);
+    }
+}
@@ -21,6 +21,7 @@ package com.giorgosgaganis.odoxsync.server.status;
 import com.giorgosgaganis.odoxsync.Client;
 import com.giorgosgaganis.odoxsync.File;
 import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.server.files.FileCatalog;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -37,11 +38,11 @@ public class RegionWalker {
     private static final Logger logger = Logger.getLogger(RegionWalker.class.getName());
 
 
-    private final ConcurrentHashMap<Integer, File> files;
+    private final FileCatalog files;
     private final ConcurrentHashMap<Integer, Client> clients;
 
 
-    public RegionWalker(ConcurrentHashMap<Integer, File> files,
+    public RegionWalker(FileCatalog files,
                         ConcurrentHashMap<Integer, Client> clients) {
         this.files = files;
         this.clients = clients;
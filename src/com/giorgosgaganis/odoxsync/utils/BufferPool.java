@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.giorgosgaganis.odoxsync.utils.Contants.BUFFER_POOL_BUDGET;
+
+/**
+ * Process wide pool of heap buffers with a fixed memory budget.
+ *
+ * Every array the pool owns, leased or idle, counts against the budget.
+ * When a borrow does not fit, idle arrays are dropped to make room and if
+ * that is still not enough the caller blocks until other buffers are
+ * released.
+ */
+public class BufferPool {
+    public static final BufferPool INSTANCE = new BufferPool(BUFFER_POOL_BUDGET);
+
+    private static final int SMALL_CLASS_LIMIT = 0x100000;
+
+    private final long budget;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    private final TreeMap<Integer, ArrayDeque<byte[]>> idleArrays = new TreeMap<>();
+    private final Set<byte[]> leasedArrays = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private long allocatedBytes = 0;
+    private long leasedBytes = 0;
+
+    public BufferPool(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Returns a buffer positioned at 0 with its limit set to {@code size}.
+     * The backing array may be larger than requested.
+     */
+    public ByteBuffer borrow(int size) throws InterruptedException {
+        int capacity = capacityFor(size);
+
+        lock.lockInterruptibly();
+        try {
+            byte[] array = takeIdle(capacity);
+            while (array == null) {
+                if (makeRoomFor(capacity)) {
+                    array = new byte[capacity];
+                    allocatedBytes += capacity;
+                } else {
+                    released.await();
+                    array = takeIdle(capacity);
+                }
+            }
+            leasedArrays.add(array);
+            leasedBytes += array.length;
+
+            ByteBuffer buffer = ByteBuffer.wrap(array);
+            buffer.limit(size);
+            return buffer;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.hasArray()) {
+            return;
+        }
+        byte[] array = buffer.array();
+
+        lock.lock();
+        try {
+            if (leasedArrays.remove(array)) {
+                leasedBytes -= array.length;
+                idleArrays.computeIfAbsent(array.length, k -> new ArrayDeque<>()).push(array);
+                released.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Bytes that could be borrowed right now without blocking, counting idle
+     * arrays as reclaimable.
+     */
+    public long getAvailableBytes() {
+        lock.lock();
+        try {
+            return Math.max(0, budget - leasedBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private byte[] takeIdle(int capacity) {
+        ArrayDeque<byte[]> arrays = idleArrays.get(capacity);
+        if (arrays == null) {
+            return null;
+        }
+        byte[] array = arrays.pop();
+        if (arrays.isEmpty()) {
+            idleArrays.remove(capacity);
+        }
+        return array;
+    }
+
+    /**
+     * Frees idle arrays until {@code capacity} fits in the budget. A request
+     * larger than the whole budget is only let through when nothing else
+     * is allocated so that it can not starve forever.
+     */
+    private boolean makeRoomFor(int capacity) {
+        while (allocatedBytes + capacity > budget && !idleArrays.isEmpty()) {
+            Map.Entry<Integer, ArrayDeque<byte[]>> largest = idleArrays.lastEntry();
+            ArrayDeque<byte[]> arrays = largest.getValue();
+            allocatedBytes -= arrays.pop().length;
+            if (arrays.isEmpty()) {
+                idleArrays.remove(largest.getKey());
+            }
+        }
+        return allocatedBytes + capacity <= budget || allocatedBytes == 0;
+    }
+
+    /**
+     * Rounds small sizes to a power of two and large ones to a whole number
+     * of megabytes so that arrays can be reused between similar requests.
+     */
+    static int capacityFor(int size) {
+        if (size <= SMALL_CLASS_LIMIT) {
+            return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+        }
+        return Math.toIntExact(((long) size + SMALL_CLASS_LIMIT - 1) / SMALL_CLASS_LIMIT * SMALL_CLASS_LIMIT);
+    }
+}
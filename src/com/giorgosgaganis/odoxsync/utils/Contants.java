@@ -23,4 +23,134 @@ package com.giorgosgaganis.odoxsync.utils;
  */
 public class Contants {
     public static final long REGION_SIZE = 0x100000;
+
+    /**
+     * Scan files through memory mapped windows instead of copying every
+     * batch into a heap array. Enabled with {@code -Dodoxsync.scan.mapped=true}.
+     */
+    public static final boolean MAPPED_SCAN = Boolean.getBoolean("odoxsync.scan.mapped");
+    public static final long MAPPED_WINDOW_SIZE = Long.getLong("odoxsync.scan.mappedWindowSize", 64 * REGION_SIZE);
+
+    /**
+     * Upper bound in bytes for all scan and transfer buffers held by the
+     * process, see {@link BufferPool}.
+     */
+    public static final long BUFFER_POOL_BUDGET = Long.getLong("odoxsync.buffers.budget", 256 * REGION_SIZE);
+
+    /**
+     * Hash the batches of a single large file concurrently during slow
+     * scans. Enabled with {@code -Dodoxsync.scan.parallel=true}.
+     */
+    public static final boolean PARALLEL_SCAN = Boolean.getBoolean("odoxsync.scan.parallel");
+    public static final long PARALLEL_SCAN_MIN_FILE_SIZE = Long.getLong("odoxsync.scan.parallelMinFileSize", 1024 * REGION_SIZE);
+    public static final int PARALLEL_SCAN_THREADS = Integer.getInteger("odoxsync.scan.parallelThreads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Number of batches a reader thread may read ahead of the batch being
+     * hashed during sequential scans. Zero reads and hashes on one thread.
+     */
+    public static final int SCAN_PIPELINE_DEPTH = Integer.getInteger("odoxsync.scan.pipelineDepth", 0);
+
+    /**
+     * Produce fast digests from the bytes read by slow scans instead of
+     * reading each region sample a second time.
+     */
+    public static final boolean COMBINED_SCAN = Boolean.getBoolean("odoxsync.scan.combined");
+
+    /**
+     * Find changed files on the server through file system notifications
+     * instead of walking the tree every 30 seconds.
+     */
+    public static final boolean WATCH_CHANGES = Boolean.getBoolean("odoxsync.watch");
+
+    /**
+     * Number of threads listing directories when the server walks its tree.
+     * With 1 the tree is walked sequentially.
+     */
+    public static final int WALK_PARALLELISM = Integer.getInteger("odoxsync.walk.parallelism", 1);
+    public static final int WALK_PER_DEVICE_LIMIT = Integer.getInteger("odoxsync.walk.perDeviceLimit", WALK_PARALLELISM);
+
+    /**
+     * File in which the server keeps its digests across restarts, see
+     * {@link com.giorgosgaganis.odoxsync.server.files.DigestStore}. Not kept
+     * when unset.
+     */
+    public static final String DIGEST_STORE = System.getProperty("odoxsync.digestStore");
+
+    /**
+     * Let the client remember the digests of its files in the working
+     * directory so unchanged files are not read again after a restart.
+     */
+    public static final boolean CLIENT_DIGEST_CACHE = Boolean.getBoolean("odoxsync.client.digestCache");
+
+    /**
+     * Cut files into regions at content defined boundaries instead of every
+     * {@link #REGION_SIZE} bytes, see
+     * {@link com.giorgosgaganis.odoxsync.ContentDefinedChunker}.
+     */
+    public static final boolean CDC_REGIONS = Boolean.getBoolean("odoxsync.regions.cdc");
+    public static final long CDC_AVG_SIZE = Long.getLong("odoxsync.regions.cdcAvgSize", REGION_SIZE);
+    public static final long CDC_MIN_SIZE = Long.getLong("odoxsync.regions.cdcMinSize", CDC_AVG_SIZE / 4);
+    public static final long CDC_MAX_SIZE = Long.getLong("odoxsync.regions.cdcMaxSize", CDC_AVG_SIZE * 4);
+
+    /**
+     * Region size by file size and by path, see
+     * {@link com.giorgosgaganis.odoxsync.RegionSizePolicy}. Files up to 64GB
+     * use {@link #REGION_SIZE} when unset.
+     */
+    public static final String REGION_SIZE_TIERS = System.getProperty("odoxsync.regions.sizeTiers");
+    public static final String REGION_SIZE_OVERRIDES = System.getProperty("odoxsync.regions.sizeOverrides");
+
+    /**
+     * Let the client look for the blocks of changed server files anywhere in
+     * its own copy and move them into place before asking for the rest.
+     */
+    public static final boolean BLOCK_MATCHING = Boolean.getBoolean("odoxsync.client.blockMatching");
+
+    /**
+     * Let clients report the digests of a scanned file by comparing hash
+     * trees with the server instead of sending every region digest.
+     */
+    public static final boolean MERKLE_SYNC = Boolean.getBoolean("odoxsync.merkle");
+
+    /**
+     * Compare hash trees of the directories so that the server only looks
+     * for transfers, and clients only list files, under the directories
+     * that changed.
+     */
+    public static final boolean DIRECTORY_TREE = Boolean.getBoolean("odoxsync.directoryTree");
+
+    /**
+     * How the server calculates fast digests, {@code sample} for the sum of
+     * the end of each region or {@code crc32c} for a checksum of the whole
+     * region. Clients use the algorithm of the server.
+     */
+    public static final String FAST_DIGEST = System.getProperty("odoxsync.fastDigest", "sample");
+
+    /**
+     * How the server calculates slow digests, {@code sha256},
+     * {@code murmur3} or {@code sha256-tree}. Clients use the algorithm of
+     * the server.
+     */
+    public static final String STRONG_DIGEST = System.getProperty("odoxsync.strongDigest", "sha256");
+
+    /**
+     * Have clients copy regions they already hold in another of their files,
+     * found by slow digest, instead of transferring them.
+     */
+    public static final boolean COPY_LOCAL = Boolean.getBoolean("odoxsync.copyLocal");
+
+    /**
+     * On the client, the codec the server is asked to compress region data
+     * with, {@code deflate-fast} or {@code deflate-best}. Region data is not
+     * compressed by default.
+     */
+    public static final String COMPRESSION = System.getProperty("odoxsync.compression", "identity");
+
+    /**
+     * On the server, how many clients at a time can keep a stream open to
+     * have regions pushed to them as soon as they are queued. Other clients
+     * request regions a batch at a time.
+     */
+    public static final int MAX_REGION_STREAMS = Integer.getInteger("odoxsync.maxRegionStreams", 64);
 }
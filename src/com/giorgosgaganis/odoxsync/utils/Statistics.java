@@ -25,6 +25,13 @@ public class Statistics {
 
 
     public AtomicLong bytesTransferred = new AtomicLong(0);
+    public AtomicLong bytesCopiedLocally = new AtomicLong(0);
+    /**
+     * Region bytes sent with a compressing codec, before and after
+     * compression.
+     */
+    public AtomicLong bytesUncompressed = new AtomicLong(0);
+    public AtomicLong bytesCompressed = new AtomicLong(0);
     public AtomicLong bytesReadFast = new AtomicLong(0);
     public AtomicLong bytesReadSlow = new AtomicLong(0);
 
@@ -49,6 +56,16 @@ public class Statistics {
                 + "], bytes/s [" + humanReadableByteCount(bytesPerSecond, false) + "]");
     }
 
+    public static void printCompression() {
+        long uncompressed = INSTANCE.bytesUncompressed.get();
+        if (uncompressed > 0) {
+            long compressed = INSTANCE.bytesCompressed.get();
+            System.out.println("compressed bytes [" + humanReadableByteCount(compressed, false)
+                    + "] of [" + humanReadableByteCount(uncompressed, false)
+                    + "], ratio [" + compressed * 100 / uncompressed + "%]");
+        }
+    }
+
     public static String humanReadableByteCount(long bytes, boolean si) {
         int unit = si ? 1000 : 1024;
         if (bytes < unit) return bytes + " B";
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ContentDefinedChunkerTest {
+
+    private final ContentDefinedChunker chunker = new ContentDefinedChunker(1024, 4096, 16384);
+
+    @Test
+    public void chunks_cover_the_data_within_bounds() throws IOException {
+        byte[] data = randomBytes(1_000_000);
+
+        List<long[]> chunks = chunk(data);
+
+        long expectedOffset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            long[] chunk = chunks.get(i);
+            assertThat(chunk[0]).isEqualTo(expectedOffset);
+            assertThat(chunk[1]).isLessThanOrEqualTo(16384);
+            if (i < chunks.size() - 1) {
+                assertThat(chunk[1]).isGreaterThanOrEqualTo(1024);
+            }
+            expectedOffset += chunk[1];
+        }
+        assertThat(expectedOffset).isEqualTo(data.length);
+    }
+
+    @Test
+    public void empty_data_is_one_empty_chunk() throws IOException {
+        List<long[]> chunks = chunk(new byte[0]);
+
+        assertThat(chunks).hasSize(1);
+        assertThat(chunks.get(0)[1]).isEqualTo(0);
+    }
+
+    @Test
+    public void insertion_only_moves_nearby_boundaries() throws IOException {
+        byte[] data = randomBytes(1_000_000);
+        byte[] shifted = new byte[data.length + 3];
+        System.arraycopy(data, 0, shifted, 3, data.length);
+
+        List<Long> boundaries = ends(chunk(data), 0);
+        List<Long> shiftedBoundaries = ends(chunk(shifted), 3);
+
+        boundaries.retainAll(shiftedBoundaries);
+        assertThat(boundaries.size()).isGreaterThan(shiftedBoundaries.size() - 3);
+    }
+
+    private List<long[]> chunk(byte[] data) throws IOException {
+        List<long[]> chunks = new ArrayList<>();
+        chunker.chunk(Channels.newChannel(new ByteArrayInputStream(data)),
+                (offset, size) -> chunks.add(new long[]{offset, size}));
+        return chunks;
+    }
+
+    private static List<Long> ends(List<long[]> chunks, long shift) {
+        List<Long> ends = new ArrayList<>();
+        for (long[] chunk : chunks) {
+            ends.add(chunk[0] + chunk[1] - shift);
+        }
+        return ends;
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        new Random(7).nextBytes(data);
+        return data;
+    }
+}
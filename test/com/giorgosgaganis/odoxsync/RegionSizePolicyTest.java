@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RegionSizePolicyTest {
+
+    @Test
+    public void picks_the_tier_of_the_file_size() {
+        RegionSizePolicy policy = new RegionSizePolicy("0=1M;64G=16M;1T=64M", null);
+
+        assertThat(policy.regionSizeFor("a", 2048)).isEqualTo(1L << 20);
+        assertThat(policy.regionSizeFor("a", (64L << 30) - 1)).isEqualTo(1L << 20);
+        assertThat(policy.regionSizeFor("a", 64L << 30)).isEqualTo(16L << 20);
+        assertThat(policy.regionSizeFor("a", 10L << 40)).isEqualTo(64L << 20);
+    }
+
+    @Test
+    public void path_overrides_win_over_tiers() {
+        RegionSizePolicy policy = new RegionSizePolicy("0=1M", "**.iso=16M;logs/**=256K");
+
+        assertThat(policy.regionSizeFor("images/disk.iso", 2048)).isEqualTo(16L << 20);
+        assertThat(policy.regionSizeFor("logs/app/out.log", 1L << 30)).isEqualTo(256L << 10);
+        assertThat(policy.regionSizeFor("data/out.log", 1L << 30)).isEqualTo(1L << 20);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejects_invalid_sizes() {
+        new RegionSizePolicy("0=lots", null);
+    }
+}
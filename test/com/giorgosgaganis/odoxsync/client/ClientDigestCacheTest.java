@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.client;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.RegionCalculator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClientDigestCacheTest {
+
+    @Test
+    public void scanned_file_is_found_after_reopening() throws IOException {
+        Path directory = Files.createTempDirectory("cache");
+        File file = newFile(directory, "a.bin", 0x180000);
+
+        ClientDigestCache digestCache = ClientDigestCache.open(directory);
+        ClientDigestCache.Recording recording = digestCache.recordingFor(file);
+        for (Region region : file.getRegions().values()) {
+            recording.recordFast(region.getOffset(), (int) region.getOffset());
+            recording.recordSlow(region.getOffset(), new byte[]{1, 2, 3});
+        }
+        digestCache.complete(file);
+
+        ClientDigestCache.CachedFile cachedFile = ClientDigestCache.open(directory).lookup(file);
+
+        assertThat(cachedFile).isNotNull();
+        assertThat(cachedFile.covers(file)).isTrue();
+        assertThat(cachedFile.fastDigests.get(0x100000L)).isEqualTo(0x100000);
+    }
+
+    @Test
+    public void written_file_is_recorded_once_writes_are_done() throws IOException {
+        Path directory = Files.createTempDirectory("cache");
+        File file = newFile(directory, "b.bin", 0x180000);
+
+        ClientDigestCache digestCache = ClientDigestCache.open(directory);
+        for (Region region : file.getRegions().values()) {
+            digestCache.writeStarted(file);
+        }
+        digestCache.writeFinished(file, 0, 7, new byte[]{7});
+        digestCache.recordWrittenFiles();
+        assertThat(Files.size(directory.resolve(ClientDigestCache.CACHE_FILE_NAME))).isEqualTo(0);
+
+        digestCache.writeFinished(file, 0x100000, 8, new byte[]{8});
+        digestCache.recordWrittenFiles();
+        ClientDigestCache.CachedFile cachedFile = ClientDigestCache.open(directory).lookup(file);
+
+        assertThat(cachedFile).isNotNull();
+        assertThat(cachedFile.fastDigests.get(0x100000L)).isEqualTo(8);
+        assertThat(cachedFile.slowDigests.get(0L)).isEqualTo(new byte[]{7});
+    }
+
+    @Test
+    public void failed_write_is_not_recorded() throws IOException {
+        Path directory = Files.createTempDirectory("cache");
+        File file = newFile(directory, "c.bin", 0x100000);
+
+        ClientDigestCache digestCache = ClientDigestCache.open(directory);
+        digestCache.writeStarted(file);
+        digestCache.writeFinished(file, 0, null, null);
+        digestCache.recordWrittenFiles();
+
+        assertThat(ClientDigestCache.open(directory).lookup(file)).isNull();
+    }
+
+    private static File newFile(Path directory, String name, int size) throws IOException {
+        Path path = directory.resolve(name);
+        Files.write(path, new byte[size]);
+        File file = new File(name);
+        file.setAbsolutePath(path);
+        RegionCalculator.calculateForSize(file, size);
+        return file;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.codec;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RegionCodecTest {
+
+    @Test
+    public void data_survives_a_round_trip() throws IOException {
+        byte[] data = text(300_000);
+
+        for (RegionCodec codec : RegionCodec.values()) {
+            ByteArrayOutputStream sent = new ByteArrayOutputStream();
+            try (OutputStream output = codec.compress(sent)) {
+                output.write(data, 0, 1000);
+                output.write(data, 1000, data.length - 1000);
+            }
+            try (InputStream input = codec.decompress(new ByteArrayInputStream(sent.toByteArray()))) {
+                assertThat(ByteStreams.toByteArray(input)).isEqualTo(data);
+            }
+        }
+    }
+
+    @Test
+    public void compressing_codecs_shrink_text() throws IOException {
+        byte[] data = text(300_000);
+
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        try (OutputStream output = RegionCodec.DEFLATE_FAST.compress(sent)) {
+            output.write(data);
+        }
+
+        assertThat(sent.size()).isLessThan(data.length / 4);
+        assertThat(RegionCodec.DEFLATE_FAST.compresses(data, 0x10000)).isTrue();
+        assertThat(RegionCodec.DEFLATE_BEST.compresses(data, 0x10000)).isTrue();
+    }
+
+    @Test
+    public void random_data_is_not_worth_compressing() {
+        byte[] data = new byte[0x10000];
+        new Random(1).nextBytes(data);
+
+        assertThat(RegionCodec.DEFLATE_FAST.compresses(data, data.length)).isFalse();
+        assertThat(RegionCodec.IDENTITY.compresses(text(0x10000), 0x10000)).isFalse();
+    }
+
+    @Test
+    public void closing_leaves_the_wrapped_stream_open() throws IOException {
+        ClosedTrackingStream sent = new ClosedTrackingStream();
+        RegionCodec.DEFLATE_FAST.compress(sent).close();
+        RegionCodec.IDENTITY.compress(sent).close();
+
+        assertThat(sent.closed).isFalse();
+    }
+
+    private static byte[] text(int length) {
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(1);
+        while (text.length() < length) {
+            text.append("2017-01-20 10:").append(random.nextInt(60)).append(" INFO request served in ")
+                    .append(random.nextInt(1000)).append("ms\n");
+        }
+        return text.substring(0, length).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static class ClosedTrackingStream extends ByteArrayOutputStream {
+        boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.digest;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import org.junit.Test;
+
+import java.nio.file.Paths;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DirectoryHashTreeTest {
+
+    private static final String A = Paths.get("a").toString();
+    private static final String B = Paths.get("a", "b").toString();
+    private static final String C = Paths.get("c").toString();
+
+    @Test
+    public void same_digests_give_same_hashes_in_any_order() {
+        DirectoryHashTree tree = new DirectoryHashTree();
+        File first = file(Paths.get("a", "b", "x").toString(), 1);
+        File second = file(Paths.get("c", "y").toString(), 2);
+        tree.add(first);
+        tree.add(second);
+        tree.refresh();
+
+        DirectoryHashTree otherTree = new DirectoryHashTree();
+        otherTree.add(file(Paths.get("c", "y").toString(), 2));
+        otherTree.refresh();
+        otherTree.add(file(Paths.get("a", "b", "x").toString(), 1));
+        otherTree.refresh();
+
+        assertThat(otherTree.getHash(DirectoryHashTree.ROOT)).isEqualTo(tree.getHash(DirectoryHashTree.ROOT));
+        assertThat(otherTree.getHash(B)).isEqualTo(tree.getHash(B));
+        assertThat(tree.getSubdirectories(DirectoryHashTree.ROOT)).containsExactly(A, C);
+        assertThat(tree.getFiles(B)).containsExactly(first);
+    }
+
+    @Test
+    public void changed_digest_changes_only_its_ancestors_after_refresh() {
+        DirectoryHashTree tree = new DirectoryHashTree();
+        File changed = file(Paths.get("a", "b", "x").toString(), 1);
+        tree.add(changed);
+        tree.add(file(Paths.get("c", "y").toString(), 2));
+        tree.refresh();
+        Long root = tree.getHash(DirectoryHashTree.ROOT);
+        Long a = tree.getHash(A);
+        Long c = tree.getHash(C);
+
+        changed.getRegions().get(0L).setQuickDigest(100);
+        changed.digestsChanged();
+        assertThat(tree.getHash(DirectoryHashTree.ROOT)).isEqualTo(root);
+
+        tree.refresh();
+        assertThat(tree.getHash(DirectoryHashTree.ROOT)).isNotEqualTo(root);
+        assertThat(tree.getHash(A)).isNotEqualTo(a);
+        assertThat(tree.getHash(C)).isEqualTo(c);
+    }
+
+    @Test
+    public void reverted_digest_restores_the_hashes() {
+        DirectoryHashTree tree = new DirectoryHashTree();
+        File file = file(Paths.get("a", "b", "x").toString(), 1);
+        tree.add(file);
+        tree.refresh();
+        Long root = tree.getHash(DirectoryHashTree.ROOT);
+
+        file.getRegions().get(0L).setSlowDigest(new byte[]{9});
+        file.digestsChanged();
+        tree.refresh();
+        file.getRegions().get(0L).setSlowDigest(new byte[]{1});
+        file.digestsChanged();
+        tree.refresh();
+
+        assertThat(tree.getHash(DirectoryHashTree.ROOT)).isEqualTo(root);
+    }
+
+    @Test
+    public void missing_directory_has_no_hash() {
+        DirectoryHashTree tree = new DirectoryHashTree();
+
+        assertThat(tree.getHash(A)).isNull();
+        assertThat(tree.getListing(A)).isNull();
+    }
+
+    private static File file(String name, int digest) {
+        File file = new File(name);
+        Region region = new Region(0, 10);
+        region.setQuickDigest(digest);
+        region.setSlowDigest(new byte[]{(byte) digest});
+        file.getRegions().put(0L, region);
+        return file;
+    }
+}
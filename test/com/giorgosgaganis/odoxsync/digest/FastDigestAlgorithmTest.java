@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.digest;
+
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FastDigestAlgorithmTest {
+
+    @Test
+    public void crc32c_matches_for_heap_and_direct_buffers() {
+        byte[] bytes = new byte[100_000];
+        new Random(1).nextBytes(bytes);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).flip();
+
+        int expected = Hashing.crc32c().hashBytes(bytes).asInt();
+
+        assertThat(FastDigestAlgorithm.CRC32C.digest(ByteBuffer.wrap(bytes))).isEqualTo(expected);
+        assertThat(FastDigestAlgorithm.CRC32C.digest(direct)).isEqualTo(expected);
+        assertThat(direct.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void crc32c_covers_the_whole_region() {
+        assertThat(FastDigestAlgorithm.CRC32C.sampleSize(1_000_000)).isEqualTo(1_000_000);
+        assertThat(FastDigestAlgorithm.SAMPLE_SUM.sampleSize(1_000_000)).isEqualTo(0x1000);
+        assertThat(FastDigestAlgorithm.SAMPLE_SUM.sampleSize(100)).isEqualTo(100);
+    }
+
+    @Test
+    public void zero_digest_is_the_digest_of_zeros() {
+        assertThat(FastDigestAlgorithm.SAMPLE_SUM.zeroDigest(1_000_000)).isEqualTo(0);
+        assertThat(FastDigestAlgorithm.CRC32C.zeroDigest(1_000_000))
+                .isEqualTo(Hashing.crc32c().hashBytes(new byte[1_000_000]).asInt());
+    }
+
+    @Test
+    public void sample_sum_adds_the_remaining_bytes() {
+        byte[] bytes = {1, 2, 3, -4, 5};
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(1);
+
+        assertThat(FastDigestAlgorithm.SAMPLE_SUM.digest(buffer.slice())).isEqualTo(6);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.digest;
+
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MerkleTreeTest {
+
+    @Test
+    public void single_leaf_is_the_root() {
+        byte[] digest = leaf(0);
+        MerkleTree tree = new MerkleTree(leaves(1));
+
+        assertThat(tree.getHeight()).isEqualTo(1);
+        assertThat(tree.getHash(0, 0)).isEqualTo(digest);
+    }
+
+    @Test
+    public void odd_levels_carry_the_last_node_up() {
+        MerkleTree tree = new MerkleTree(leaves(5));
+
+        assertThat(tree.getHeight()).isEqualTo(4);
+        assertThat(tree.getWidth(1)).isEqualTo(3);
+        assertThat(tree.getHash(1, 2)).isEqualTo(leaf(4));
+        assertThat(tree.getHash(2, 1)).isEqualTo(leaf(4));
+    }
+
+    @Test
+    public void a_changed_leaf_changes_only_its_path() {
+        List<byte[]> leaves = leaves(8);
+        MerkleTree tree = new MerkleTree(leaves);
+        leaves.set(5, leaf(100));
+        MerkleTree changedTree = new MerkleTree(leaves);
+
+        assertThat(changedTree.getHash(3, 0)).isNotEqualTo(tree.getHash(3, 0));
+        assertThat(changedTree.getHash(2, 0)).isEqualTo(tree.getHash(2, 0));
+        assertThat(changedTree.getHash(2, 1)).isNotEqualTo(tree.getHash(2, 1));
+        assertThat(changedTree.getHash(1, 3)).isEqualTo(tree.getHash(1, 3));
+        assertThat(changedTree.getHash(1, 2)).isNotEqualTo(tree.getHash(1, 2));
+    }
+
+    private static List<byte[]> leaves(int count) {
+        List<byte[]> leaves = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            leaves.add(leaf(i));
+        }
+        return leaves;
+    }
+
+    private static byte[] leaf(int value) {
+        return Hashing.sha256().hashInt(value).asBytes();
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.digest;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RollingChecksumTest {
+
+    @Test
+    public void rolled_checksum_equals_checksum_of_window() {
+        byte[] data = new byte[10_000];
+        new Random(11).nextBytes(data);
+        int windowSize = 1000;
+
+        RollingChecksum checksum = new RollingChecksum(windowSize);
+        checksum.update(ByteBuffer.wrap(data, 0, windowSize));
+        for (int start = 1; start + windowSize <= data.length; start++) {
+            checksum.roll(data[start - 1], data[start + windowSize - 1]);
+
+            assertThat(checksum.getValue())
+                    .isEqualTo(RollingChecksum.of(ByteBuffer.wrap(data, start, windowSize)));
+        }
+    }
+
+    @Test
+    public void byte_updates_equal_buffer_update() {
+        byte[] data = new byte[5000];
+        new Random(12).nextBytes(data);
+
+        RollingChecksum checksum = new RollingChecksum(data.length);
+        for (byte b : data) {
+            checksum.update(b);
+        }
+
+        assertThat(checksum.getValue()).isEqualTo(RollingChecksum.of(ByteBuffer.wrap(data)));
+    }
+}
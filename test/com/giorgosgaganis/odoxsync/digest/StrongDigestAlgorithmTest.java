@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.digest;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StrongDigestAlgorithmTest {
+
+    @Test
+    public void digests_have_the_declared_length() {
+        for (StrongDigestAlgorithm algorithm : StrongDigestAlgorithm.values()) {
+            assertThat(algorithm.digest(ByteBuffer.allocate(1000))).hasSize(algorithm.getDigestLength());
+            assertThat(algorithm.digest(ByteBuffer.allocate(0))).hasSize(algorithm.getDigestLength());
+        }
+    }
+
+    @Test
+    public void digest_does_not_depend_on_how_bytes_are_fed() {
+        byte[] bytes = new byte[1_500_000];
+        new Random(1).nextBytes(bytes);
+
+        for (StrongDigestAlgorithm algorithm : StrongDigestAlgorithm.values()) {
+            StrongDigestAlgorithm.StrongDigest digest = algorithm.newDigest();
+            digest.update(bytes, 0, 100_000);
+            ByteBuffer direct = ByteBuffer.allocateDirect(900_000);
+            direct.put(bytes, 100_000, 900_000).flip();
+            digest.update(direct);
+            digest.update(bytes, 1_000_000, 500_000);
+
+            assertThat(digest.digest()).isEqualTo(algorithm.digest(ByteBuffer.wrap(bytes)));
+        }
+    }
+
+    @Test
+    public void zero_digests_match_digests_of_zeros() {
+        for (StrongDigestAlgorithm algorithm : StrongDigestAlgorithm.values()) {
+            for (long size : new long[]{1, 0x10001, 0x100000}) {
+                byte[] expected = algorithm.digest(ByteBuffer.allocate((int) size));
+
+                assertThat(algorithm.zeroDigest(size)).isEqualTo(expected);
+                assertThat(algorithm.isZeroDigest(size, expected)).isTrue();
+                assertThat(algorithm.isZeroDigest(size + 1, expected)).isFalse();
+            }
+        }
+    }
+
+    @Test
+    public void algorithms_give_different_digests() {
+        ByteBuffer bytes = ByteBuffer.wrap(new byte[]{1, 2, 3});
+
+        assertThat(StrongDigestAlgorithm.SHA256_TREE.digest(bytes))
+                .isNotEqualTo(StrongDigestAlgorithm.SHA256.digest(bytes));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.files;
+
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import static com.giorgosgaganis.odoxsync.files.MappedBatchReaderTest.assertContent;
+import static com.giorgosgaganis.odoxsync.files.MappedBatchReaderTest.slice;
+import static com.giorgosgaganis.odoxsync.files.MappedBatchReaderTest.valueAt;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HeapBatchReaderTest {
+    private static final int FILE_SIZE = 0x80000;
+
+    private Path path;
+    private FileChannel channel;
+    private BufferPool bufferPool;
+
+    @Before
+    public void setUp() throws IOException {
+        path = Files.createTempFile("heap", ".bin");
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = valueAt(i);
+        }
+        Files.write(path, content);
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        bufferPool = new BufferPool(0x100000);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+        Files.delete(path);
+    }
+
+    @Test
+    public void contiguous_batch_is_read_at_its_offset() throws IOException {
+        HeapBatchReader reader = new HeapBatchReader(channel, bufferPool);
+
+        ByteBuffer buffer = reader.read(new BatchArea(5000, 3000, new LinkedList<>(), false));
+
+        assertThat(buffer.limit()).isEqualTo(3000);
+        assertContent(buffer, 5000);
+        reader.release(buffer);
+        assertThat(bufferPool.getAvailableBytes()).isEqualTo(0x100000L);
+    }
+
+    @Test
+    public void close_segments_are_read_in_one_run_without_gaps() throws IOException {
+        HeapBatchReader reader = new HeapBatchReader(channel, bufferPool);
+
+        ByteBuffer buffer = reader.read(segments(
+                new BatchArea.Segment(100, 50),
+                new BatchArea.Segment(1000, 50),
+                new BatchArea.Segment(1050, 50),
+                new BatchArea.Segment(1000 + HeapBatchReader.MAX_COALESCED_GAP, 50)));
+
+        assertThat(buffer.limit()).isEqualTo(200);
+        assertContent(slice(buffer, 0, 50), 100);
+        assertContent(slice(buffer, 50, 100), 1000);
+        assertContent(slice(buffer, 150, 50), 1000 + HeapBatchReader.MAX_COALESCED_GAP);
+        // Only the scattering read of a coalesced run moves the channel
+        assertThat(channel.position()).isEqualTo(1050L + HeapBatchReader.MAX_COALESCED_GAP);
+    }
+
+    @Test
+    public void distant_segments_are_read_separately() throws IOException {
+        HeapBatchReader reader = new HeapBatchReader(channel, bufferPool);
+
+        ByteBuffer buffer = reader.read(segments(
+                new BatchArea.Segment(0, 50),
+                new BatchArea.Segment(51 + HeapBatchReader.MAX_COALESCED_GAP, 50),
+                new BatchArea.Segment(0x70000, 50)));
+
+        assertContent(slice(buffer, 0, 50), 0);
+        assertContent(slice(buffer, 50, 50), 51 + HeapBatchReader.MAX_COALESCED_GAP);
+        assertContent(slice(buffer, 100, 50), 0x70000);
+        assertThat(channel.position()).isEqualTo(0L);
+    }
+
+    @Test
+    public void segments_out_of_order_are_not_coalesced() throws IOException {
+        HeapBatchReader reader = new HeapBatchReader(channel, bufferPool);
+
+        ByteBuffer buffer = reader.read(segments(
+                new BatchArea.Segment(2000, 50),
+                new BatchArea.Segment(1000, 50)));
+
+        assertContent(slice(buffer, 0, 50), 2000);
+        assertContent(slice(buffer, 50, 50), 1000);
+        assertThat(channel.position()).isEqualTo(0L);
+    }
+
+    @Test
+    public void buffer_is_returned_to_pool_when_read_fails() throws IOException {
+        HeapBatchReader reader = new HeapBatchReader(channel, bufferPool);
+
+        try {
+            reader.read(segments(
+                    new BatchArea.Segment(FILE_SIZE - 100, 50),
+                    new BatchArea.Segment(FILE_SIZE - 20, 50)));
+        } catch (EOFException e) {
+            assertThat(bufferPool.getAvailableBytes()).isEqualTo(0x100000L);
+            return;
+        }
+        throw new AssertionError("Expected read past end of file to fail");
+    }
+
+    private static BatchArea segments(BatchArea.Segment... segments) {
+        return new BatchArea(Arrays.asList(segments), new LinkedList<>(), false);
+    }
+}
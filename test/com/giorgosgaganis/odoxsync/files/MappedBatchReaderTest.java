@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.files;
+
+import com.giorgosgaganis.odoxsync.utils.BufferPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MappedBatchReaderTest {
+    private static final int FILE_SIZE = 0x40000;
+    private static final long WINDOW_SIZE = 0x10000;
+
+    private Path path;
+    private FileChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        path = Files.createTempFile("mapped", ".bin");
+        byte[] content = new byte[FILE_SIZE];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = valueAt(i);
+        }
+        Files.write(path, content);
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        channel.close();
+        Files.delete(path);
+    }
+
+    @Test
+    public void view_starts_at_batch_offset() throws IOException {
+        MappedBatchReader reader = new MappedBatchReader(channel, WINDOW_SIZE);
+
+        ByteBuffer view = reader.read(new BatchArea(1000, 200, new LinkedList<>(), false));
+
+        assertThat(view.position()).isEqualTo(0);
+        assertThat(view.limit()).isEqualTo(200);
+        assertContent(view, 1000);
+        reader.release(view);
+        reader.close();
+    }
+
+    @Test
+    public void window_slides_to_batches_outside_it() throws IOException {
+        MappedBatchReader reader = new MappedBatchReader(channel, WINDOW_SIZE, true);
+
+        ByteBuffer first = reader.read(new BatchArea(0, 0x8000, new LinkedList<>(), false));
+        ByteBuffer second = reader.read(new BatchArea(0x30000, 0x8000, new LinkedList<>(), false));
+
+        assertContent(second, 0x30000);
+        assertContent(first, 0);
+        reader.release(first);
+        reader.release(second);
+        reader.close();
+    }
+
+    @Test
+    public void batch_larger_than_window_is_mapped_whole() throws IOException {
+        MappedBatchReader reader = new MappedBatchReader(channel, WINDOW_SIZE);
+
+        ByteBuffer view = reader.read(new BatchArea(0x100, 0x20000, new LinkedList<>(), false));
+
+        assertThat(view.limit()).isEqualTo(0x20000);
+        assertContent(view, 0x100);
+        reader.release(view);
+        reader.close();
+    }
+
+    @Test(expected = EOFException.class)
+    public void batch_beyond_end_of_file_is_refused() throws IOException {
+        MappedBatchReader reader = new MappedBatchReader(channel, WINDOW_SIZE);
+
+        reader.read(new BatchArea(FILE_SIZE - 100, 200, new LinkedList<>(), false));
+    }
+
+    @Test
+    public void scattered_batch_is_read_into_a_pooled_buffer() throws IOException {
+        MappedBatchReader reader = new MappedBatchReader(channel, WINDOW_SIZE);
+        long available = BufferPool.INSTANCE.getAvailableBytes();
+
+        ByteBuffer buffer = reader.read(new BatchArea(Arrays.asList(
+                new BatchArea.Segment(0, 100),
+                new BatchArea.Segment(0x20000, 100)), new LinkedList<>(), false));
+
+        assertThat(buffer.hasArray()).isTrue();
+        assertThat(buffer.limit()).isEqualTo(200);
+        assertContent(slice(buffer, 0, 100), 0);
+        assertContent(slice(buffer, 100, 100), 0x20000);
+        reader.release(buffer);
+        assertThat(BufferPool.INSTANCE.getAvailableBytes()).isEqualTo(available);
+        reader.close();
+    }
+
+    static byte valueAt(long offset) {
+        return (byte) (offset % 251);
+    }
+
+    static void assertContent(ByteBuffer buffer, long offset) {
+        for (int i = 0; i < buffer.limit(); i++) {
+            assertThat(buffer.get(i)).isEqualTo(valueAt(offset + i));
+        }
+    }
+
+    static ByteBuffer slice(ByteBuffer buffer, int position, int size) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(position + size);
+        slice.position(position);
+        return slice.slice();
+    }
+}
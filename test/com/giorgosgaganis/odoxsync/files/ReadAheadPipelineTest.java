@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.files;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.files.processing.FileProcessor;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReadAheadPipelineTest {
+
+    @Test
+    public void batches_are_taken_in_processor_order() throws IOException {
+        BatchProcessor processor = new BatchProcessor(20);
+        RecordingReader reader = new RecordingReader();
+        List<Long> offsets = new ArrayList<>();
+
+        try (ReadAheadPipeline pipeline = new ReadAheadPipeline(processor, reader, 2)) {
+            pipeline.start();
+            ReadAheadPipeline.ReadBatch readBatch;
+            while ((readBatch = pipeline.take()) != null) {
+                assertThat(readBatch.buffer.getLong(0)).isEqualTo(readBatch.batchArea.offset);
+                offsets.add(readBatch.batchArea.offset);
+                pipeline.release(readBatch);
+            }
+        }
+
+        List<Long> expected = new ArrayList<>();
+        for (long i = 0; i < 20; i++) {
+            if (i % 5 != 4) {
+                expected.add(i * 100);
+            }
+        }
+        assertThat(offsets).isEqualTo(expected);
+        assertThat(reader.leased).isEmpty();
+    }
+
+    @Test
+    public void close_stops_reader_and_releases_queued_buffers() throws IOException {
+        BatchProcessor processor = new BatchProcessor(1000);
+        RecordingReader reader = new RecordingReader();
+
+        ReadAheadPipeline pipeline = new ReadAheadPipeline(processor, reader, 2);
+        pipeline.start();
+        ReadAheadPipeline.ReadBatch first = pipeline.take();
+        pipeline.release(first);
+        pipeline.close();
+
+        int readsAtClose = reader.reads.get();
+        assertThat(reader.leased).isEmpty();
+        assertThat(readsAtClose).isLessThan(1000);
+        assertThat(reader.reads.get()).isEqualTo(readsAtClose);
+    }
+
+    @Test
+    public void close_before_start_does_nothing() {
+        new ReadAheadPipeline(new BatchProcessor(1), new RecordingReader(), 1).close();
+    }
+
+    @Test(expected = IOException.class)
+    public void read_failure_is_thrown_from_take() throws IOException {
+        RecordingReader reader = new RecordingReader();
+        reader.failAt = 300;
+
+        try (ReadAheadPipeline pipeline = new ReadAheadPipeline(new BatchProcessor(10), reader, 2)) {
+            pipeline.start();
+            ReadAheadPipeline.ReadBatch readBatch;
+            while ((readBatch = pipeline.take()) != null) {
+                pipeline.release(readBatch);
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void reader_error_is_thrown_from_take() throws IOException {
+        RecordingReader reader = new RecordingReader();
+        reader.errorAt = 300;
+
+        try (ReadAheadPipeline pipeline = new ReadAheadPipeline(new BatchProcessor(10), reader, 2)) {
+            pipeline.start();
+            ReadAheadPipeline.ReadBatch readBatch;
+            while ((readBatch = pipeline.take()) != null) {
+                pipeline.release(readBatch);
+            }
+        }
+    }
+
+    private static class BatchProcessor implements FileProcessor {
+        private final int batchCount;
+        private int next = 0;
+
+        BatchProcessor(int batchCount) {
+            this.batchCount = batchCount;
+        }
+
+        @Override
+        public File getFile() {
+            return null;
+        }
+
+        @Override
+        public void process(ByteBuffer buffer, BatchArea batchArea) {
+        }
+
+        @Override
+        public boolean hasNextBatchArea() {
+            return next < batchCount;
+        }
+
+        @Override
+        public BatchArea nextBatchArea() {
+            long offset = next * 100L;
+            boolean isSkip = next % 5 == 4;
+            next++;
+            return new BatchArea(offset, 100, new LinkedList<>(), isSkip);
+        }
+
+        @Override
+        public void doBeforeBatchByteRead() {
+        }
+
+        @Override
+        public void doBeforeFileRead(RandomAccessFile randomAccessFile) {
+        }
+    }
+
+    private static class RecordingReader implements BatchReader {
+        final Set<ByteBuffer> leased = Collections.synchronizedSet(
+                Collections.newSetFromMap(new IdentityHashMap<>()));
+        final AtomicInteger reads = new AtomicInteger();
+        volatile long failAt = -1;
+        volatile long errorAt = -1;
+
+        @Override
+        public ByteBuffer read(BatchArea batchArea) throws IOException {
+            if (batchArea.offset == failAt) {
+                throw new IOException("Read failed at [" + failAt + "]");
+            }
+            if (batchArea.offset == errorAt) {
+                throw new OutOfMemoryError("No buffer for [" + errorAt + "]");
+            }
+            reads.incrementAndGet();
+            ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(batchArea.size));
+            buffer.putLong(0, batchArea.offset);
+            leased.add(buffer);
+            return buffer;
+        }
+
+        @Override
+        public void release(ByteBuffer buffer) {
+            assertThat(leased.remove(buffer)).isTrue();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
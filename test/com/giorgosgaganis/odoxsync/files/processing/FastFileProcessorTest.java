@@ -29,7 +29,12 @@ import com.giorgosgaganis.odoxsync.utils.Contants;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.function.Supplier;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -96,4 +101,24 @@ public class FastFileProcessorTest {
                 new FileRegionHashMapDigestHandler(),
                 file);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void regions_changed_after_batch_was_read_are_skipped() throws IOException {
+        Path path = Files.createTempFile("fast", ".bin");
+        File file = new File("fast.bin");
+        file.setAbsolutePath(path);
+        RegionCalculator.calculateForSize(file, Contants.REGION_SIZE * 4);
+        List<Long> digested = new ArrayList<>();
+        FastFileProcessor processor = new FastFileProcessor(
+                (buffer, file1, region, fastDigest, fileLastModifiedTime) -> digested.add(region.getOffset()), file);
+        processor.doBeforeFileRead(null);
+        BatchArea batchArea = processor.nextBatchArea();
+
+        file.getRegions().remove(Contants.REGION_SIZE);
+        file.getRegions().put(Contants.REGION_SIZE * 2, new Region(Contants.REGION_SIZE * 2, Contants.REGION_SIZE / 2));
+        processor.process(ByteBuffer.allocate(Math.toIntExact(batchArea.size)), batchArea);
+        Files.delete(path);
+
+        assertThat(digested).containsExactly(0L, Contants.REGION_SIZE * 3);
+    }
+}
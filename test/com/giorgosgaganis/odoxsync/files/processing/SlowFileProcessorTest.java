@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.files.processing;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.RegionCalculator;
+import com.giorgosgaganis.odoxsync.files.BatchArea;
+import com.giorgosgaganis.odoxsync.utils.Contants;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SlowFileProcessorTest {
+    private Path path;
+
+    @Before
+    public void setUp() throws IOException {
+        path = Files.createTempFile("slow", ".bin");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.delete(path);
+    }
+
+    @Test
+    public void batch_of_default_regions_holds_batch_size_regions() throws IOException {
+        SlowFileProcessor processor = newProcessor(Contants.REGION_SIZE, Contants.REGION_SIZE * SlowFileProcessor.BATCH_SIZE * 2);
+
+        BatchArea batchArea = processor.nextBatchArea();
+
+        assertThat(batchArea.currentBatchRegions).hasSize(SlowFileProcessor.BATCH_SIZE);
+        assertThat(batchArea.size).isEqualTo(Contants.REGION_SIZE * SlowFileProcessor.BATCH_SIZE);
+    }
+
+    @Test
+    public void batch_of_terabyte_file_regions_is_bounded_by_batch_bytes() throws IOException {
+        File file = new File("large.bin");
+        file.setAbsolutePath(path);
+        RegionCalculator.calculateForSize(file, 0x10000000000L);
+        SlowFileProcessor processor = new SlowFileProcessor((file1, region, batchLastModifiedTime, slowDigest) -> {
+        }, file);
+
+        BatchArea batchArea = processor.nextBatchArea();
+
+        assertThat(batchArea.size).isLessThanOrEqualTo(Math.max(file.getRegionSize(), SlowFileProcessor.BATCH_BYTES));
+        assertThat(batchArea.size).isLessThanOrEqualTo((long) Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void batches_of_large_regions_cover_whole_file() throws IOException {
+        long regionSize = 64 * Contants.REGION_SIZE;
+        SlowFileProcessor processor = newProcessor(regionSize, regionSize * SlowFileProcessor.BATCH_SIZE * 2);
+
+        long offset = 0;
+        while (processor.hasNextBatchArea()) {
+            BatchArea batchArea = processor.nextBatchArea();
+
+            assertThat(batchArea.offset).isEqualTo(offset);
+            assertThat(batchArea.size).isLessThanOrEqualTo(Math.max(regionSize, SlowFileProcessor.BATCH_BYTES));
+            offset += batchArea.size;
+        }
+        assertThat(offset).isEqualTo(regionSize * SlowFileProcessor.BATCH_SIZE * 2);
+    }
+
+    @Test
+    public void batch_of_mid_sized_regions_stops_before_batch_bytes() throws IOException {
+        long regionSize = 24 * Contants.REGION_SIZE;
+        SlowFileProcessor processor = newProcessor(regionSize, regionSize * SlowFileProcessor.BATCH_SIZE);
+
+        BatchArea batchArea = processor.nextBatchArea();
+
+        assertThat(batchArea.currentBatchRegions).hasSize((int) (SlowFileProcessor.BATCH_BYTES / regionSize));
+        assertThat(batchArea.size).isLessThanOrEqualTo(SlowFileProcessor.BATCH_BYTES);
+    }
+
+    @Test
+    public void regions_changed_after_batch_was_read_are_skipped() throws IOException {
+        File file = newFile(Contants.REGION_SIZE, Contants.REGION_SIZE * 4);
+        List<Long> digested = new ArrayList<>();
+        SlowFileProcessor processor = new SlowFileProcessor(
+                (file1, region, batchLastModifiedTime, slowDigest) -> digested.add(region.getOffset()), file);
+        BatchArea batchArea = processor.nextBatchArea();
+
+        file.getRegions().remove(Contants.REGION_SIZE);
+        file.getRegions().put(Contants.REGION_SIZE * 2, new Region(Contants.REGION_SIZE * 2, Contants.REGION_SIZE / 2));
+        processor.process(ByteBuffer.allocate(Math.toIntExact(batchArea.size)), batchArea);
+
+        assertThat(digested).containsExactly(0L, Contants.REGION_SIZE * 3);
+    }
+
+    private SlowFileProcessor newProcessor(long regionSize, long fileSize) {
+        return new SlowFileProcessor((file1, region, batchLastModifiedTime, slowDigest) -> {
+        }, newFile(regionSize, fileSize));
+    }
+
+    private File newFile(long regionSize, long fileSize) {
+        File file = new File("large.bin");
+        file.setAbsolutePath(path);
+        file.setRegionSize(regionSize);
+        long position = 0;
+        while (position < fileSize) {
+            long size = Math.min(regionSize, fileSize - position);
+            file.getRegions().put(position, new Region(position, size));
+            position += size;
+        }
+        return file;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestBatchFormatTest {
+
+    @Test
+    public void fast_digests_survive_a_round_trip() throws IOException {
+        List<ClientFastDigestMessage> messages = Arrays.asList(
+                new ClientFastDigestMessage(7, 1, 0, -5),
+                new ClientFastDigestMessage(7, 1, 1 << 20, Integer.MAX_VALUE),
+                new ClientFastDigestMessage(7, 2, 1L << 40, Integer.MIN_VALUE),
+                new ClientFastDigestMessage(7, 1, 0, 3));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DigestBatchFormat.writeFastDigests(messages, output);
+        List<ClientFastDigestMessage> read = DigestBatchFormat.readFastDigests(
+                new ByteArrayInputStream(output.toByteArray()));
+
+        assertThat(read).hasSameSizeAs(messages);
+        for (int i = 0; i < messages.size(); i++) {
+            assertThat(read.get(i).getClientId()).isEqualTo(messages.get(i).getClientId());
+            assertThat(read.get(i).getFileId()).isEqualTo(messages.get(i).getFileId());
+            assertThat(read.get(i).getOffset()).isEqualTo(messages.get(i).getOffset());
+            assertThat(read.get(i).getFastDigest()).isEqualTo(messages.get(i).getFastDigest());
+        }
+    }
+
+    @Test
+    public void slow_digests_survive_a_round_trip_in_order() throws IOException {
+        List<ClientSlowDigestMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            byte[] digest = new byte[32];
+            Arrays.fill(digest, (byte) i);
+            messages.add(new ClientSlowDigestMessage(7, i / 10, (long) (99 - i) << 20, digest));
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DigestBatchFormat.writeSlowDigests(messages, output);
+        List<ClientSlowDigestMessage> read = DigestBatchFormat.readSlowDigests(
+                new ByteArrayInputStream(output.toByteArray()));
+
+        assertThat(read).hasSameSizeAs(messages);
+        for (int i = 0; i < messages.size(); i++) {
+            assertThat(read.get(i).getFileId()).isEqualTo(messages.get(i).getFileId());
+            assertThat(read.get(i).getOffset()).isEqualTo(messages.get(i).getOffset());
+            assertThat(read.get(i).getSlowDigest()).isEqualTo(messages.get(i).getSlowDigest());
+        }
+        // A group header per file and about 36 bytes per digest
+        assertThat(output.size()).isLessThan(100 * 37 + 10 * 10);
+    }
+
+    @Test
+    public void empty_batch_survives_a_round_trip() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DigestBatchFormat.writeSlowDigests(Collections.emptyList(), output);
+
+        assertThat(DigestBatchFormat.readSlowDigests(new ByteArrayInputStream(output.toByteArray()))).isEmpty();
+    }
+
+    @Test(expected = IOException.class)
+    public void batch_of_another_kind_is_refused() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        DigestBatchFormat.writeSlowDigests(Collections.emptyList(), output);
+
+        DigestBatchFormat.readFastDigests(new ByteArrayInputStream(output.toByteArray()));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.messages;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RegionFrameFormatTest {
+
+    @Test
+    public void frames_of_a_batch_survive_a_round_trip() throws IOException {
+        byte[] bytes = new byte[100000];
+        new Random(1).nextBytes(bytes);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        RegionFrameFormat.writeData(output, 1, 0, bytes.length, "identity");
+        try (OutputStream data = RegionFrameFormat.dataOutput(output)) {
+            data.write(bytes, 0, 1000);
+            data.write(bytes, 1000, bytes.length - 1000);
+        }
+        RegionFrameFormat.writeZero(output, 2, 1L << 33, 1 << 20);
+        RegionFrameFormat.writeCopyLocal(output, 3, 4096, 8192, 4, 0, new byte[]{1, 2, 3});
+        RegionFrameFormat.writeEnd(output);
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        RegionFrameFormat.Frame data = RegionFrameFormat.readFrame(input);
+        assertThat(data.type).isEqualTo(RegionFrameFormat.DATA);
+        assertThat(data.codec).isEqualTo("identity");
+        assertThat(data.size).isEqualTo(bytes.length);
+        try (InputStream dataInput = RegionFrameFormat.dataInput(input)) {
+            assertThat(ByteStreams.toByteArray(dataInput)).isEqualTo(bytes);
+        }
+
+        RegionFrameFormat.Frame zero = RegionFrameFormat.readFrame(input);
+        assertThat(zero.type).isEqualTo(RegionFrameFormat.ZERO);
+        assertThat(zero.fileId).isEqualTo(2);
+        assertThat(zero.offset).isEqualTo(1L << 33);
+
+        RegionFrameFormat.Frame copy = RegionFrameFormat.readFrame(input);
+        assertThat(copy.type).isEqualTo(RegionFrameFormat.COPY_LOCAL);
+        assertThat(copy.sourceFileId).isEqualTo(4);
+        assertThat(copy.slowDigest).isEqualTo(new byte[]{1, 2, 3});
+
+        assertThat(RegionFrameFormat.readFrame(input)).isNull();
+    }
+
+    @Test
+    public void closing_a_partly_read_frame_skips_to_the_next_past_heartbeats() throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(buffer);
+        RegionFrameFormat.writeData(output, 1, 0, 3000, "identity");
+        try (OutputStream data = RegionFrameFormat.dataOutput(output)) {
+            for (int i = 0; i < 3; i++) {
+                data.write(new byte[1000]);
+            }
+        }
+        RegionFrameFormat.writeHeartbeat(output);
+        RegionFrameFormat.writeZero(output, 5, 0, 10);
+        RegionFrameFormat.writeEnd(output);
+
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(buffer.toByteArray()));
+        RegionFrameFormat.readFrame(input);
+        try (InputStream dataInput = RegionFrameFormat.dataInput(input)) {
+            assertThat(dataInput.read(new byte[10])).isEqualTo(10);
+        }
+
+        assertThat(RegionFrameFormat.readFrame(input).fileId).isEqualTo(5);
+        assertThat(RegionFrameFormat.readFrame(input)).isNull();
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.candidates;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestIndexTest {
+
+    private final ConcurrentHashMap<Integer, File> files = new ConcurrentHashMap<>();
+    private final DigestIndex digestIndex = new DigestIndex(files);
+
+    @Test
+    public void finds_region_with_same_digest_in_another_file() {
+        addRegion(1, 0, 100, new byte[]{1});
+        addRegion(2, 0, 100, new byte[]{2});
+
+        assertThat(digestIndex.find(new byte[]{1}, 100, 3, 0))
+                .isEqualTo(new DigestIndex.Location(1, 0));
+        assertThat(digestIndex.find(new byte[]{3}, 100, 3, 0)).isNull();
+    }
+
+    @Test
+    public void does_not_find_the_target_or_regions_of_another_size() {
+        addRegion(1, 0, 100, new byte[]{1});
+
+        assertThat(digestIndex.find(new byte[]{1}, 100, 1, 0)).isNull();
+        assertThat(digestIndex.find(new byte[]{1}, 50, 2, 0)).isNull();
+    }
+
+    @Test
+    public void does_not_find_region_whose_digest_changed() {
+        Region region = addRegion(1, 0, 100, new byte[]{1});
+        region.setSlowDigest(new byte[]{2});
+
+        assertThat(digestIndex.find(new byte[]{1}, 100, 2, 0)).isNull();
+    }
+
+    private Region addRegion(int fileId, long offset, long size, byte[] slowDigest) {
+        File file = files.computeIfAbsent(fileId, id -> new File("file" + id));
+        Region region = new Region(offset, size);
+        region.setSlowDigest(slowDigest);
+        file.getRegions().put(offset, region);
+        digestIndex.add(fileId, region);
+        return region;
+    }
+}
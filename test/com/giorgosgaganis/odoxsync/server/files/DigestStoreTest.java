@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.files;
+
+import com.giorgosgaganis.odoxsync.File;
+import com.giorgosgaganis.odoxsync.Region;
+import com.giorgosgaganis.odoxsync.RegionCalculator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DigestStoreTest {
+
+    @Test
+    public void file_that_is_not_a_store_is_left_alone() throws IOException {
+        Path path = Files.createTempFile("digests", ".txt");
+        Files.write(path, "not a digest store".getBytes(StandardCharsets.UTF_8));
+
+        try {
+            DigestStore.open(path);
+        } catch (IOException e) {
+            // Refused, as expected
+        }
+
+        assertThat(new String(Files.readAllBytes(path), StandardCharsets.UTF_8)).isEqualTo("not a digest store");
+    }
+
+    @Test
+    public void latest_digest_is_restored_after_reopening() throws Exception {
+        Path path = Files.createTempDirectory("digests").resolve("store");
+        FileTime modifiedTime = FileTime.fromMillis(1000);
+        File file = new File("a.bin");
+        RegionCalculator.calculateForSize(file, 0x100000);
+        Region region = file.getRegions().get(0L);
+
+        DigestStore digestStore = DigestStore.open(path);
+        digestStore.putFast(file, region, 1, modifiedTime);
+        digestStore.putFast(file, region, 2, modifiedTime);
+        Thread.sleep(500);
+
+        File restored = new File("a.bin");
+        RegionCalculator.calculateForSize(restored, 0x100000);
+        DigestStore.open(path).restore(restored, modifiedTime);
+
+        assertThat(restored.getRegions().get(0L).getQuickDigest()).isEqualTo(2);
+    }
+}
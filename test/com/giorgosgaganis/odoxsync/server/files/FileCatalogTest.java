@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.server.files;
+
+import com.giorgosgaganis.odoxsync.File;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileCatalogTest {
+
+    @Test
+    public void added_file_is_found_by_id_and_name() {
+        FileCatalog fileCatalog = new FileCatalog();
+
+        File file = fileCatalog.add(new File("dir/a.txt"));
+
+        assertThat(fileCatalog.get(file.getId())).isSameAs(file);
+        assertThat(fileCatalog.getByName("dir/a.txt")).isSameAs(file);
+        assertThat(fileCatalog.values()).containsExactly(file);
+    }
+
+    @Test
+    public void adding_same_name_returns_tracked_file() {
+        FileCatalog fileCatalog = new FileCatalog();
+
+        File first = fileCatalog.add(new File("a.txt"));
+        File second = fileCatalog.add(new File("a.txt"));
+
+        assertThat(second).isSameAs(first);
+        assertThat(fileCatalog.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void ids_are_unique() {
+        FileCatalog fileCatalog = new FileCatalog();
+
+        File a = fileCatalog.add(new File("a.txt"));
+        File b = fileCatalog.add(new File("b.txt"));
+
+        assertThat(a.getId()).isNotEqualTo(b.getId());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2017 Giorgos Gaganis
+ *
+ * This file is part of odoxSync.
+ *
+ * odoxSync is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * odoxSync is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with odoxSync.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.giorgosgaganis.odoxsync.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BufferPoolTest {
+
+    @Test
+    public void borrowed_buffer_is_limited_to_requested_size() throws InterruptedException {
+        BufferPool bufferPool = new BufferPool(0x10000);
+
+        ByteBuffer buffer = bufferPool.borrow(1000);
+
+        assertThat(buffer.position()).isEqualTo(0);
+        assertThat(buffer.limit()).isEqualTo(1000);
+        assertThat(buffer.capacity()).isEqualTo(1024);
+    }
+
+    @Test
+    public void capacity_is_rounded_to_power_of_two_then_to_megabytes() {
+        assertThat(BufferPool.capacityFor(1)).isEqualTo(1);
+        assertThat(BufferPool.capacityFor(4096)).isEqualTo(4096);
+        assertThat(BufferPool.capacityFor(4097)).isEqualTo(8192);
+        assertThat(BufferPool.capacityFor(0x100001)).isEqualTo(0x200000);
+        assertThat(BufferPool.capacityFor(0x280000)).isEqualTo(0x300000);
+    }
+
+    @Test
+    public void leased_buffers_count_against_budget() throws InterruptedException {
+        BufferPool bufferPool = new BufferPool(0x10000);
+
+        ByteBuffer buffer = bufferPool.borrow(0x4000);
+
+        assertThat(bufferPool.getAvailableBytes()).isEqualTo(0xC000L);
+        bufferPool.release(buffer);
+        assertThat(bufferPool.getAvailableBytes()).isEqualTo(0x10000L);
+    }
+
+    @Test
+    public void released_array_is_reused() throws InterruptedException {
+        BufferPool bufferPool = new BufferPool(0x10000);
+
+        ByteBuffer first = bufferPool.borrow(3000);
+        bufferPool.release(first);
+        ByteBuffer second = bufferPool.borrow(4000);
+
+        assertThat(second.array()).isSameAs(first.array());
+        assertThat(second.limit()).isEqualTo(4000);
+    }
+
+    @Test
+    public void idle_arrays_are_dropped_to_fit_other_sizes() throws Exception {
+        BufferPool bufferPool = new BufferPool(0x10000);
+        bufferPool.release(bufferPool.borrow(0x8000));
+        bufferPool.release(bufferPool.borrow(0x8000 / 2));
+
+        ByteBuffer buffer = borrowWithin(bufferPool, 0x10000);
+
+        assertThat(buffer.capacity()).isEqualTo(0x10000);
+    }
+
+    @Test
+    public void borrow_blocks_until_buffer_is_released() throws Exception {
+        BufferPool bufferPool = new BufferPool(0x10000);
+        ByteBuffer leased = bufferPool.borrow(0xC000);
+
+        CompletableFuture<ByteBuffer> waiting = CompletableFuture.supplyAsync(() -> borrow(bufferPool, 0x8000));
+        Thread.sleep(200);
+        assertThat(waiting.isDone()).isFalse();
+
+        bufferPool.release(leased);
+        assertThat(waiting.get(5, TimeUnit.SECONDS).limit()).isEqualTo(0x8000);
+    }
+
+    @Test
+    public void request_larger_than_budget_is_served_when_pool_is_empty() throws Exception {
+        BufferPool bufferPool = new BufferPool(0x1000);
+
+        ByteBuffer buffer = borrowWithin(bufferPool, 0x4000);
+
+        assertThat(buffer.limit()).isEqualTo(0x4000);
+    }
+
+    @Test
+    public void releasing_foreign_buffer_is_ignored() {
+        BufferPool bufferPool = new BufferPool(0x1000);
+
+        bufferPool.release(ByteBuffer.allocate(0x800));
+        bufferPool.release(null);
+
+        assertThat(bufferPool.getAvailableBytes()).isEqualTo(0x1000L);
+    }
+
+    private static ByteBuffer borrowWithin(BufferPool bufferPool, int size)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        return CompletableFuture.supplyAsync(() -> borrow(bufferPool, size)).get(5, TimeUnit.SECONDS);
+    }
+
+    private static ByteBuffer borrow(BufferPool bufferPool, int size) {
+        try {
+            return bufferPool.borrow(size);
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}